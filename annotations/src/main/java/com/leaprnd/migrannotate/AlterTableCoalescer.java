@@ -0,0 +1,214 @@
+package com.leaprnd.migrannotate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static java.util.regex.Pattern.CASE_INSENSITIVE;
+import static java.util.regex.Pattern.DOTALL;
+
+/**
+ * Merges consecutive {@code ALTER TABLE} statements on the same relation into one, so that a database which is several
+ * {@code @SchemaUpgrade}s behind takes the {@code ACCESS EXCLUSIVE} lock and scans or rewrites the table once instead
+ * of once per upgrade. PostgreSQL reorders the actions of a single {@code ALTER TABLE} (e.g. every {@code DROP} runs
+ * before any {@code ADD}), so statements are only merged when all of their actions add, drop or alter a column or
+ * constraint and neither statement mentions a column or constraint that the other one adds, drops or alters.
+ */
+final class AlterTableCoalescer {
+
+	private static final String IDENTIFIER = "(\"(?:[^\"]|\"\")+\"|[A-Za-z_][\\w$]*)";
+	private static final Pattern IDENTIFIERS = Pattern.compile(IDENTIFIER);
+	private static final Pattern HEADER = compile(
+		"^\\s*ALTER\\s+TABLE\\s+(IF\\s+EXISTS\\s+)?(ONLY\\s+)?(" + IDENTIFIER + "(?:\\s*\\.\\s*" + IDENTIFIER + ")?)\\s+"
+	);
+
+	private static final Pattern[] ACTIONS = {
+		compile("^ADD\\s+CONSTRAINT\\s+" + IDENTIFIER + "\\s"),
+		compile("^ADD\\s+(?:PRIMARY\\s+KEY|UNIQUE|CHECK|FOREIGN\\s+KEY|EXCLUDE)\\b()"),
+		compile("^ADD\\s+(?:COLUMN\\s+)?(?:IF\\s+NOT\\s+EXISTS\\s+)?" + IDENTIFIER + "\\s"),
+		compile("^DROP\\s+CONSTRAINT\\s+(?:IF\\s+EXISTS\\s+)?" + IDENTIFIER + "(?:\\s+RESTRICT)?$"),
+		compile("^DROP\\s+(?:COLUMN\\s+)?(?:IF\\s+EXISTS\\s+)?" + IDENTIFIER + "(?:\\s+RESTRICT)?$"),
+		compile(
+			"^ALTER\\s+(?:COLUMN\\s+)?" + IDENTIFIER + "(?!.*\\bUSING\\b)" +
+			"\\s+(?:SET\\s+DEFAULT|DROP\\s+DEFAULT|SET\\s+NOT\\s+NULL|DROP\\s+NOT\\s+NULL|(?:SET\\s+DATA\\s+)?TYPE)\\b"
+		),
+	};
+
+	private static Pattern compile(String regex) {
+		return Pattern.compile(regex, CASE_INSENSITIVE | DOTALL);
+	}
+
+	/**
+	 * Coalesces the statements of {@code sql}, which is returned as it is unless any of them were merged. Otherwise,
+	 * the statements are rebuilt one per line, relying on {@link SQLStatements#split(String)} to drop trailing comments
+	 * that would swallow their terminating semicolons.
+	 */
+	static String coalesce(String sql) {
+		final var statements = SQLStatements.split(sql);
+		final var coalesced = coalesce(statements);
+		if (coalesced.size() == statements.size()) {
+			return sql;
+		}
+		final var builder = new StringBuilder(sql.length());
+		for (final var statement : coalesced) {
+			builder.append(statement.sql()).append(";\n");
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Coalesces {@code statements} (without their terminating semicolons), keeping track of which of them ended up in
+	 * which coalesced statement.
+	 */
+	static List<Coalesced> coalesce(List<String> statements) {
+		final var coalesced = new ArrayList<Coalesced>(statements.size());
+		AlterTable previous = null;
+		var from = 0;
+		for (var index = 0; index < statements.size(); index ++) {
+			final var statement = statements.get(index);
+			final var current = AlterTable.parse(statement);
+			if (previous != null && current != null && previous.canMerge(current)) {
+				previous.merge(current);
+				continue;
+			}
+			if (previous != null) {
+				coalesced.add(new Coalesced(previous.toSql(), from, index));
+			}
+			if (current == null) {
+				coalesced.add(new Coalesced(statement, index, index + 1));
+			}
+			previous = current;
+			from = index;
+		}
+		if (previous != null) {
+			coalesced.add(new Coalesced(previous.toSql(), from, statements.size()));
+		}
+		return coalesced;
+	}
+
+	private static String normalize(String identifier) {
+		return identifier.startsWith("\"") ? identifier : '"' + identifier.toLowerCase() + '"';
+	}
+
+	private static final class AlterTable {
+
+		private final String statement;
+		private final String header;
+		private final String relation;
+		private final List<String> actions = new ArrayList<>();
+		private final Set<String> targets = new HashSet<>();
+		private final Set<String> mentions = new HashSet<>();
+
+		private int statements = 1;
+
+		private AlterTable(String statement, String header, String relation) {
+			this.statement = statement;
+			this.header = header;
+			this.relation = relation;
+		}
+
+		static AlterTable parse(String statement) {
+			final var masked = SQLStatements.mask(statement);
+			final var header = HEADER.matcher(masked);
+			if (!header.find()) {
+				return null;
+			}
+			final var relation = new StringBuilder();
+			if (header.group(1) != null) {
+				relation.append("IF EXISTS ");
+			}
+			if (header.group(2) != null) {
+				relation.append("ONLY ");
+			}
+			final var parts = IDENTIFIERS.matcher(header.group(3));
+			while (parts.find()) {
+				relation.append(normalize(parts.group(1))).append('.');
+			}
+			final var alterTable = new AlterTable(statement, statement.substring(0, header.end()), relation.toString());
+			var start = header.end();
+			var depth = 0;
+			for (var index = start; index <= masked.length(); index ++) {
+				final var character = index < masked.length() ? masked.charAt(index) : ',';
+				if (character == '"') {
+					index = masked.indexOf('"', index + 1);
+					while (index >= 0 && index + 1 < masked.length() && masked.charAt(index + 1) == '"') {
+						index = masked.indexOf('"', index + 2);
+					}
+					if (index < 0) {
+						return null;
+					}
+				} else if (character == '(') {
+					depth ++;
+				} else if (character == ')') {
+					depth --;
+				} else if (character == ',' && depth == 0) {
+					if (!alterTable.addAction(statement.substring(start, index), masked.substring(start, index).strip())) {
+						return null;
+					}
+					start = index + 1;
+				}
+			}
+			final var mentions = IDENTIFIERS.matcher(masked.substring(header.end()));
+			while (mentions.find()) {
+				alterTable.mentions.add(normalize(mentions.group(1)));
+			}
+			return alterTable;
+		}
+
+		private boolean addAction(String action, String masked) {
+			for (final var pattern : ACTIONS) {
+				final var matcher = pattern.matcher(masked);
+				if (matcher.find()) {
+					if (!matcher.group(1).isEmpty()) {
+						targets.add(normalize(matcher.group(1)));
+					}
+					actions.add(SQLStatements.canonicalize(action));
+					return true;
+				}
+			}
+			return false;
+		}
+
+		boolean canMerge(AlterTable other) {
+			if (!relation.equals(other.relation)) {
+				return false;
+			}
+			for (final var target : other.targets) {
+				if (mentions.contains(target)) {
+					return false;
+				}
+			}
+			for (final var target : targets) {
+				if (other.mentions.contains(target)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		void merge(AlterTable other) {
+			actions.addAll(other.actions);
+			targets.addAll(other.targets);
+			mentions.addAll(other.mentions);
+			statements += other.statements;
+		}
+
+		String toSql() {
+			if (statements == 1) {
+				return statement;
+			}
+			return header + String.join(",\n\t", actions);
+		}
+
+	}
+
+	/**
+	 * A statement that replaces the statements from index {@code from} (inclusive) to {@code to} (exclusive).
+	 */
+	record Coalesced(String sql, int from, int to) {}
+
+	private AlterTableCoalescer() {}
+
+}
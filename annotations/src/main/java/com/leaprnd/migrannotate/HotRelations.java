@@ -0,0 +1,17 @@
+package com.leaprnd.migrannotate;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+/**
+ * Names the tables and indexes of a schema that production queries need in the buffer cache, so that they can be
+ * loaded with {@code pg_prewarm} after the schema is migrated.
+ */
+@Target(TYPE)
+@Retention(SOURCE)
+public @interface HotRelations {
+	String[] value();
+}
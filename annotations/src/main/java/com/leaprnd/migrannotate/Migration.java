@@ -41,6 +41,20 @@ public interface Migration {
 	long getLatestChecksum();
 	void migrate(long currentChecksum, SQLWriter writer);
 
+	/**
+	 * Returns every checksum (other than {@link #EMPTY_CHECKSUM}) that this migration knows how to upgrade from.
+	 */
+	default long[] getUpgradableChecksums() {
+		return new long[0];
+	}
+
+	/**
+	 * Returns the relations named by the {@code @HotRelations} annotation of the schema.
+	 */
+	default String[] getHotRelations() {
+		return new String[0];
+	}
+
 	default boolean isDependentOn(Migration other) {
 		return false;
 	}
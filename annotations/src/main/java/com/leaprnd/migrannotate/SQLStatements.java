@@ -0,0 +1,270 @@
+package com.leaprnd.migrannotate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static java.lang.Character.isLetterOrDigit;
+import static java.lang.Character.isWhitespace;
+import static java.util.regex.Pattern.CASE_INSENSITIVE;
+
+/**
+ * Splits a script into its top-level statements, taking string literals, quoted identifiers, dollar-quoted bodies and
+ * comments into account. Scripts containing {@code BEGIN ATOMIC} bodies are returned as a single statement. Comments
+ * following the last token of a statement are dropped, so that a semicolon can always be appended to it.
+ */
+public final class SQLStatements {
+
+	private static final Pattern BEGIN_ATOMIC = Pattern.compile("\\bBEGIN\\s+ATOMIC\\b", CASE_INSENSITIVE);
+
+	public static List<String> split(String sql) {
+		final var statements = new ArrayList<String>();
+		if (BEGIN_ATOMIC.matcher(sql).find()) {
+			addIfNotBlank(statements, sql);
+			return statements;
+		}
+		final var length = sql.length();
+		var start = 0;
+		var index = 0;
+		while (index < length) {
+			final var character = sql.charAt(index);
+			if (character == ';') {
+				addIfNotBlank(statements, sql.substring(start, index));
+				start = ++ index;
+			} else if (character == '\'') {
+				final var escaped = index > 0 && (sql.charAt(index - 1) == 'E' || sql.charAt(index - 1) == 'e');
+				index = skipQuoted(sql, index, '\'', escaped);
+			} else if (character == '"') {
+				index = skipQuoted(sql, index, '"', false);
+			} else if (character == '-' && sql.startsWith("--", index)) {
+				final var end = sql.indexOf('\n', index);
+				index = end < 0 ? length : end + 1;
+			} else if (character == '/' && sql.startsWith("/*", index)) {
+				index = skipBlockComment(sql, index);
+			} else if (character == '$') {
+				index = skipDollarQuoted(sql, index);
+			} else {
+				index ++;
+			}
+		}
+		addIfNotBlank(statements, sql.substring(start));
+		return statements;
+	}
+
+	/**
+	 * Replaces the contents of every string literal, dollar-quoted body and comment of {@code statement} with spaces, so
+	 * that keywords and identifiers can be found with regular expressions. Quoted identifiers are left untouched.
+	 */
+	public static String mask(String statement) {
+		final var masked = statement.toCharArray();
+		final var length = statement.length();
+		var index = 0;
+		while (index < length) {
+			final var character = statement.charAt(index);
+			final int end;
+			if (character == '\'') {
+				final var escaped = index > 0 && (statement.charAt(index - 1) == 'E' || statement.charAt(index - 1) == 'e');
+				end = skipQuoted(statement, index, '\'', escaped);
+			} else if (character == '"') {
+				index = skipQuoted(statement, index, '"', false);
+				continue;
+			} else if (character == '-' && statement.startsWith("--", index)) {
+				final var newline = statement.indexOf('\n', index);
+				end = newline < 0 ? length : newline;
+			} else if (character == '/' && statement.startsWith("/*", index)) {
+				end = skipBlockComment(statement, index);
+			} else if (character == '$') {
+				end = skipDollarQuoted(statement, index);
+				if (end == index + 1) {
+					index = end;
+					continue;
+				}
+			} else {
+				index ++;
+				continue;
+			}
+			for (var masking = index; masking < end; masking ++) {
+				masked[masking] = ' ';
+			}
+			index = end;
+		}
+		return new String(masked);
+	}
+
+	/**
+	 * Strips the comments and insignificant whitespace of {@code sql}, so that reformatting a script does not change
+	 * its checksum. String literals, quoted identifiers and dollar-quoted bodies (and thus the source of functions) are
+	 * left untouched. String literals separated by a newline are kept on separate lines, since PostgreSQL concatenates
+	 * them but rejects string literals separated by a space.
+	 */
+	public static String canonicalize(String sql) {
+		final var canonical = new StringBuilder(sql.length());
+		final var length = sql.length();
+		var separated = false;
+		var multiline = false;
+		var index = 0;
+		while (index < length) {
+			final var character = sql.charAt(index);
+			final int end;
+			if (isWhitespace(character)) {
+				separated = true;
+				multiline |= character == '\n';
+				index ++;
+				continue;
+			} else if (character == '-' && sql.startsWith("--", index)) {
+				final var newline = sql.indexOf('\n', index);
+				separated = true;
+				index = newline < 0 ? length : newline;
+				continue;
+			} else if (character == '/' && sql.startsWith("/*", index)) {
+				separated = true;
+				index = skipBlockComment(sql, index);
+				continue;
+			} else if (character == '\'') {
+				final var escaped = index > 0 && (sql.charAt(index - 1) == 'E' || sql.charAt(index - 1) == 'e');
+				end = skipQuoted(sql, index, '\'', escaped);
+			} else if (character == '"') {
+				end = skipQuoted(sql, index, '"', false);
+			} else if (character == '$') {
+				end = skipDollarQuoted(sql, index);
+			} else {
+				end = index + 1;
+			}
+			if (separated && !canonical.isEmpty() && !isPunctuation(canonical.charAt(canonical.length() - 1)) && !isPunctuation(character)) {
+				canonical.append(multiline && character == '\'' && canonical.charAt(canonical.length() - 1) == '\'' ? '\n' : ' ');
+			}
+			separated = false;
+			multiline = false;
+			canonical.append(sql, index, end);
+			index = end;
+		}
+		return canonical.toString();
+	}
+
+	private static boolean isPunctuation(char character) {
+		return character == '(' || character == ')' || character == ',' || character == ';';
+	}
+
+	private static void addIfNotBlank(List<String> statements, String statement) {
+		if (!isBlank(statement)) {
+			statements.add(stripTrailingComments(statement));
+		}
+	}
+
+	/**
+	 * Strips the whitespace surrounding {@code statement} and the comments following its last token. Otherwise, a
+	 * semicolon appended to a statement ending in a {@code --} comment would end up inside of the comment.
+	 */
+	static String stripTrailingComments(String statement) {
+		final var length = statement.length();
+		var end = 0;
+		var index = 0;
+		while (index < length) {
+			final var character = statement.charAt(index);
+			if (isWhitespace(character)) {
+				index ++;
+				continue;
+			} else if (character == '-' && statement.startsWith("--", index)) {
+				final var newline = statement.indexOf('\n', index);
+				index = newline < 0 ? length : newline + 1;
+				continue;
+			} else if (character == '/' && statement.startsWith("/*", index)) {
+				index = skipBlockComment(statement, index);
+				continue;
+			} else if (character == '\'') {
+				final var escaped = index > 0 && (statement.charAt(index - 1) == 'E' || statement.charAt(index - 1) == 'e');
+				index = skipQuoted(statement, index, '\'', escaped);
+			} else if (character == '"') {
+				index = skipQuoted(statement, index, '"', false);
+			} else if (character == '$') {
+				index = skipDollarQuoted(statement, index);
+			} else {
+				index ++;
+			}
+			end = index;
+		}
+		return statement.substring(0, end).strip();
+	}
+
+	private static int skipQuoted(String sql, int index, char quote, boolean escaped) {
+		final var length = sql.length();
+		index ++;
+		while (index < length) {
+			final var character = sql.charAt(index);
+			if (escaped && character == '\\') {
+				index += 2;
+			} else if (character == quote) {
+				if (index + 1 < length && sql.charAt(index + 1) == quote) {
+					index += 2;
+				} else {
+					return index + 1;
+				}
+			} else {
+				index ++;
+			}
+		}
+		return length;
+	}
+
+	private static int skipBlockComment(String sql, int index) {
+		final var length = sql.length();
+		var depth = 0;
+		while (index < length) {
+			if (sql.startsWith("/*", index)) {
+				depth ++;
+				index += 2;
+			} else if (sql.startsWith("*/", index)) {
+				depth --;
+				index += 2;
+				if (depth == 0) {
+					return index;
+				}
+			} else {
+				index ++;
+			}
+		}
+		return length;
+	}
+
+	private static int skipDollarQuoted(String sql, int index) {
+		if (index > 0 && isIdentifierPart(sql.charAt(index - 1))) {
+			return index + 1;
+		}
+		var end = index + 1;
+		while (end < sql.length() && isIdentifierPart(sql.charAt(end)) && sql.charAt(end) != '$') {
+			end ++;
+		}
+		if (end >= sql.length() || sql.charAt(end) != '$' || end > index + 1 && Character.isDigit(sql.charAt(index + 1))) {
+			return index + 1;
+		}
+		final var tag = sql.substring(index, end + 1);
+		final var close = sql.indexOf(tag, end + 1);
+		return close < 0 ? sql.length() : close + tag.length();
+	}
+
+	private static boolean isIdentifierPart(char character) {
+		return isLetterOrDigit(character) || character == '_' || character == '$';
+	}
+
+	private static boolean isBlank(String statement) {
+		var index = 0;
+		final var length = statement.length();
+		while (index < length) {
+			final var character = statement.charAt(index);
+			if (isWhitespace(character)) {
+				index ++;
+			} else if (statement.startsWith("--", index)) {
+				final var end = statement.indexOf('\n', index);
+				index = end < 0 ? length : end + 1;
+			} else if (statement.startsWith("/*", index)) {
+				index = skipBlockComment(statement, index);
+			} else {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private SQLStatements() {}
+
+}
@@ -1,23 +1,49 @@
 package com.leaprnd.migrannotate;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
 import static java.lang.String.format;
 
 public final class SQLWriter {
 
 	private final long id;
+	private final long currentChecksum;
+	private final long latestChecksum;
+	private final String group;
 
 	private final StringBuilder prologue = new StringBuilder();
 	private final StringBuilder sql = new StringBuilder();
+	private final StringBuilder repeatable = new StringBuilder();
 	private final StringBuilder epilogue = new StringBuilder();
+	private final StringBuilder contract = new StringBuilder();
+	private final List<SourcedStatement> statements = new ArrayList<>();
+	private int lengthOfStatements = 0;
 
-	SQLWriter(long id) {
+	SQLWriter(long id, long currentChecksum, long latestChecksum, String group) {
 		this.id = id;
+		this.currentChecksum = currentChecksum;
+		this.latestChecksum = latestChecksum;
+		this.group = group;
 	}
 
 	long getId() {
 		return id;
 	}
 
+	long getCurrentChecksum() {
+		return currentChecksum;
+	}
+
+	long getLatestChecksum() {
+		return latestChecksum;
+	}
+
+	String getGroup() {
+		return group;
+	}
+
 	public void appendToPrologue(String format) {
 		prologue.append(format);
 	}
@@ -38,6 +64,43 @@ public final class SQLWriter {
 		sql.append(format(format, arguments));
 	}
 
+	/**
+	 * Appends a single {@code statement} (without its terminating semicolon) that was split from the annotation
+	 * described by {@code source} at compile time, so that it can be executed and timed on its own. Comments following
+	 * its last token are dropped (as classes generated by older versions may still contain them), so that they cannot
+	 * swallow the semicolon.
+	 */
+	public void appendStatement(String source, String statement) {
+		final var stripped = SQLStatements.stripTrailingComments(statement);
+		if (lengthOfStatements == sql.length()) {
+			statements.add(new SourcedStatement(source, stripped));
+			sql.append(stripped).append(";\n");
+			lengthOfStatements = sql.length();
+		} else {
+			sql.append(stripped).append(";\n");
+		}
+	}
+
+	/**
+	 * Returns the statements of {@link #getSql()} as they were split at compile time, or {@code null} if any of it was
+	 * appended some other way.
+	 */
+	List<SourcedStatement> getStatements() {
+		return lengthOfStatements == sql.length() ? statements : null;
+	}
+
+	/**
+	 * Appends SQL that creates or replaces objects (functions, views, triggers) and runs after {@link #getSql()}. Each
+	 * {@code CREATE OR REPLACE} statement is skipped at runtime when the live definition would not change.
+	 */
+	public void appendToRepeatable(String format) {
+		repeatable.append(format);
+	}
+
+	public void appendToRepeatable(String format, Object ... arguments) {
+		repeatable.append(format(format, arguments));
+	}
+
 	public void appendToEpilogue(String format) {
 		epilogue.append(format);
 	}
@@ -46,6 +109,48 @@ public final class SQLWriter {
 		epilogue.append(format(format, arguments));
 	}
 
+	public void appendToContract(String format) {
+		contract.append(format);
+	}
+
+	public void appendToContract(String format, Object ... arguments) {
+		contract.append(format(format, arguments));
+	}
+
+	/**
+	 * Merges the consecutive {@code ALTER TABLE} statements of {@link #getSql()} that can safely be executed as one.
+	 */
+	void coalesceAlterTables() {
+		final var split = getStatements();
+		if (split == null) {
+			final var coalesced = AlterTableCoalescer.coalesce(sql.toString());
+			sql.setLength(0);
+			sql.append(coalesced);
+			return;
+		}
+		final var texts = new ArrayList<String>(split.size());
+		for (final var statement : split) {
+			texts.add(statement.sql());
+		}
+		final var coalesced = AlterTableCoalescer.coalesce(texts);
+		if (coalesced.size() == texts.size()) {
+			return;
+		}
+		final var merged = new ArrayList<SourcedStatement>(coalesced.size());
+		sql.setLength(0);
+		for (final var statement : coalesced) {
+			final var sources = new LinkedHashSet<String>();
+			for (var index = statement.from(); index < statement.to(); index ++) {
+				sources.add(split.get(index).source());
+			}
+			merged.add(new SourcedStatement(String.join(" + ", sources), statement.sql()));
+			sql.append(statement.sql()).append(";\n");
+		}
+		statements.clear();
+		statements.addAll(merged);
+		lengthOfStatements = sql.length();
+	}
+
 	public String getPrologue() {
 		return prologue.toString();
 	}
@@ -54,8 +159,18 @@ public final class SQLWriter {
 		return sql.toString();
 	}
 
+	public String getRepeatable() {
+		return repeatable.toString();
+	}
+
 	public String getEpilogue() {
 		return epilogue.toString();
 	}
 
-}
\ No newline at end of file
+	public String getContract() {
+		return contract.toString();
+	}
+
+	record SourcedStatement(String source, String sql) {}
+
+}
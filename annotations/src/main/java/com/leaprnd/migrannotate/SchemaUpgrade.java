@@ -17,4 +17,10 @@ public @interface SchemaUpgrade {
 	long to();
 	@Language("SQL")
 	String sql();
+	/**
+	 * SQL that is deferred until {@code migrate(Phase.CONTRACT)} (e.g. dropping a column that the previous version of
+	 * the application still reads), so that it only runs once every instance has been upgraded.
+	 */
+	@Language("SQL")
+	String contract() default "";
 }
\ No newline at end of file
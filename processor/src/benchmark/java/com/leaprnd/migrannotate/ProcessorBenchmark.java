@@ -0,0 +1,148 @@
+package com.leaprnd.migrannotate;
+
+import javax.tools.ToolProvider;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static java.lang.String.format;
+import static java.lang.System.nanoTime;
+import static java.lang.management.ManagementFactory.getMemoryPoolMXBeans;
+import static java.lang.management.ManagementFactory.getThreadMXBean;
+import static java.lang.management.MemoryType.HEAP;
+
+/**
+ * Generates thousands of synthetic {@code @Schema} classes (with deep hierarchies, explicit dependencies and enum
+ * schemas, like a large application's repositories) and reports how long javac takes to compile them with the
+ * annotation processors and how much memory it needs. Run it with {@code gradle :processor:benchmark}.
+ */
+public final class ProcessorBenchmark {
+
+	private static final String PACKAGE = "com.example.benchmark";
+	private static final int HIERARCHY_DEPTH = 10;
+	private static final int CLASSES_PER_ENUM = 100;
+	// Explicit dependencies stay within a module of related schemas, otherwise every transitive closure would be as
+	// large as the whole project and javac would spend all its time compiling the generated isDependentOn switches
+	private static final int CLASSES_PER_MODULE = 50;
+
+	public static void main(String[] arguments) throws IOException {
+		final var sizes = new ArrayList<Integer>();
+		for (final var argument : arguments) {
+			sizes.add(Integer.parseInt(argument));
+		}
+		if (sizes.isEmpty()) {
+			sizes.addAll(List.of(5_000, 10_000, 20_000));
+		}
+		compile(generate(100));
+		for (final var size : sizes) {
+			final var result = compile(generate(size));
+			System.out.println(result);
+		}
+	}
+
+	private static Path generate(int size) throws IOException {
+		final var root = Files.createTempDirectory("migrannotate-benchmark");
+		final var directory = root.resolve("src").resolve(PACKAGE.replace('.', '/'));
+		Files.createDirectories(directory);
+		final var random = new Random(size);
+		for (var index = 0; index < size; index ++) {
+			final var source = new StringBuilder();
+			source.append(format("package %s;\n\n", PACKAGE));
+			source.append("import com.leaprnd.migrannotate.*;\n\n");
+			source.append(format("@SchemaIdentifier(%dL)\n", random.nextLong()));
+			source.append(format("@Schema(\"\"\"\nCREATE TABLE \"table%d\" (\n\t\"id\" BIGINT NOT NULL PRIMARY KEY,\n\t\"name\" VARCHAR NOT NULL\n);\n\"\"\")\n", index));
+			source.append(format("@SchemaUpgrade(from = %dL, to = %dL, sql = \"\"\"\nALTER TABLE \"table%d\" ADD COLUMN \"name\" VARCHAR NOT NULL;\n\"\"\")\n", random.nextInt() & 0xFFFFFFFFL, random.nextInt() & 0xFFFFFFFFL, index));
+			final var indexInModule = index % CLASSES_PER_MODULE;
+			if (indexInModule > 0) {
+				source.append(format("@SchemaDependency(Table%d.class)\n", index - 1 - random.nextInt(indexInModule)));
+			}
+			if (index % CLASSES_PER_ENUM == 0) {
+				source.append(format("@EnumSchema(name = \"kind%d\", value = Table%d.Kind.class)\n", index, index));
+			}
+			source.append(format("public class Table%d", index));
+			if (index % HIERARCHY_DEPTH != 0) {
+				source.append(format(" extends Table%d", index - 1));
+			}
+			source.append(" {\n");
+			if (index % CLASSES_PER_ENUM == 0) {
+				source.append("\tpublic enum Kind { SMALL, MEDIUM, LARGE }\n");
+			}
+			source.append("}\n");
+			Files.writeString(directory.resolve(format("Table%d.java", index)), source);
+		}
+		return root;
+	}
+
+	private static Result compile(Path root) throws IOException {
+		final var sources = new ArrayList<String>();
+		try (final var paths = Files.walk(root.resolve("src"))) {
+			paths.filter(Files::isRegularFile).forEach(path -> sources.add(path.toString()));
+		}
+		final var output = Files.createDirectories(root.resolve("classes"));
+		final var classPath = System.getProperty("java.class.path");
+		final var arguments = new ArrayList<>(List.of(
+			"-classpath", classPath,
+			"-processorpath", classPath,
+			"-d", output.toString(),
+			"-s", output.toString(),
+			"-implicit:none",
+			"-nowarn"
+		));
+		arguments.addAll(sources);
+		System.gc();
+		for (final var pool : getMemoryPoolMXBeans()) {
+			pool.resetPeakUsage();
+		}
+		final var threadMXBean = (com.sun.management.ThreadMXBean) getThreadMXBean();
+		final var threadId = Thread.currentThread().getId();
+		final var allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+		final var start = nanoTime();
+		final var exitCode = ToolProvider.getSystemJavaCompiler().run(null, null, null, arguments.toArray(String[]::new));
+		final var wallNanos = nanoTime() - start;
+		final var allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+		var peakHeapBytes = 0L;
+		for (final var pool : getMemoryPoolMXBeans()) {
+			if (pool.getType() == HEAP) {
+				peakHeapBytes += pool.getPeakUsage().getUsed();
+			}
+		}
+		try (final var paths = Files.walk(root)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(ProcessorBenchmark::delete);
+		}
+		if (exitCode != 0) {
+			throw new IllegalStateException("javac failed with exit code " + exitCode);
+		}
+		return new Result(sources.size(), wallNanos, allocatedBytes, peakHeapBytes);
+	}
+
+	private static void delete(Path path) {
+		try {
+			Files.delete(path);
+		} catch (IOException exception) {
+			throw new RuntimeException(exception);
+		}
+	}
+
+	private record Result(int classes, long wallNanos, long allocatedBytes, long peakHeapBytes) {
+
+		@Override
+		public String toString() {
+			return format(
+				"%,d classes: %,d ms wall time, %,d MiB allocated, %,d MiB peak heap",
+				classes,
+				wallNanos / 1_000_000,
+				allocatedBytes >> 20,
+				peakHeapBytes >> 20
+			);
+		}
+
+	}
+
+	private ProcessorBenchmark() {}
+
+}
@@ -7,16 +7,23 @@ import javax.lang.model.element.TypeElement;
 
 import java.util.Set;
 
-import static java.util.Collections.singleton;
 import static javax.lang.model.SourceVersion.latestSupported;
 
 public abstract class AbstractMigrannotateAnnotationProcessor extends AbstractProcessor {
 
 	protected static final String PACKAGE = "com.leaprnd.migrannotate";
+	protected static final String CANONICALIZE_SQL_OPTION = "migrannotate.canonicalizeSql";
+	protected static final String INFER_DEPENDENCIES_OPTION = "migrannotate.inferDependencies";
+	protected static final String SPLIT_STATEMENTS_OPTION = "migrannotate.splitStatements";
 
 	@Override
 	public Set<String> getSupportedOptions() {
-		return singleton("org.gradle.annotation.processing.aggregating");
+		return Set.of(
+			"org.gradle.annotation.processing.aggregating",
+			CANONICALIZE_SQL_OPTION,
+			INFER_DEPENDENCIES_OPTION,
+			SPLIT_STATEMENTS_OPTION
+		);
 	}
 
 	@Override
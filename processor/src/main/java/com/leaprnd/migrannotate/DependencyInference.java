@@ -0,0 +1,24 @@
+package com.leaprnd.migrannotate;
+
+/**
+ * What the {@code migrannotate.inferDependencies} option of the {@link SchemaAnnotationProcessor} does with the
+ * dependencies it infers from the objects that the SQL of a schema references.
+ */
+enum DependencyInference {
+
+	/**
+	 * Only {@code @SchemaDependency} annotations and supertypes are taken into account.
+	 */
+	OFF,
+
+	/**
+	 * Every inferred dependency is added to the declared ones.
+	 */
+	IMPLICIT,
+
+	/**
+	 * Compilation fails when an inferred dependency is not declared (directly or transitively).
+	 */
+	STRICT
+
+}
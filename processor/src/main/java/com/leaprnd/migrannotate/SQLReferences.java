@@ -0,0 +1,149 @@
+package com.leaprnd.migrannotate;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static java.util.regex.Pattern.CASE_INSENSITIVE;
+
+/**
+ * Finds the tables, views, sequences, types and functions that SQL creates or references. Objects are identified by
+ * their kind and unqualified name (e.g. {@code relation:knight}), since a relation can also be used as a type. Only
+ * positions that unambiguously name an object are considered, so references inside string literals, dollar-quoted
+ * bodies and comments are ignored.
+ */
+final class SQLReferences {
+
+	private static final String IDENTIFIER = "(?:\"(?:[^\"]|\"\")+\"|[A-Za-z_][\\w$]*)";
+	private static final String NAME = "(?:" + IDENTIFIER + "\\s*\\.\\s*)?(" + IDENTIFIER + ")";
+	// Keywords that follow ON, UPDATE or TABLE without naming a relation, e.g. ON DELETE CASCADE or ON CONFLICT
+	private static final String NOT_A_RELATION =
+		"(?:CASCADE|COMMIT|CONFLICT|DELETE|EACH|INSERT|NO|OF|ON|OR|RESTRICT|SET|TRUNCATE|UPDATE)\\b";
+	// Keywords and type names that are followed by a parenthesis without calling a function
+	private static final String NOT_A_FUNCTION =
+		"(?:ALL|AND|ANY|ARRAY|AS|BETWEEN|BIT|BY|CAST|CHAR|CHARACTER|CHECK|DECIMAL|DEFAULT|DISTINCT|ELSE|EXCLUDE|EXISTS|" +
+		"EXTRACT|FILTER|FLOAT|FOR|FROM|GROUP|IF|IN|INCLUDE|INHERITS|INTERVAL|IS|KEY|LIKE|NOT|NUMERIC|OR|OVER|OVERLAY|" +
+		"POSITION|RETURNS|ROW|SELECT|SOME|SUBSTRING|TABLE|THEN|TIME|TIMESTAMP|TRIM|UNIQUE|USING|VALUES|VARBIT|VARCHAR|" +
+		"VARYING|WHEN|WHERE|WITH|WITHIN)\\b";
+	// Keywords that follow an identifier after an opening parenthesis or comma without naming a type
+	private static final String NOT_A_TYPE =
+		"(?:AND|AS|ASC|COLLATE|DESC|FROM|IN|IS|KEY|NOT|NULLS|OR|THEN|USING|WITH)\\b";
+	// Functions whose arguments are separated by keywords (e.g. FROM) instead of commas
+	private static final Pattern SPECIAL_FUNCTION = compile("\\b(?:EXTRACT|OVERLAY|POSITION|SUBSTRING|TRIM)\\s*\\(");
+	private static final Pattern SPECIAL_FUNCTION_KEYWORD = compile("\\b(?:FOR|FROM|IN|PLACING)\\b");
+
+	private static final Pattern CREATED = compile(
+		"\\bCREATE\\s+(?:OR\\s+REPLACE\\s+)?(?:(?:GLOBAL|LOCAL)\\s+)?(?:TEMP(?:ORARY)?\\s+|UNLOGGED\\s+)?(?:MATERIALIZED\\s+)?" +
+		"(TABLE|VIEW|SEQUENCE|TYPE|DOMAIN|FUNCTION|PROCEDURE)\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?" + NAME
+	);
+	private static final Pattern REFERENCED_RELATION = compile(
+		"\\b(?:REFERENCES|FROM|JOIN|ON|TABLE|INTO|UPDATE)\\s+(?:ONLY\\s+)?(?:IF\\s+(?:NOT\\s+)?EXISTS\\s+)?" +
+		"(?!" + NOT_A_RELATION + ")" + NAME + "(?![\\w$]|\\s*[.=<>!])"
+	);
+	private static final Pattern REFERENCED_TYPE = compile(
+		"(?:::\\s*|\\bTYPE\\s+|[(,]\\s*(?!(?:CONSTRAINT|EXCLUDE|FOREIGN|PRIMARY|SELECT)\\b)" + IDENTIFIER + "\\s+(?!" + NOT_A_TYPE + ")|" +
+		"\\bCOLUMN\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?" + IDENTIFIER + "\\s+)" + NAME
+	);
+	// Names that directly follow a keyword introducing a relation (e.g. CREATE TABLE "knight" (...)) are not calls
+	private static final Pattern REFERENCED_FUNCTION = compile(
+		"(?<!\\b(?:EXISTS|INDEX|INTO|ON|ONLY|REFERENCES|TABLE|USING|VIEW)\\s{1,64})(?<![\\w$\".])(?!" + NOT_A_FUNCTION + ")" +
+		NAME + "\\s*\\("
+	);
+
+	private static Pattern compile(String regex) {
+		return Pattern.compile(regex, CASE_INSENSITIVE);
+	}
+
+	static Set<String> findCreatedObjectsIn(String sql) {
+		final var objects = new LinkedHashSet<String>();
+		final var matcher = CREATED.matcher(SQLStatements.mask(sql));
+		while (matcher.find()) {
+			objects.add(toObject(matcher.group(1), matcher.group(2)));
+		}
+		return objects;
+	}
+
+	static Set<String> findReferencedObjectsIn(String sql) {
+		final var masked = maskSpecialFunctionKeywords(SQLStatements.mask(sql));
+		final var objects = new LinkedHashSet<String>();
+		final var relations = REFERENCED_RELATION.matcher(masked);
+		while (relations.find()) {
+			objects.add(toRelation(relations.group(1)));
+		}
+		final var types = REFERENCED_TYPE.matcher(masked);
+		while (types.find()) {
+			objects.add(toType(types.group(1)));
+		}
+		final var functions = REFERENCED_FUNCTION.matcher(masked);
+		while (functions.find()) {
+			objects.add(toFunction(functions.group(1)));
+		}
+		return objects;
+	}
+
+	/**
+	 * Replaces the keywords that separate the arguments of e.g. {@code EXTRACT(EPOCH FROM "at")} with commas, so that
+	 * the arguments are neither mistaken for relations nor for types. Subqueries among the arguments are left as they
+	 * are.
+	 */
+	private static String maskSpecialFunctionKeywords(String masked) {
+		final var functions = SPECIAL_FUNCTION.matcher(masked);
+		if (!functions.find()) {
+			return masked;
+		}
+		final var result = masked.toCharArray();
+		final var keyword = SPECIAL_FUNCTION_KEYWORD.matcher(masked).useTransparentBounds(true);
+		do {
+			var depth = 1;
+			for (var index = functions.end(); index < masked.length() && depth > 0; index ++) {
+				switch (masked.charAt(index)) {
+					case '(' -> depth ++;
+					case ')' -> depth --;
+					case '"' -> {
+						final var closing = masked.indexOf('"', index + 1);
+						index = closing < 0 ? masked.length() : closing;
+					}
+					default -> {
+						if (depth == 1 && keyword.region(index, masked.length()).lookingAt()) {
+							result[index] = ',';
+							Arrays.fill(result, index + 1, keyword.end(), ' ');
+							index = keyword.end() - 1;
+						}
+					}
+				}
+			}
+		} while (functions.find());
+		return new String(result);
+	}
+
+	static String toObject(String kind, String identifier) {
+		return switch (kind.toUpperCase()) {
+			case "TYPE", "DOMAIN" -> toType(identifier);
+			case "FUNCTION", "PROCEDURE" -> toFunction(identifier);
+			default -> toRelation(identifier);
+		};
+	}
+
+	private static String toRelation(String identifier) {
+		return "relation:" + nameOf(identifier);
+	}
+
+	static String toType(String identifier) {
+		return "type:" + nameOf(identifier);
+	}
+
+	private static String toFunction(String identifier) {
+		return "function:" + nameOf(identifier);
+	}
+
+	static String nameOf(String identifier) {
+		if (identifier.startsWith("\"")) {
+			return identifier.substring(1, identifier.length() - 1).replace("\"\"", "\"");
+		}
+		return identifier.toLowerCase();
+	}
+
+	private SQLReferences() {}
+
+}
@@ -10,6 +10,7 @@ import com.squareup.javapoet.JavaFile;
 import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.TypeSpec;
 
+import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.RoundEnvironment;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.TypeElement;
@@ -20,14 +21,21 @@ import javax.lang.model.util.SimpleTypeVisitor14;
 
 import java.io.IOException;
 import java.lang.annotation.Annotation;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Supplier;
 import java.util.zip.CRC32;
 
+import static com.leaprnd.migrannotate.DependencyInference.IMPLICIT;
+import static com.leaprnd.migrannotate.DependencyInference.OFF;
+import static com.leaprnd.migrannotate.DependencyInference.STRICT;
 import static com.leaprnd.migrannotate.Migration.DEFAULT_GROUP;
 import static com.leaprnd.migrannotate.Migration.enquoteIdentifier;
 import static com.leaprnd.migrannotate.Migration.enquoteLiteral;
@@ -74,6 +82,45 @@ public class SchemaAnnotationProcessor extends AbstractMigrannotateAnnotationPro
 		return crc32.getValue();
 	}
 
+	private boolean canonicalizeSql = false;
+	private boolean splitStatements = false;
+	private DependencyInference dependencyInference = OFF;
+
+	// These caches only live for one round, since javac may hand out new elements in every round
+	private final Map<Element, Long> idsByElement = new HashMap<>();
+	private final Map<Element, DependencyNode> dependencyNodesByElement = new HashMap<>();
+	private final Map<Element, List<String>> enumValuesByElement = new HashMap<>();
+	private final Map<String, Set<Element>> creatorsByObject = new HashMap<>();
+	private final Map<Element, Map<Element, String>> inferredDependenciesByElement = new HashMap<>();
+	private int walks = 0;
+
+	@Override
+	public synchronized void init(ProcessingEnvironment processingEnv) {
+		super.init(processingEnv);
+		canonicalizeSql = Boolean.parseBoolean(processingEnv.getOptions().get(CANONICALIZE_SQL_OPTION));
+		splitStatements = Boolean.parseBoolean(processingEnv.getOptions().get(SPLIT_STATEMENTS_OPTION));
+		final var inferDependencies = processingEnv.getOptions().get(INFER_DEPENDENCIES_OPTION);
+		if (inferDependencies != null) {
+			try {
+				dependencyInference = DependencyInference.valueOf(inferDependencies.toUpperCase());
+			} catch (IllegalArgumentException exception) {
+				final var message = format("%s must be one of off, implicit or strict!", INFER_DEPENDENCIES_OPTION);
+				processingEnv.getMessager().printMessage(ERROR, message);
+			}
+		}
+	}
+
+	/**
+	 * Returns the SQL that is both checksummed and sent to the database, which is stripped of comments and
+	 * insignificant whitespace if the {@code migrannotate.canonicalizeSql} option is enabled.
+	 */
+	private String prepare(String sql) {
+		if (canonicalizeSql) {
+			return SQLStatements.canonicalize(sql);
+		}
+		return sql;
+	}
+
 	@Override
 	public Set<String> getSupportedAnnotationTypes() {
 		final var names = new LinkedHashSet<String>();
@@ -85,9 +132,22 @@ public class SchemaAnnotationProcessor extends AbstractMigrannotateAnnotationPro
 
 	@Override
 	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		idsByElement.clear();
+		dependencyNodesByElement.clear();
+		enumValuesByElement.clear();
+		creatorsByObject.clear();
+		inferredDependenciesByElement.clear();
 		final var filter = processingEnv.getFiler();
 		final var messager = processingEnv.getMessager();
-		for (final var element : roundEnv.getElementsAnnotatedWithAny(SUPPORTED_ANNOTATION_TYPES)) {
+		final var elements = roundEnv.getElementsAnnotatedWithAny(SUPPORTED_ANNOTATION_TYPES);
+		if (dependencyInference != OFF) {
+			for (final var element : elements) {
+				for (final var object : findObjectsCreatedBy(element)) {
+					creatorsByObject.computeIfAbsent(object, ignored -> new HashSet<>()).add(element);
+				}
+			}
+		}
+		for (final var element : elements) {
 			if (switch (element.getKind()) {
 				case ENUM, CLASS, INTERFACE, RECORD -> false;
 				default -> true;
@@ -117,6 +177,15 @@ public class SchemaAnnotationProcessor extends AbstractMigrannotateAnnotationPro
 				messager.printMessage(ERROR, message, element);
 			} catch (MissingSchemaIdentifierException exception) {
 				messager.printMessage(ERROR, "Must be annotated with @SchemaIdentifier!", element);
+			} catch (UndeclaredDependencyException exception) {
+				final var name = exception.getDependency().getSimpleName();
+				final var message = format(
+					"References %s, which is created by %s, but is not annotated with @SchemaDependency(%s.class)!",
+					enquoteIdentifier(exception.getObject()),
+					name,
+					name
+				);
+				messager.printMessage(ERROR, message, element);
 			} catch (CyclicalDependencyException exception) {
 				messager.printMessage(ERROR, "Schema depends on itself!", element);
 			} catch (InvalidEnumSchemaValue exception) {
@@ -128,16 +197,27 @@ public class SchemaAnnotationProcessor extends AbstractMigrannotateAnnotationPro
 	}
 
 	protected long getIdFor(Element element) {
-		final var schemaIdentifier = element.getAnnotation(SchemaIdentifier.class);
-		if (schemaIdentifier != null) {
-			return schemaIdentifier.value();
+		final var id = findIdOf(element);
+		if (id != null) {
+			return id;
 		}
 		throw new MissingSchemaIdentifierException(element);
 	}
 
+	private Long findIdOf(Element element) {
+		if (idsByElement.containsKey(element)) {
+			return idsByElement.get(element);
+		}
+		final var schemaIdentifier = element.getAnnotation(SchemaIdentifier.class);
+		final var id = schemaIdentifier == null ? null : schemaIdentifier.value();
+		idsByElement.put(element, id);
+		return id;
+	}
+
 	private class JavaFileBuilder {
 
 		protected final Element annotatedClass;
+		private String enumSql;
 
 		public JavaFileBuilder(Element annotatedClass) {
 			this.annotatedClass = annotatedClass;
@@ -161,7 +241,7 @@ public class SchemaAnnotationProcessor extends AbstractMigrannotateAnnotationPro
 		}
 
 		private TypeSpec toTypeSpec() {
-			return TypeSpec
+			final var builder = TypeSpec
 				.classBuilder(getSimpleClassName())
 				.addOriginatingElement(annotatedClass)
 				.addAnnotation(migrateAnnotationSpec())
@@ -173,10 +253,15 @@ public class SchemaAnnotationProcessor extends AbstractMigrannotateAnnotationPro
 				.addField(latestChecksumSpec())
 				.addMethod(getIdSpec())
 				.addMethod(getLatestChecksumSpec())
+				.addMethod(getUpgradableChecksumsSpec())
 				.addMethod(migrateMethodSpec())
 				.addMethod(isDependentOnMigrationSpec())
-				.addMethod(isDependentOnIdSpec())
-				.build();
+				.addMethod(isDependentOnIdSpec());
+			final var hotRelations = annotatedClass.getAnnotation(HotRelations.class);
+			if (hotRelations != null) {
+				builder.addMethod(getHotRelationsSpec(hotRelations));
+			}
+			return builder.build();
 		}
 
 		private AnnotationSpec migrateAnnotationSpec() {
@@ -213,7 +298,7 @@ public class SchemaAnnotationProcessor extends AbstractMigrannotateAnnotationPro
 			if (normalSchema != null) {
 				final var sql = normalSchema.value();
 				if (isTerminatedWithSemicolin(sql)) {
-					return computeChecksumOfSql(sql);
+					return computeChecksumOfSql(prepare(sql));
 				}
 				throw new InvalidSQLException(annotatedClass, "@Schema");
 			} else {
@@ -244,7 +329,7 @@ public class SchemaAnnotationProcessor extends AbstractMigrannotateAnnotationPro
 			if (repeatableSchema != null) {
 				final var sql = repeatableSchema.value();
 				if (isTerminatedWithSemicolin(sql)) {
-					checksum ^= computeChecksumOfSql(sql);
+					checksum ^= computeChecksumOfSql(prepare(sql));
 				} else {
 					throw new InvalidSQLException(annotatedClass, "@RepeatableSchema");
 				}
@@ -264,6 +349,13 @@ public class SchemaAnnotationProcessor extends AbstractMigrannotateAnnotationPro
 		}
 
 		private String enumSql() {
+			if (enumSql == null) {
+				enumSql = computeEnumSql();
+			}
+			return enumSql;
+		}
+
+		private String computeEnumSql() {
 			final var sql = new StringBuilder();
 			for (final var enumSchema : annotatedClass.getAnnotationsByType(EnumSchema.class)) {
 				final var name = enumSchema.name();
@@ -281,7 +373,7 @@ public class SchemaAnnotationProcessor extends AbstractMigrannotateAnnotationPro
 						END IF;
 					END; $$;
 					""", enquoteLiteral(name), identifier));
-				final var values = toTypeMirror(enumSchema::value).accept(VALUE_VISITOR, new ArrayList<>());
+				final var values = new ArrayList<>(findEnumValuesOf(toTypeMirror(enumSchema::value)));
 				for (final var valueToIgnore : enumSchema.valuesToIgnore()) {
 					values.remove(valueToIgnore);
 				}
@@ -297,7 +389,7 @@ public class SchemaAnnotationProcessor extends AbstractMigrannotateAnnotationPro
 					}
 				}
 			}
-			return sql.toString();
+			return prepare(sql.toString());
 		}
 
 		private MethodSpec getIdSpec() {
@@ -320,6 +412,40 @@ public class SchemaAnnotationProcessor extends AbstractMigrannotateAnnotationPro
 				.build();
 		}
 
+		private MethodSpec getUpgradableChecksumsSpec() {
+			final var checksums = CodeBlock.builder();
+			for (final var upgrade : annotatedClass.getAnnotationsByType(SchemaUpgrade.class)) {
+				if (!checksums.isEmpty()) {
+					checksums.add(", ");
+				}
+				checksums.add("$LL", upgrade.from());
+			}
+			return MethodSpec
+				.methodBuilder("getUpgradableChecksums")
+				.addAnnotation(Override.class)
+				.addModifiers(PUBLIC, FINAL)
+				.returns(long[].class)
+				.addStatement("return new long[] {$L}", checksums.build())
+				.build();
+		}
+
+		private MethodSpec getHotRelationsSpec(HotRelations hotRelations) {
+			final var relations = CodeBlock.builder();
+			for (final var relation : hotRelations.value()) {
+				if (!relations.isEmpty()) {
+					relations.add(", ");
+				}
+				relations.add("$S", relation);
+			}
+			return MethodSpec
+				.methodBuilder("getHotRelations")
+				.addAnnotation(Override.class)
+				.addModifiers(PUBLIC, FINAL)
+				.returns(String[].class)
+				.addStatement("return new String[] {$L}", relations.build())
+				.build();
+		}
+
 		private MethodSpec migrateMethodSpec() {
 			return MethodSpec
 				.methodBuilder("migrate")
@@ -349,13 +475,17 @@ public class SchemaAnnotationProcessor extends AbstractMigrannotateAnnotationPro
 			if (normalSchema != null) {
 				code
 					.beginControlFlow("if ($L == EMPTY_CHECKSUM)", CURRENT_CHECKSUM_NAME)
-					.addStatement("sql.append($S)", normalSchema.value())
+					.add(appendSqlCode("@Schema", normalSchema.value()))
 					.nextControlFlow("else");
 			}
 			for (final var upgrade : annotatedClass.getAnnotationsByType(SchemaUpgrade.class)) {
 				code
 					.beginControlFlow("if ($L == $LL)", CURRENT_CHECKSUM_NAME, upgrade.from())
-					.addStatement("sql.append($S)", upgrade.sql())
+					.add(appendSqlCode(format("@SchemaUpgrade(from = %dL)", upgrade.from()), upgrade.sql()));
+				if (!upgrade.contract().isEmpty()) {
+					code.addStatement("sql.appendToContract($S)", prepare(upgrade.contract()));
+				}
+				code
 					.addStatement("$L = $LL", CURRENT_CHECKSUM_NAME, upgrade.to())
 					.endControlFlow();
 			}
@@ -376,12 +506,28 @@ public class SchemaAnnotationProcessor extends AbstractMigrannotateAnnotationPro
 			if (repeatableSchema != null) {
 				code
 					.beginControlFlow("if (repeat)", LATEST_CHECKSUM_NAME, REPEATABLE_CHECKSUM_MASK)
-					.addStatement("sql.append($S)", repeatableSchema.value())
+					.addStatement("sql.appendToRepeatable($S)", prepare(repeatableSchema.value()))
 					.endControlFlow();
 			}
 			return code.build();
 		}
 
+		/**
+		 * Appends {@code sql} as a whole or, if the {@code migrannotate.splitStatements} option is enabled, one statement
+		 * at a time, so that the runtime can time each of them without having to split the SQL itself.
+		 */
+		private CodeBlock appendSqlCode(String source, String sql) {
+			final var code = CodeBlock.builder();
+			if (splitStatements) {
+				for (final var statement : SQLStatements.split(prepare(sql))) {
+					code.addStatement("sql.appendStatement($S, $S)", source, statement);
+				}
+			} else {
+				code.addStatement("sql.append($S)", prepare(sql));
+			}
+			return code.build();
+		}
+
 		private MethodSpec isDependentOnMigrationSpec() {
 			return MethodSpec
 				.methodBuilder("isDependentOn")
@@ -433,6 +579,17 @@ public class SchemaAnnotationProcessor extends AbstractMigrannotateAnnotationPro
 
 	}
 
+	private List<String> findEnumValuesOf(DeclaredType type) {
+		final var element = type.asElement();
+		final var cached = enumValuesByElement.get(element);
+		if (cached != null) {
+			return cached;
+		}
+		final var values = type.accept(VALUE_VISITOR, new ArrayList<>());
+		enumValuesByElement.put(element, values);
+		return values;
+	}
+
 	private static DeclaredType toTypeMirror(Supplier<Class<?>> value) {
 		try {
 			value.get();
@@ -495,69 +652,161 @@ public class SchemaAnnotationProcessor extends AbstractMigrannotateAnnotationPro
 
 	};
 
+	/**
+	 * Returns the identifiers of everything {@code element} transitively depends on. The dependency graph of the round
+	 * is shared by every schema, so this walks each node reachable from {@code element} once instead of copying the
+	 * dependencies of every node along the way.
+	 */
 	private Set<Long> findDependenciesOf(Element element) {
 		final var dependencies = new HashSet<Long>();
+		final var walk = ++ walks;
+		final var pending = new ArrayDeque<DependencyNode>();
 		try {
-			dependencyWalker.walkImplicitDependenciesOf(element, dependencies);
-			dependencyWalker.walkExplicitDependenciesOf(element, dependencies);
+			pending.addAll(findDirectDependenciesOf(findDependencyNodeOf(element)));
+			while (!pending.isEmpty()) {
+				final var node = pending.pop();
+				if (node.walk == walk) {
+					continue;
+				}
+				node.walk = walk;
+				if (node.id != null) {
+					dependencies.add(node.id);
+				}
+				pending.addAll(findDirectDependenciesOf(node));
+			}
 		} catch (MissingSchemaIdentifierException exception) {
 			throw new InvalidDependencyException(exception.getElement());
 		}
 		if (dependencies.contains(getIdFor(element))) {
 			throw new CyclicalDependencyException();
 		}
+		if (dependencyInference == STRICT) {
+			for (final var inferred : findInferredDependenciesOf(element).entrySet()) {
+				if (!dependencies.contains(getIdFor(inferred.getKey()))) {
+					throw new UndeclaredDependencyException(inferred.getKey(), inferred.getValue());
+				}
+			}
+		}
 		return dependencies;
 	}
 
-	private final DependencyWalker dependencyWalker = new DependencyWalker(false);
-	private final DependencyWalker silentDependencyWalker = new DependencyWalker(true);
-
-	private class DependencyWalker extends SimpleTypeVisitor14<Void, Set<Long>> {
-
-		private final boolean silent;
-
-		public DependencyWalker(boolean silent) {
-			this.silent = silent;
+	private DependencyNode findDependencyNodeOf(Element element) {
+		final var cached = dependencyNodesByElement.get(element);
+		if (cached != null) {
+			return cached;
 		}
+		final var node = new DependencyNode(element, findIdOf(element));
+		dependencyNodesByElement.put(element, node);
+		return node;
+	}
 
-		@Override
-		public Void visitDeclared(DeclaredType declaredType, Set<Long> dependencies) {
-			final var element = declaredType.asElement();
-			if (tryAdd(element, dependencies)) {
-				walkImplicitDependenciesOf(element, dependencies);
-				walkExplicitDependenciesOf(element, dependencies);
+	/**
+	 * Returns the nodes that {@code node} directly depends on, either implicitly through its supertypes or explicitly
+	 * through {@code @SchemaDependency} (or an inferred dependency), which must be annotated with
+	 * {@code @SchemaIdentifier}.
+	 */
+	private List<DependencyNode> findDirectDependenciesOf(DependencyNode node) {
+		if (node.dependencies != null) {
+			return node.dependencies;
+		}
+		final var dependencies = new ArrayList<DependencyNode>();
+		for (final var supertype : processingEnv.getTypeUtils().directSupertypes(node.element.asType())) {
+			if (supertype instanceof final DeclaredType declaredType) {
+				dependencies.add(findDependencyNodeOf(declaredType.asElement()));
 			}
-			return null;
 		}
-
-		private boolean tryAdd(Element element, Set<Long> dependencies) {
-			try {
-				return dependencies.add(getIdFor(element));
-			} catch (MissingSchemaIdentifierException exception) {
-				if (silent) {
-					return true;
-				} else {
-					throw exception;
-				}
+		for (final var dependency : node.element.getAnnotationsByType(SchemaDependency.class)) {
+			dependencies.add(findExplicitDependencyNodeOf(toTypeMirror(dependency::value).asElement()));
+		}
+		if (dependencyInference == IMPLICIT) {
+			for (final var inferred : findInferredDependenciesOf(node.element).keySet()) {
+				dependencies.add(findExplicitDependencyNodeOf(inferred));
 			}
 		}
+		node.dependencies = dependencies;
+		return dependencies;
+	}
 
-		private void walkExplicitDependenciesOf(Element element, Set<Long> dependencies) {
-			for (final var dependency : element.getAnnotationsByType(SchemaDependency.class)) {
-				toTypeMirror(dependency::value).accept(dependencyWalker, dependencies);
-			}
+	private DependencyNode findExplicitDependencyNodeOf(Element element) {
+		final var node = findDependencyNodeOf(element);
+		if (node.id == null) {
+			throw new MissingSchemaIdentifierException(element);
 		}
+		return node;
+	}
 
-		private void walkImplicitDependenciesOf(Element element, Set<Long> dependencies) {
-			walkImplicitDependenciesOf(element.asType(), dependencies);
+	private static Set<String> findObjectsCreatedBy(Element element) {
+		final var objects = new LinkedHashSet<String>();
+		final var normalSchema = element.getAnnotation(Schema.class);
+		if (normalSchema != null) {
+			objects.addAll(SQLReferences.findCreatedObjectsIn(normalSchema.value()));
+		}
+		final var repeatableSchema = element.getAnnotation(RepeatableSchema.class);
+		if (repeatableSchema != null) {
+			objects.addAll(SQLReferences.findCreatedObjectsIn(repeatableSchema.value()));
 		}
+		for (final var enumSchema : element.getAnnotationsByType(EnumSchema.class)) {
+			objects.add(SQLReferences.toType(enquoteIdentifier(enumSchema.name())));
+		}
+		return objects;
+	}
 
-		private void walkImplicitDependenciesOf(TypeMirror element, Set<Long> dependencies) {
-			final var types = processingEnv.getTypeUtils();
-			for (final var supertype : types.directSupertypes(element)) {
-				supertype.accept(silentDependencyWalker, dependencies);
+	/**
+	 * Returns the schemas (in this round) that create the objects referenced by the SQL of {@code element}, mapped to
+	 * the first such object. Objects that are created by the {@code element} itself or by more than one schema are
+	 * ignored.
+	 */
+	private Map<Element, String> findInferredDependenciesOf(Element element) {
+		final var cached = inferredDependenciesByElement.get(element);
+		if (cached != null) {
+			return cached;
+		}
+		final var sql = new StringBuilder();
+		final var normalSchema = element.getAnnotation(Schema.class);
+		if (normalSchema != null) {
+			sql.append(normalSchema.value()).append('\n');
+		}
+		final var repeatableSchema = element.getAnnotation(RepeatableSchema.class);
+		if (repeatableSchema != null) {
+			sql.append(repeatableSchema.value()).append('\n');
+		}
+		for (final var upgrade : element.getAnnotationsByType(SchemaUpgrade.class)) {
+			sql.append(upgrade.sql()).append('\n');
+		}
+		final var created = findObjectsCreatedBy(element);
+		final var inferred = new LinkedHashMap<Element, String>();
+		for (final var object : SQLReferences.findReferencedObjectsIn(sql.toString())) {
+			if (created.contains(object)) {
+				continue;
+			}
+			final var creators = creatorsByObject.get(object);
+			if (creators == null || creators.size() != 1) {
+				continue;
+			}
+			final var creator = creators.iterator().next();
+			if (creator != element && findIdOf(creator) != null) {
+				inferred.putIfAbsent(creator, object.substring(object.indexOf(':') + 1));
 			}
 		}
+		inferredDependenciesByElement.put(element, inferred);
+		return inferred;
+	}
+
+	/**
+	 * A type in the dependency graph of a round, whose direct dependencies are only looked up once and which remembers
+	 * the last walk that reached it.
+	 */
+	private static final class DependencyNode {
+
+		private final Element element;
+		private final Long id;
+		private List<DependencyNode> dependencies;
+		private int walk;
+
+		private DependencyNode(Element element, Long id) {
+			this.element = element;
+			this.id = id;
+		}
 
 	}
 
@@ -0,0 +1,23 @@
+package com.leaprnd.migrannotate;
+
+import javax.lang.model.element.Element;
+
+public class UndeclaredDependencyException extends RuntimeException {
+
+	private final Element dependency;
+	private final String object;
+
+	public UndeclaredDependencyException(Element dependency, String object) {
+		this.dependency = dependency;
+		this.object = object;
+	}
+
+	public Element getDependency() {
+		return dependency;
+	}
+
+	public String getObject() {
+		return object;
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.leaprnd.migrannotate;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SQLReferencesTest {
+
+	@Test
+	public void testFindReferencedObjectsIgnoresReferentialActions() {
+		final var sql = """
+			ALTER TABLE "knight" ADD CONSTRAINT "fkKnightJedi" FOREIGN KEY ("jedi") REFERENCES "jedi" ("id")
+				ON DELETE CASCADE ON UPDATE SET NULL;
+			""";
+		assertEquals(Set.of("relation:knight", "relation:jedi"), SQLReferences.findReferencedObjectsIn(sql));
+	}
+
+	@Test
+	public void testFindReferencedObjectsIgnoresArgumentsOfExtract() {
+		final var sql = """
+			SELECT EXTRACT(EPOCH FROM "createdAt"), SUBSTRING("name" FROM 1 FOR 3), TRIM(BOTH FROM "name") FROM "knight";
+			""";
+		assertEquals(Set.of("relation:knight"), SQLReferences.findReferencedObjectsIn(sql));
+	}
+
+	@Test
+	public void testFindReferencedObjectsKeepsSubqueriesInArgumentsOfExtract() {
+		final var sql = """
+			SELECT EXTRACT(EPOCH FROM (SELECT MAX("at") FROM "visit"));
+			""";
+		assertEquals(Set.of("relation:visit", "function:max"), SQLReferences.findReferencedObjectsIn(sql));
+	}
+
+	@Test
+	public void testFindReferencedObjectsOnlyTreatsCallsAsFunctions() {
+		final var sql = """
+			CREATE TABLE IF NOT EXISTS "knight" (
+				"id" BIGINT NOT NULL,
+				"name" VARCHAR(255) NOT NULL CHECK (LENGTH("name") > 0),
+				"title" "title" NOT NULL DEFAULT "defaultTitle"(),
+				PRIMARY KEY ("id"),
+				UNIQUE ("name")
+			);
+			CREATE INDEX "ixKnightName" ON "knight" USING btree (LOWER("name"));
+			INSERT INTO "knight" ("id", "name") VALUES (1, 'Lancelot') ON CONFLICT ("id") DO NOTHING;
+			""";
+		assertEquals(
+			Set.of("relation:knight", "type:bigint", "type:varchar", "type:title", "function:length", "function:defaultTitle", "function:lower"),
+			SQLReferences.findReferencedObjectsIn(sql)
+		);
+	}
+
+	@Test
+	public void testFindReferencedObjectsIgnoresJoinConditions() {
+		final var sql = """
+			SELECT K."name" FROM "knight" AS K JOIN "jedi" AS J ON J."id" = K."jedi";
+			""";
+		assertEquals(Set.of("relation:knight", "relation:jedi"), SQLReferences.findReferencedObjectsIn(sql));
+	}
+
+	@Test
+	public void testFindReferencedObjectsFindsFunctionsExecutedByTriggers() {
+		final var sql = """
+			CREATE TRIGGER "trimKnightName" BEFORE INSERT OR UPDATE OF "name" ON "knight"
+				FOR EACH ROW EXECUTE FUNCTION "trimName"();
+			""";
+		assertEquals(Set.of("relation:knight", "function:trimName"), SQLReferences.findReferencedObjectsIn(sql));
+	}
+
+}
@@ -0,0 +1,250 @@
+package com.leaprnd.migrannotate;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Locale.ROOT;
+import static javax.tools.Diagnostic.Kind.ERROR;
+import static javax.tools.JavaFileObject.Kind.SOURCE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SchemaAnnotationProcessorTest {
+
+	private static final long JEDI_ID = 1L;
+	private static final long KNIGHT_ID = 2L;
+
+	private static final String JEDI = """
+		package com.example;
+
+		import com.leaprnd.migrannotate.*;
+
+		@SchemaIdentifier(1L)
+		@Schema(\"""
+		CREATE TABLE "jedi" ("id" BIGINT NOT NULL PRIMARY KEY);
+		\""")
+		public class Jedi {}
+		""";
+
+	// References the "jedi" table without declaring @SchemaDependency(Jedi.class)
+	private static final String KNIGHT = """
+		package com.example;
+
+		import com.leaprnd.migrannotate.*;
+
+		@SchemaIdentifier(2L)
+		@Schema(\"""
+		CREATE TABLE "knight" ("jedi" BIGINT NOT NULL REFERENCES "jedi" ("id") ON DELETE CASCADE);
+		\""")
+		public class Knight {}
+		""";
+
+	private static final long SQUIRE_ID = 3L;
+
+	private static final String SQUIRE = """
+		package com.example;
+
+		import com.leaprnd.migrannotate.*;
+
+		@SchemaIdentifier(3L)
+		@Schema(\"""
+		CREATE TABLE "squire" ("id" BIGINT NOT NULL PRIMARY KEY, "name" VARCHAR NOT NULL); -- The squires
+		CREATE INDEX "ixSquireName" ON "squire" ("name");
+		\""")
+		public class Squire {}
+		""";
+
+	// The switches generated for isDependentOn cannot repeat the lower or higher order bits of an identifier
+	private static final long MASTER_ID = 0x400000004L;
+	private static final long APPRENTICE_ID = 0x500000005L;
+
+	private static final String MASTER = """
+		package com.example;
+
+		import com.leaprnd.migrannotate.*;
+
+		@SchemaIdentifier(0x400000004L)
+		@Schema(\"""
+		CREATE TABLE "master" ("id" BIGINT NOT NULL PRIMARY KEY);
+		\""")
+		@SchemaDependency(Jedi.class)
+		public class Master {}
+		""";
+
+	// Only depends on Jedi through its supertype
+	private static final String APPRENTICE = """
+		package com.example;
+
+		import com.leaprnd.migrannotate.*;
+
+		@SchemaIdentifier(0x500000005L)
+		@Schema(\"""
+		CREATE TABLE "apprentice" ("id" BIGINT NOT NULL PRIMARY KEY);
+		\""")
+		public class Apprentice extends Master {}
+		""";
+
+	private static final String SITH = """
+		package com.example;
+
+		import com.leaprnd.migrannotate.*;
+
+		@SchemaIdentifier(0x600000006L)
+		@Schema(\"""
+		CREATE TABLE "sith" ("id" BIGINT NOT NULL PRIMARY KEY);
+		\""")
+		@SchemaDependency(Apprentice.class)
+		public class Sith {}
+		""";
+
+	private final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+
+	@Test
+	public void testInferDependenciesOffIgnoresReferencedObjects(@TempDir Path output) throws Exception {
+		assertTrue(compile(output, "off"), this::describeDiagnostics);
+		assertFalse(isKnightDependentOnJedi(output));
+	}
+
+	@Test
+	public void testInferDependenciesImplicitAddsInferredDependency(@TempDir Path output) throws Exception {
+		assertTrue(compile(output, "implicit"), this::describeDiagnostics);
+		assertTrue(isKnightDependentOnJedi(output));
+	}
+
+	@Test
+	public void testInferDependenciesStrictFailsOnUndeclaredDependency(@TempDir Path output) throws Exception {
+		assertFalse(compile(output, "strict"));
+		final var errors = diagnostics.getDiagnostics().stream().filter(diagnostic -> diagnostic.getKind() == ERROR).toList();
+		assertEquals(1, errors.size(), this::describeDiagnostics);
+		assertEquals(
+			"References \"jedi\", which is created by Jedi, but is not annotated with @SchemaDependency(Jedi.class)!",
+			errors.get(0).getMessage(ROOT)
+		);
+	}
+
+	@Test
+	public void testDependenciesAreTransitive(@TempDir Path output) throws Exception {
+		final var sources = List.<JavaFileObject>of(
+			new Source("com/example/Jedi.java", JEDI),
+			new Source("com/example/Master.java", MASTER),
+			new Source("com/example/Apprentice.java", APPRENTICE)
+		);
+		assertTrue(compile(output, sources), this::describeDiagnostics);
+		assertTrue(isDependentOn(output, APPRENTICE_ID, MASTER_ID));
+		assertTrue(isDependentOn(output, APPRENTICE_ID, JEDI_ID));
+		assertFalse(isDependentOn(output, MASTER_ID, APPRENTICE_ID));
+	}
+
+	@Test
+	public void testCyclicalDependenciesFail(@TempDir Path output) throws Exception {
+		final var sources = List.<JavaFileObject>of(
+			new Source("com/example/Jedi.java", JEDI.replace("public class", "@SchemaDependency(Sith.class)\npublic class")),
+			new Source("com/example/Master.java", MASTER),
+			new Source("com/example/Apprentice.java", APPRENTICE),
+			new Source("com/example/Sith.java", SITH)
+		);
+		assertFalse(compile(output, sources));
+		final var errors = diagnostics.getDiagnostics().stream().filter(diagnostic -> diagnostic.getKind() == ERROR).toList();
+		assertEquals(4, errors.size(), this::describeDiagnostics);
+		for (final var error : errors) {
+			assertEquals("Schema depends on itself!", error.getMessage(ROOT));
+		}
+	}
+
+	@Test
+	public void testSplitStatementsAttributesEveryStatementToItsAnnotation(@TempDir Path output) throws Exception {
+		assertTrue(compile(output, List.of(new Source("com/example/Squire.java", SQUIRE)), "-Amigrannotate.splitStatements=true"));
+		final var writer = migrateSquire(output);
+		assertEquals(
+			List.of(
+				new SQLWriter.SourcedStatement("@Schema", "CREATE TABLE \"squire\" (\"id\" BIGINT NOT NULL PRIMARY KEY, \"name\" VARCHAR NOT NULL)"),
+				new SQLWriter.SourcedStatement("@Schema", "-- The squires\nCREATE INDEX \"ixSquireName\" ON \"squire\" (\"name\")")
+			),
+			writer.getStatements()
+		);
+	}
+
+	@Test
+	public void testStatementsAreNotSplitByDefault(@TempDir Path output) throws Exception {
+		assertTrue(compile(output, List.of(new Source("com/example/Squire.java", SQUIRE))));
+		final var writer = migrateSquire(output);
+		assertNull(writer.getStatements());
+		assertTrue(writer.getSql().contains("-- The squires"));
+	}
+
+	private boolean compile(Path output, String inferDependencies) throws Exception {
+		final var sources = List.<JavaFileObject>of(new Source("com/example/Jedi.java", JEDI), new Source("com/example/Knight.java", KNIGHT));
+		return compile(output, sources, "-Amigrannotate.inferDependencies=" + inferDependencies);
+	}
+
+	private boolean compile(Path output, List<JavaFileObject> sources, String... processorOptions) throws Exception {
+		final var annotations = Path.of(Migration.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+		final var options = new ArrayList<>(List.of("-classpath", annotations.toString(), "-d", output.toString(), "-s", output.toString()));
+		options.addAll(List.of(processorOptions));
+		final var task = ToolProvider.getSystemJavaCompiler().getTask(null, null, diagnostics, options, null, sources);
+		task.setProcessors(List.of(new SchemaAnnotationProcessor()));
+		return task.call();
+	}
+
+	private static boolean isKnightDependentOnJedi(Path output) throws Exception {
+		return isDependentOn(output, KNIGHT_ID, JEDI_ID);
+	}
+
+	private static boolean isDependentOn(Path output, long id, long otherId) throws Exception {
+		try (final var classLoader = new URLClassLoader(new URL[] {output.toUri().toURL()}, Migration.class.getClassLoader())) {
+			final var migration = classLoader.loadClass("com.leaprnd.migrannotate.Migration" + id);
+			return (boolean) migration.getMethod("isDependentOn", long.class).invoke(null, otherId);
+		}
+	}
+
+	private static SQLWriter migrateSquire(Path output) throws Exception {
+		try (final var classLoader = new URLClassLoader(new URL[] {output.toUri().toURL()}, Migration.class.getClassLoader())) {
+			final var squire = (Migration) classLoader.loadClass("com.leaprnd.migrannotate.Migration" + SQUIRE_ID)
+				.getConstructor()
+				.newInstance();
+			final var writer = new SQLWriter(SQUIRE_ID, Migration.EMPTY_CHECKSUM, squire.getLatestChecksum(), null);
+			squire.migrate(Migration.EMPTY_CHECKSUM, writer);
+			return writer;
+		}
+	}
+
+	private String describeDiagnostics() {
+		final var description = new StringBuilder();
+		for (final Diagnostic<?> diagnostic : diagnostics.getDiagnostics()) {
+			description.append(diagnostic).append('\n');
+		}
+		return description.toString();
+	}
+
+	private static final class Source extends SimpleJavaFileObject {
+
+		private final String code;
+
+		private Source(String path, String code) {
+			super(URI.create("string:///" + path), SOURCE);
+			this.code = code;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return code;
+		}
+
+	}
+
+}
@@ -0,0 +1,93 @@
+package com.leaprnd.migrannotate;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.leaprnd.migrannotate.LockStrategy.GLOBAL;
+import static com.leaprnd.migrannotate.LockStrategy.GROUP;
+import static com.leaprnd.migrannotate.Migration.DEFAULT_GROUP;
+import static com.leaprnd.migrannotate.MigrationResult.FAILED_TO_LOCK;
+import static com.leaprnd.migrannotate.Person.PERSON_GROUP;
+import static java.lang.String.format;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+
+/**
+ * Starts two services (one per group of the test schemas) against the same empty database over and over again and
+ * reports how many of them finish migrating per second with the {@link LockStrategy#GLOBAL} and the
+ * {@link LockStrategy#GROUP} lock, retrying whenever the lock is held by the other one. The database is a
+ * {@code RecordingConnection} per service with a fixed latency per round trip and shared advisory locks. Run it with
+ * {@code gradle :runtime:benchmark}.
+ */
+public final class LockContentionBenchmark {
+
+	private static final List<String> GROUPS = List.of(DEFAULT_GROUP, PERSON_GROUP);
+	private static final Duration RETRY_DELAY = Duration.ofMillis(1);
+
+	public static void main(String[] arguments) throws Exception {
+		final var databases = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 100;
+		final var latency = Duration.ofMillis(arguments.length > 1 ? Integer.parseInt(arguments[1]) : 1);
+		final var executor = newFixedThreadPool(GROUPS.size());
+		try {
+			run(GLOBAL, 10, latency, executor);
+			run(GROUP, 10, latency, executor);
+			System.out.println(run(GLOBAL, databases, latency, executor));
+			System.out.println(run(GROUP, databases, latency, executor));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static Result run(LockStrategy lockStrategy, int databases, Duration latency, ExecutorService executor) throws Exception {
+		final var failuresToLock = new AtomicInteger();
+		final var start = nanoTime();
+		for (var database = 0; database < databases; database ++) {
+			final var advisoryLocks = new ConcurrentHashMap<String, RecordingConnection>();
+			final var services = new ArrayList<Future<?>>(GROUPS.size());
+			for (final var group : GROUPS) {
+				final var connection = new RecordingConnection().withLatency(latency).sharingAdvisoryLocks(advisoryLocks);
+				final var migrannotate = new Migrannotate(group, connection.getConnection()).setLockStrategy(lockStrategy);
+				services.add(executor.submit(() -> migrateUntilLocked(migrannotate, failuresToLock)));
+			}
+			for (final var service : services) {
+				service.get();
+			}
+		}
+		final var duration = Duration.ofNanos(nanoTime() - start);
+		return new Result(lockStrategy, databases * GROUPS.size(), duration, failuresToLock.get());
+	}
+
+	private static Void migrateUntilLocked(Migrannotate migrannotate, AtomicInteger failuresToLock) throws SQLException, InterruptedException {
+		while (migrannotate.migrate() == FAILED_TO_LOCK) {
+			failuresToLock.incrementAndGet();
+			Thread.sleep(RETRY_DELAY.toMillis());
+		}
+		return null;
+	}
+
+	private record Result(LockStrategy lockStrategy, int migrations, Duration duration, int failuresToLock) {
+
+		@Override
+		public String toString() {
+			final var perSecond = migrations * 1e9 / duration.toNanos();
+			return format(
+				"%s: %d migrations in %d ms (%.1f per second, %d failures to lock)",
+				lockStrategy,
+				migrations,
+				duration.toMillis(),
+				perSecond,
+				failuresToLock
+			);
+		}
+
+	}
+
+	private LockContentionBenchmark() {}
+
+}
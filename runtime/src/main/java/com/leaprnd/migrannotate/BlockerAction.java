@@ -0,0 +1,10 @@
+package com.leaprnd.migrannotate;
+
+/**
+ * What a {@link LockMonitor} did to a {@link BlockingSession}.
+ */
+public enum BlockerAction {
+	NONE,
+	CANCELLED,
+	TERMINATED
+}
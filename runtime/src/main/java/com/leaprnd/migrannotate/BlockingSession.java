@@ -0,0 +1,108 @@
+package com.leaprnd.migrannotate;
+
+import java.time.Duration;
+
+import static java.lang.String.format;
+
+/**
+ * A session that held a lock which a migration could not take, as seen in {@code pg_locks} and
+ * {@code pg_stat_activity}.
+ */
+public final class BlockingSession {
+
+	private final int pid;
+	private final String applicationName;
+	private final String state;
+	private final String query;
+	private final String lockMode;
+	private final String lockedObject;
+	private final Duration transactionDuration;
+	private BlockerAction action = BlockerAction.NONE;
+
+	BlockingSession(
+		int pid,
+		String applicationName,
+		String state,
+		String query,
+		String lockMode,
+		String lockedObject,
+		Duration transactionDuration
+	) {
+		this.pid = pid;
+		this.applicationName = applicationName;
+		this.state = state;
+		this.query = query;
+		this.lockMode = lockMode;
+		this.lockedObject = lockedObject;
+		this.transactionDuration = transactionDuration;
+	}
+
+	public int getPid() {
+		return pid;
+	}
+
+	public String getApplicationName() {
+		return applicationName;
+	}
+
+	/**
+	 * Returns the {@code state} of the session in {@code pg_stat_activity}, e.g. {@code "active"} or
+	 * {@code "idle in transaction"}.
+	 */
+	public String getState() {
+		return state;
+	}
+
+	/**
+	 * Returns the query the session is running or, if it is idle, the last query it ran.
+	 */
+	public String getQuery() {
+		return query;
+	}
+
+	public String getLockMode() {
+		return lockMode;
+	}
+
+	/**
+	 * Returns the relation the lock is held on, or a description of the advisory lock.
+	 */
+	public String getLockedObject() {
+		return lockedObject;
+	}
+
+	/**
+	 * Returns how long the transaction of the session had been open when the snapshot was taken.
+	 */
+	public Duration getTransactionDuration() {
+		return transactionDuration;
+	}
+
+	public boolean isIdleInTransaction() {
+		return state != null && state.startsWith("idle in transaction");
+	}
+
+	public BlockerAction getAction() {
+		return action;
+	}
+
+	void setAction(BlockerAction action) {
+		this.action = action;
+	}
+
+	@Override
+	public String toString() {
+		return format(
+			"%d (%s, %s for %d ms) holds %s on %s%s: %s",
+			pid,
+			applicationName == null || applicationName.isEmpty() ? "unnamed" : applicationName,
+			state,
+			transactionDuration.toMillis(),
+			lockMode,
+			lockedObject,
+			action == BlockerAction.NONE ? "" : " and was " + action.name().toLowerCase(),
+			query
+		);
+	}
+
+}
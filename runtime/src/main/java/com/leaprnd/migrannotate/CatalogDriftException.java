@@ -0,0 +1,25 @@
+package com.leaprnd.migrannotate;
+
+import java.util.List;
+
+import static java.lang.String.format;
+import static java.lang.String.join;
+
+public class CatalogDriftException extends RuntimeException {
+
+	private final List<String> drift;
+
+	public CatalogDriftException(List<String> drift) {
+		this.drift = drift;
+	}
+
+	public List<String> getDrift() {
+		return drift;
+	}
+
+	@Override
+	public String getMessage() {
+		return format("The database does not match the latest @Schema annotations: %s!", join(", ", drift));
+	}
+
+}
@@ -0,0 +1,195 @@
+package com.leaprnd.migrannotate;
+
+import org.intellij.lang.annotations.Language;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.lang.String.format;
+import static java.util.Collections.unmodifiableMap;
+
+public final class CatalogFingerprint {
+
+	@Language("SQL")
+	private static final String SQL_TO_SELECT_DIGESTS = """
+		WITH "namespace" AS (
+			SELECT N.oid, N.nspname FROM pg_namespace AS N WHERE N.nspname = CURRENT_SCHEMA()
+		), "relation" AS (
+			SELECT C.oid, C.relname, C.relkind, N.nspname FROM
+				pg_class AS C JOIN
+				"namespace" AS N ON N.oid = C.relnamespace
+			WHERE
+				C.relkind IN ('r', 'p', 'v', 'm', 'f') AND
+				C.relname NOT IN ('schema', 'schemaHistory')
+		), "column" AS (
+			SELECT A.attrelid, STRING_AGG(
+				CONCAT(
+					A.attname, ' ',
+					FORMAT_TYPE(A.atttypid, A.atttypmod),
+					CASE WHEN A.attnotnull THEN ' NOT NULL' END,
+					' DEFAULT ' || PG_GET_EXPR(D.adbin, D.adrelid),
+					' IDENTITY ' || NULLIF(A.attidentity, ''),
+					' GENERATED ' || NULLIF(A.attgenerated, '')
+				),
+				',' ORDER BY A.attname
+			) AS "definition" FROM
+				pg_attribute AS A JOIN
+				"relation" AS R ON R.oid = A.attrelid LEFT JOIN
+				pg_attrdef AS D ON D.adrelid = A.attrelid AND D.adnum = A.attnum
+			WHERE
+				A.attnum > 0 AND
+				NOT A.attisdropped
+			GROUP BY
+				A.attrelid
+		), "index" AS (
+			SELECT I.indrelid, STRING_AGG(
+				REPLACE(PG_GET_INDEXDEF(I.indexrelid), QUOTE_IDENT(R.nspname) || '.', ''),
+				',' ORDER BY C.relname
+			) AS "definition" FROM
+				pg_index AS I JOIN
+				"relation" AS R ON R.oid = I.indrelid JOIN
+				pg_class AS C ON C.oid = I.indexrelid
+			GROUP BY
+				I.indrelid
+		), "constraint" AS (
+			SELECT K.conrelid, STRING_AGG(
+				CONCAT(K.conname, ' ', PG_GET_CONSTRAINTDEF(K.oid)),
+				',' ORDER BY K.conname
+			) AS "definition" FROM
+				pg_constraint AS K JOIN
+				"relation" AS R ON R.oid = K.conrelid
+			GROUP BY
+				K.conrelid
+		)
+		SELECT
+			'relation',
+			R.relname,
+			MD5(CONCAT_WS(
+				'|',
+				R.relkind,
+				C."definition",
+				I."definition",
+				K."definition",
+				CASE WHEN R.relkind IN ('v', 'm') THEN PG_GET_VIEWDEF(R.oid) END
+			))
+		FROM
+			"relation" AS R LEFT JOIN
+			"column" AS C ON C.attrelid = R.oid LEFT JOIN
+			"index" AS I ON I.indrelid = R.oid LEFT JOIN
+			"constraint" AS K ON K.conrelid = R.oid
+		UNION ALL
+		SELECT
+			'type',
+			T.typname,
+			MD5(STRING_AGG(E.enumlabel, ',' ORDER BY E.enumsortorder))
+		FROM
+			pg_type AS T JOIN
+			"namespace" AS N ON N.oid = T.typnamespace JOIN
+			pg_enum AS E ON E.enumtypid = T.oid
+		GROUP BY
+			T.typname
+		UNION ALL
+		SELECT
+			'function',
+			P.proname,
+			MD5(STRING_AGG(
+				CONCAT_WS(
+					' ',
+					P.prokind,
+					PG_GET_FUNCTION_IDENTITY_ARGUMENTS(P.oid),
+					PG_GET_FUNCTION_RESULT(P.oid),
+					L.lanname,
+					P.provolatile,
+					P.prosrc
+				),
+				',' ORDER BY PG_GET_FUNCTION_IDENTITY_ARGUMENTS(P.oid)
+			))
+		FROM
+			pg_proc AS P JOIN
+			"namespace" AS N ON N.oid = P.pronamespace JOIN
+			pg_language AS L ON L.oid = P.prolang
+		GROUP BY
+			P.proname;
+		""";
+
+	public static CatalogFingerprint of(Statement statement) throws SQLException {
+		final var digestsByObject = new TreeMap<String, String>();
+		try (final var results = statement.executeQuery(SQL_TO_SELECT_DIGESTS)) {
+			while (results.next()) {
+				final var object = results.getString(1) + ' ' + results.getString(2);
+				digestsByObject.put(object, results.getString(3));
+			}
+		}
+		return new CatalogFingerprint(digestsByObject);
+	}
+
+	public static CatalogFingerprint parse(String value) {
+		final var digestsByObject = new TreeMap<String, String>();
+		for (final var line : value.split("\n")) {
+			if (line.isBlank()) {
+				continue;
+			}
+			final var separator = line.lastIndexOf('=');
+			if (separator < 0) {
+				throw new IllegalArgumentException(format("Invalid catalog fingerprint entry: %s!", line));
+			}
+			digestsByObject.put(line.substring(0, separator), line.substring(separator + 1));
+		}
+		return new CatalogFingerprint(digestsByObject);
+	}
+
+	private final TreeMap<String, String> digestsByObject;
+
+	private CatalogFingerprint(TreeMap<String, String> digestsByObject) {
+		this.digestsByObject = digestsByObject;
+	}
+
+	public Map<String, String> getDigestsByObject() {
+		return unmodifiableMap(digestsByObject);
+	}
+
+	/**
+	 * Lists every object of the {@code reference} that is either missing from or different in this fingerprint.
+	 * Objects that only exist in this fingerprint (e.g. tables that belong to another group) are not drift.
+	 */
+	public List<String> findDriftFrom(CatalogFingerprint reference) {
+		final var drift = new ArrayList<String>();
+		for (final var entry : reference.digestsByObject.entrySet()) {
+			final var object = entry.getKey();
+			final var digest = digestsByObject.get(object);
+			if (digest == null) {
+				drift.add(object + " is missing");
+			} else if (!digest.equals(entry.getValue())) {
+				drift.add(object + " is different");
+			}
+		}
+		return drift;
+	}
+
+	@Override
+	public boolean equals(Object object) {
+		if (object instanceof final CatalogFingerprint other) {
+			return digestsByObject.equals(other.digestsByObject);
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return digestsByObject.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		final var builder = new StringBuilder();
+		for (final var entry : digestsByObject.entrySet()) {
+			builder.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+		}
+		return builder.toString();
+	}
+
+}
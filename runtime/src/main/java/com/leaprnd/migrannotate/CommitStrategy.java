@@ -0,0 +1,7 @@
+package com.leaprnd.migrannotate;
+
+public enum CommitStrategy {
+	SINGLE_TRANSACTION,
+	PER_PHASE,
+	PER_MIGRATION;
+}
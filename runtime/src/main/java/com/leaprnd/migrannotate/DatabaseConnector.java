@@ -0,0 +1,13 @@
+package com.leaprnd.migrannotate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Opens a new connection to the given database on the same server, which is how {@link TemplateDatabaseExtension}
+ * and {@link UpgradePathVerifier} reach the databases that they create.
+ */
+@FunctionalInterface
+public interface DatabaseConnector {
+	Connection connect(String database) throws SQLException;
+}
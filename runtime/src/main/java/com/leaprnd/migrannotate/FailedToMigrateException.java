@@ -13,6 +13,10 @@ public class FailedToMigrateException extends RuntimeException {
 		this.id = id;
 	}
 
+	public long getId() {
+		return id;
+	}
+
 	@Override
 	public String getMessage() {
 		return format("Failed to migrate @SchemaIdentifiter(%dL)", id);
@@ -0,0 +1,7 @@
+package com.leaprnd.migrannotate;
+
+public enum Impact {
+	CATALOG_ONLY,
+	SCAN,
+	REWRITE;
+}
@@ -0,0 +1,52 @@
+package com.leaprnd.migrannotate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+
+import static java.lang.String.format;
+
+/**
+ * Plan-level thresholds that {@link Migrannotate#setImpactBudget(ImpactBudget)} checks (under the lock, before
+ * anything runs) against the {@link ImpactEstimate} of the migration.
+ */
+public final class ImpactBudget {
+
+	private long maximumScannedBytes = Long.MAX_VALUE;
+	private long maximumRewrittenBytes = Long.MAX_VALUE;
+	private Duration maximumEstimatedDuration = null;
+
+	public ImpactBudget setMaximumScannedBytes(long maximumScannedBytes) {
+		this.maximumScannedBytes = maximumScannedBytes;
+		return this;
+	}
+
+	public ImpactBudget setMaximumRewrittenBytes(long maximumRewrittenBytes) {
+		this.maximumRewrittenBytes = maximumRewrittenBytes;
+		return this;
+	}
+
+	public ImpactBudget setMaximumEstimatedDuration(Duration maximumEstimatedDuration) {
+		this.maximumEstimatedDuration = maximumEstimatedDuration;
+		return this;
+	}
+
+	void verify(ImpactEstimate estimate) {
+		final var violations = new ArrayList<String>();
+		final var scannedBytes = estimate.getScannedBytes();
+		if (scannedBytes > maximumScannedBytes) {
+			violations.add(format("%d bytes would be scanned (the maximum is %d)", scannedBytes, maximumScannedBytes));
+		}
+		final var rewrittenBytes = estimate.getRewrittenBytes();
+		if (rewrittenBytes > maximumRewrittenBytes) {
+			violations.add(format("%d bytes would be rewritten (the maximum is %d)", rewrittenBytes, maximumRewrittenBytes));
+		}
+		final var estimatedDuration = estimate.getEstimatedDuration();
+		if (maximumEstimatedDuration != null && estimatedDuration.compareTo(maximumEstimatedDuration) > 0) {
+			violations.add(format("it would take ~%s (the maximum is %s)", estimatedDuration, maximumEstimatedDuration));
+		}
+		if (!violations.isEmpty()) {
+			throw new ImpactBudgetExceededException(estimate, violations);
+		}
+	}
+
+}
@@ -0,0 +1,31 @@
+package com.leaprnd.migrannotate;
+
+import java.util.List;
+
+import static java.lang.String.format;
+import static java.lang.String.join;
+
+public class ImpactBudgetExceededException extends RuntimeException {
+
+	private final ImpactEstimate estimate;
+	private final List<String> violations;
+
+	public ImpactBudgetExceededException(ImpactEstimate estimate, List<String> violations) {
+		this.estimate = estimate;
+		this.violations = violations;
+	}
+
+	public ImpactEstimate getEstimate() {
+		return estimate;
+	}
+
+	public List<String> getViolations() {
+		return violations;
+	}
+
+	@Override
+	public String getMessage() {
+		return format("Refusing to migrate because %s!", join(" and ", violations));
+	}
+
+}
@@ -0,0 +1,63 @@
+package com.leaprnd.migrannotate;
+
+import java.time.Duration;
+import java.util.List;
+
+import static com.leaprnd.migrannotate.Impact.REWRITE;
+import static com.leaprnd.migrannotate.Impact.SCAN;
+
+/**
+ * The estimated impact of every statement that a migration is about to run, based on the statistics in
+ * {@code pg_class} and {@code pg_stat_user_tables}. The estimates are deliberately rough: they are meant to flag
+ * migrations that touch large tables before a deploy, not to predict how long they will take to the second.
+ */
+public final class ImpactEstimate {
+
+	private final List<StatementImpact> statements;
+
+	ImpactEstimate(List<StatementImpact> statements) {
+		this.statements = statements;
+	}
+
+	public List<StatementImpact> getStatements() {
+		return statements;
+	}
+
+	public long getScannedBytes() {
+		var bytes = 0L;
+		for (final var statement : statements) {
+			if (statement.getImpact() == SCAN) {
+				bytes += statement.getBytes();
+			}
+		}
+		return bytes;
+	}
+
+	public long getRewrittenBytes() {
+		var bytes = 0L;
+		for (final var statement : statements) {
+			if (statement.getImpact() == REWRITE) {
+				bytes += statement.getBytes();
+			}
+		}
+		return bytes;
+	}
+
+	public Duration getEstimatedDuration() {
+		var duration = Duration.ZERO;
+		for (final var statement : statements) {
+			duration = duration.plus(statement.getEstimatedDuration());
+		}
+		return duration;
+	}
+
+	@Override
+	public String toString() {
+		final var builder = new StringBuilder();
+		for (final var statement : statements) {
+			builder.append(statement).append('\n');
+		}
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,200 @@
+package com.leaprnd.migrannotate;
+
+import org.intellij.lang.annotations.Language;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static com.leaprnd.migrannotate.Impact.CATALOG_ONLY;
+import static com.leaprnd.migrannotate.Impact.REWRITE;
+import static com.leaprnd.migrannotate.Impact.SCAN;
+import static java.util.regex.Pattern.CASE_INSENSITIVE;
+import static java.util.regex.Pattern.DOTALL;
+
+/**
+ * Classifies every statement of a migration plan by whether PostgreSQL has to scan or rewrite the relations it touches
+ * and estimates how long that will take from the statistics of those relations. The throughput constants are
+ * deliberately conservative guesses for commodity hardware.
+ */
+final class ImpactEstimator {
+
+	private static final long SCANNED_BYTES_PER_SECOND = 200L * 1024 * 1024;
+	private static final long REWRITTEN_BYTES_PER_SECOND = 50L * 1024 * 1024;
+	private static final Duration CATALOG_ONLY_DURATION = Duration.ofMillis(1);
+
+	static final String IDENTIFIER = "(?:\"(?:[^\"]|\"\")+\"|[A-Za-z_][\\w$]*)";
+	static final String RELATION = "(" + IDENTIFIER + "(?:\\s*\\.\\s*" + IDENTIFIER + ")?)";
+	private static final Pattern QUOTED_IDENTIFIER = Pattern.compile("\"(?:[^\"]|\"\")*\"");
+
+	private static final Pattern[] REWRITES = {
+		compile("^\\s*ALTER\\s+TABLE\\b.*\\bALTER\\s+(?:COLUMN\\s+)?(?:\"\"|\\w+)\\s+(?:SET\\s+DATA\\s+)?TYPE\\b"),
+		compile("^\\s*ALTER\\s+TABLE\\b.*\\bGENERATED\\s+ALWAYS\\s+AS\\b.*\\bSTORED\\b"),
+		compile("^\\s*ALTER\\s+TABLE\\b.*\\bSET\\s+(?:LOGGED|UNLOGGED|ACCESS\\s+METHOD)\\b"),
+		compile("^\\s*ALTER\\s+TABLE\\b.*\\bDEFAULT\\s+[^,]*\\b(?:random|gen_random_uuid|uuid_generate_v[14]|clock_timestamp|nextval)\\s*\\("),
+		compile("^\\s*(?:UPDATE|CLUSTER|VACUUM\\s+(?:\\(\\s*)?FULL|REFRESH\\s+MATERIALIZED\\s+VIEW)\\b"),
+	};
+
+	private static final Pattern[] SCANS = {
+		compile("^\\s*ALTER\\s+TABLE\\b.*\\bSET\\s+NOT\\s+NULL\\b"),
+		compile("^\\s*ALTER\\s+TABLE\\b.*\\bVALIDATE\\s+CONSTRAINT\\b"),
+		compile("^\\s*ALTER\\s+TABLE\\b(?!.*\\bNOT\\s+VALID\\b).*\\bADD\\b.*\\b(?:CHECK|FOREIGN\\s+KEY|REFERENCES)\\b"),
+		compile("^\\s*ALTER\\s+TABLE\\b(?!.*\\bUSING\\s+INDEX\\b).*\\bADD\\b.*\\b(?:PRIMARY\\s+KEY|UNIQUE|EXCLUDE)\\b"),
+		compile("^\\s*CREATE\\s+(?:UNIQUE\\s+)?INDEX\\b"),
+		compile("^\\s*(?:DELETE|ANALYZE|VACUUM)\\b"),
+		compile("^\\s*INSERT\\b.*\\bSELECT\\b"),
+	};
+
+	private static final Pattern[] RELATIONS = {
+		compile("\\bALTER\\s+TABLE\\s+(?:IF\\s+EXISTS\\s+)?(?:ONLY\\s+)?" + RELATION),
+		compile("\\bCREATE\\s+(?:UNIQUE\\s+)?INDEX\\b.*?\\bON\\s+(?:ONLY\\s+)?" + RELATION),
+		compile("\\bUPDATE\\s+(?:ONLY\\s+)?" + RELATION),
+		compile("\\b(?:FROM|JOIN|INTO|REFERENCES)\\s+(?:ONLY\\s+)?" + RELATION),
+		compile("^\\s*(?:CLUSTER|ANALYZE|VACUUM(?:\\s+FULL)?)\\s+" + RELATION),
+		compile("\\bREFRESH\\s+MATERIALIZED\\s+VIEW\\s+(?:CONCURRENTLY\\s+)?" + RELATION),
+	};
+
+	@Language("SQL")
+	private static final String SQL_TO_SELECT_STATISTICS = """
+		SELECT
+			"relation"."name",
+			COALESCE(GREATEST("class"."reltuples", "statistics"."n_live_tup"), 0)::BIGINT,
+			COALESCE(pg_table_size("class"."oid"), 0),
+			COALESCE(pg_total_relation_size("class"."oid"), 0)
+		FROM UNNEST(?::TEXT[]) AS "relation" ("name")
+		LEFT JOIN pg_class AS "class" ON "class"."oid" = TO_REGCLASS("relation"."name")
+		LEFT JOIN pg_stat_user_tables AS "statistics" ON "statistics"."relid" = "class"."oid";
+		""";
+
+	private static Pattern compile(String regex) {
+		return Pattern.compile(regex, CASE_INSENSITIVE | DOTALL);
+	}
+
+	static ImpactEstimate estimate(
+		Connection connection,
+		Collection<SQLWriter> writers,
+		boolean contract,
+		Map<Long, String> pendingContractsById
+	) throws SQLException {
+		final var planned = new ArrayList<PlannedStatement>();
+		for (final var writer : writers) {
+			plan(planned, writer.getId(), writer.getPrologue());
+		}
+		for (final var writer : writers) {
+			plan(planned, writer.getId(), writer.getSql());
+			plan(planned, writer.getId(), writer.getRepeatable());
+		}
+		for (final var writer : writers) {
+			plan(planned, writer.getId(), writer.getEpilogue());
+		}
+		if (contract) {
+			for (final var pendingContract : pendingContractsById.entrySet()) {
+				plan(planned, pendingContract.getKey(), pendingContract.getValue());
+			}
+			for (final var writer : writers) {
+				plan(planned, writer.getId(), writer.getContract());
+			}
+		}
+		final var statisticsByRelation = selectStatisticsOf(connection, planned);
+		final var statements = new ArrayList<StatementImpact>(planned.size());
+		for (final var statement : planned) {
+			var rows = 0L;
+			var bytes = 0L;
+			for (final var relation : statement.relations()) {
+				final var statistics = statisticsByRelation.get(relation);
+				if (statistics != null) {
+					rows += statistics.rows();
+					bytes += statement.impact() == REWRITE ? statistics.totalBytes() : statistics.tableBytes();
+				}
+			}
+			final var duration = estimateDurationOf(statement.impact(), bytes);
+			statements.add(
+				new StatementImpact(statement.id(), statement.sql(), statement.impact(), statement.relations(), rows, bytes, duration)
+			);
+		}
+		return new ImpactEstimate(statements);
+	}
+
+	private static void plan(List<PlannedStatement> planned, long id, String sql) {
+		for (final var statement : SQLStatements.split(sql)) {
+			final var masked = SQLStatements.mask(statement);
+			final var impact = classify(masked);
+			final List<String> relations = impact == CATALOG_ONLY ? List.of() : findRelationsIn(masked);
+			planned.add(new PlannedStatement(id, statement, impact, relations));
+		}
+	}
+
+	static Impact classify(String masked) {
+		final var unquoted = QUOTED_IDENTIFIER.matcher(masked).replaceAll("\"\"");
+		for (final var pattern : REWRITES) {
+			if (pattern.matcher(unquoted).find()) {
+				return REWRITE;
+			}
+		}
+		for (final var pattern : SCANS) {
+			if (pattern.matcher(unquoted).find()) {
+				return SCAN;
+			}
+		}
+		return CATALOG_ONLY;
+	}
+
+	static List<String> findRelationsIn(String masked) {
+		final var relations = new LinkedHashSet<String>();
+		for (final var pattern : RELATIONS) {
+			final var matcher = pattern.matcher(masked);
+			while (matcher.find()) {
+				relations.add(matcher.group(1).replaceAll("\\s*\\.\\s*", "."));
+			}
+		}
+		return List.copyOf(relations);
+	}
+
+	private static Map<String, RelationStatistics> selectStatisticsOf(
+		Connection connection,
+		List<PlannedStatement> planned
+	) throws SQLException {
+		final var relations = new LinkedHashSet<String>();
+		for (final var statement : planned) {
+			relations.addAll(statement.relations());
+		}
+		final var statisticsByRelation = new HashMap<String, RelationStatistics>();
+		if (relations.isEmpty()) {
+			return statisticsByRelation;
+		}
+		try (final var select = connection.prepareStatement(SQL_TO_SELECT_STATISTICS)) {
+			select.setArray(1, connection.createArrayOf("TEXT", relations.toArray()));
+			try (final var results = select.executeQuery()) {
+				while (results.next()) {
+					statisticsByRelation.put(
+						results.getString(1),
+						new RelationStatistics(results.getLong(2), results.getLong(3), results.getLong(4))
+					);
+				}
+			}
+		}
+		return statisticsByRelation;
+	}
+
+	private static Duration estimateDurationOf(Impact impact, long bytes) {
+		return switch (impact) {
+			case CATALOG_ONLY -> CATALOG_ONLY_DURATION;
+			case SCAN -> CATALOG_ONLY_DURATION.plusMillis(bytes * 1000 / SCANNED_BYTES_PER_SECOND);
+			case REWRITE -> CATALOG_ONLY_DURATION.plusMillis(bytes * 1000 / REWRITTEN_BYTES_PER_SECOND);
+		};
+	}
+
+	private record PlannedStatement(long id, String sql, Impact impact, List<String> relations) {}
+
+	private record RelationStatistics(long rows, long tableBytes, long totalBytes) {}
+
+	private ImpactEstimator() {}
+
+}
@@ -0,0 +1,39 @@
+package com.leaprnd.migrannotate;
+
+import java.util.List;
+
+/**
+ * A snapshot of the sessions that held the locks a migration could not take (or timed out waiting for), taken by a
+ * {@link LockMonitor}.
+ */
+public final class LockDiagnostics {
+
+	private final List<BlockingSession> blockers;
+
+	LockDiagnostics(List<BlockingSession> blockers) {
+		this.blockers = blockers;
+	}
+
+	/**
+	 * Returns one entry per lock held by another session, starting with the oldest transaction.
+	 */
+	public List<BlockingSession> getBlockers() {
+		return blockers;
+	}
+
+	@Override
+	public String toString() {
+		if (blockers.isEmpty()) {
+			return "no blocking sessions";
+		}
+		final var string = new StringBuilder();
+		for (final var blocker : blockers) {
+			if (!string.isEmpty()) {
+				string.append('\n');
+			}
+			string.append(blocker);
+		}
+		return string.toString();
+	}
+
+}
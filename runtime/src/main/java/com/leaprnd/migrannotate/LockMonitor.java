@@ -0,0 +1,215 @@
+package com.leaprnd.migrannotate;
+
+import org.intellij.lang.annotations.Language;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static com.leaprnd.migrannotate.BlockerAction.CANCELLED;
+import static com.leaprnd.migrannotate.BlockerAction.TERMINATED;
+
+/**
+ * Takes a snapshot of the sessions holding the locks that a migration could not take: the advisory locks of another
+ * migration when {@link Migrannotate#migrate()} returns {@link MigrationResult#FAILED_TO_LOCK}, or the locks on the
+ * relations of a migration whose statement failed with {@code lock_not_available} (e.g. because it waited longer than
+ * the {@linkplain #setWaitThreshold(Duration) wait threshold}, in which case a {@link LockTimeoutException} is thrown).
+ * Sessions matching {@link #cancelBlockers(Predicate)} or {@link #terminateBlockers(Predicate)} are cancelled or
+ * terminated right after the snapshot, so that the next attempt can succeed.
+ */
+public final class LockMonitor {
+
+	static final String LOCK_NOT_AVAILABLE = "55P03";
+
+	@Language("SQL")
+	private static final String SQL_TO_SELECT_BLOCKERS = """
+		SELECT
+			"activity"."pid",
+			"activity"."application_name",
+			"activity"."state",
+			"activity"."query",
+			"lock"."mode",
+			COALESCE("lock"."relation"::REGCLASS::TEXT, 'advisory lock ' || "lock"."classid" || ':' || "lock"."objid"),
+			COALESCE((EXTRACT(EPOCH FROM NOW() - "activity"."xact_start") * 1000)::BIGINT, 0)
+		FROM pg_locks AS "lock"
+		JOIN pg_stat_activity AS "activity" ON "activity"."pid" = "lock"."pid"
+		WHERE "lock"."granted" AND "lock"."pid" <> pg_backend_pid() AND %s
+		ORDER BY "activity"."xact_start" NULLS LAST, "activity"."pid";
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_FILTER_RELATIONS = """
+		"lock"."locktype" = 'relation' AND "lock"."relation" IN (
+			SELECT TO_REGCLASS("relation"."name") FROM UNNEST(?::TEXT[]) AS "relation" ("name")
+		)""";
+
+	@Language("SQL")
+	private static final String SQL_TO_FILTER_ADVISORY_LOCKS = """
+		"lock"."locktype" = 'advisory' AND ("lock"."classid"::BIGINT, "lock"."objid"::BIGINT, "lock"."objsubid"::INT) IN (
+			SELECT * FROM UNNEST(?::BIGINT[], ?::BIGINT[], ?::INT[])
+		)""";
+
+	@Language("SQL")
+	private static final String SQL_TO_SIGNAL_BLOCKERS = """
+		SELECT
+			"blocker"."pid",
+			CASE WHEN "blocker"."terminate" THEN pg_terminate_backend("blocker"."pid") ELSE pg_cancel_backend("blocker"."pid") END
+		FROM UNNEST(?::INT[], ?::BOOLEAN[]) AS "blocker" ("pid", "terminate");
+		""";
+
+	static boolean isLockNotAvailable(Throwable exception) {
+		return exception instanceof final SQLException cause && LOCK_NOT_AVAILABLE.equals(cause.getSQLState());
+	}
+
+	private Duration waitThreshold = null;
+	private Predicate<BlockingSession> cancel = blocker -> false;
+	private Predicate<BlockingSession> terminate = blocker -> false;
+
+	/**
+	 * Sets the {@code lock_timeout} of the session while migrating, so that a migration fails (and takes a snapshot)
+	 * instead of waiting indefinitely behind a long-running transaction while every query of the relation queues up
+	 * behind it.
+	 */
+	public LockMonitor setWaitThreshold(Duration waitThreshold) {
+		this.waitThreshold = waitThreshold;
+		return this;
+	}
+
+	/**
+	 * Cancels the current query of every blocking session matching {@code blockers} (which does not release the locks
+	 * of an open transaction unless that query was what held them).
+	 */
+	public LockMonitor cancelBlockers(Predicate<BlockingSession> blockers) {
+		cancel = blockers;
+		return this;
+	}
+
+	/**
+	 * Terminates every blocking session matching {@code blockers} (e.g. {@link BlockingSession#isIdleInTransaction()}),
+	 * which releases all of its locks. This takes precedence over {@link #cancelBlockers(Predicate)}.
+	 */
+	public LockMonitor terminateBlockers(Predicate<BlockingSession> blockers) {
+		terminate = blockers;
+		return this;
+	}
+
+	/**
+	 * Returns the value to set {@code lock_timeout} to, or {@code null} to leave it alone.
+	 */
+	String getLockTimeout() {
+		return waitThreshold == null ? null : waitThreshold.toMillis() + "ms";
+	}
+
+	LockDiagnostics diagnoseAdvisoryLocks(Connection connection, Collection<String> keys) throws SQLException {
+		final var classIds = new Long[keys.size()];
+		final var objectIds = new Long[keys.size()];
+		final var subIds = new Integer[keys.size()];
+		var index = 0;
+		for (final var key : keys) {
+			final var separator = key.indexOf(',');
+			if (separator < 0) {
+				final var value = Long.parseLong(key);
+				classIds[index] = value >>> 32;
+				objectIds[index] = value & 0xFFFFFFFFL;
+				subIds[index] = 1;
+			} else {
+				classIds[index] = Integer.parseInt(key.substring(0, separator).strip()) & 0xFFFFFFFFL;
+				objectIds[index] = Integer.parseInt(key.substring(separator + 1).strip()) & 0xFFFFFFFFL;
+				subIds[index] = 2;
+			}
+			index ++;
+		}
+		try (final var select = connection.prepareStatement(SQL_TO_SELECT_BLOCKERS.formatted(SQL_TO_FILTER_ADVISORY_LOCKS))) {
+			select.setArray(1, connection.createArrayOf("BIGINT", classIds));
+			select.setArray(2, connection.createArrayOf("BIGINT", objectIds));
+			select.setArray(3, connection.createArrayOf("INTEGER", subIds));
+			return diagnose(connection, select);
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the sessions holding locks on any relation referenced by the {@code sql} of the migration
+	 * that could not take its locks.
+	 */
+	LockDiagnostics diagnoseRelations(Connection connection, Collection<String> sql) throws SQLException {
+		final var relations = new LinkedHashSet<String>();
+		for (final var script : sql) {
+			for (final var statement : SQLStatements.split(script)) {
+				relations.addAll(ImpactEstimator.findRelationsIn(SQLStatements.mask(statement)));
+			}
+		}
+		if (relations.isEmpty()) {
+			return new LockDiagnostics(List.of());
+		}
+		try (final var select = connection.prepareStatement(SQL_TO_SELECT_BLOCKERS.formatted(SQL_TO_FILTER_RELATIONS))) {
+			select.setArray(1, connection.createArrayOf("TEXT", relations.toArray()));
+			return diagnose(connection, select);
+		}
+	}
+
+	private LockDiagnostics diagnose(Connection connection, PreparedStatement select) throws SQLException {
+		final var blockers = new ArrayList<BlockingSession>();
+		try (final var results = select.executeQuery()) {
+			while (results.next()) {
+				blockers.add(
+					new BlockingSession(
+						results.getInt(1),
+						results.getString(2),
+						results.getString(3),
+						results.getString(4),
+						results.getString(5),
+						results.getString(6),
+						Duration.ofMillis(results.getLong(7))
+					)
+				);
+			}
+		}
+		signal(connection, blockers);
+		return new LockDiagnostics(blockers);
+	}
+
+	private void signal(Connection connection, List<BlockingSession> blockers) throws SQLException {
+		final var terminateByPid = new HashMap<Integer, Boolean>();
+		for (final var blocker : blockers) {
+			if (terminate.test(blocker)) {
+				terminateByPid.put(blocker.getPid(), true);
+			} else if (cancel.test(blocker)) {
+				terminateByPid.putIfAbsent(blocker.getPid(), false);
+			}
+		}
+		if (terminateByPid.isEmpty()) {
+			return;
+		}
+		final var pids = terminateByPid.keySet().toArray(new Integer[0]);
+		final var terminations = new Boolean[pids.length];
+		for (var index = 0; index < pids.length; index ++) {
+			terminations[index] = terminateByPid.get(pids[index]);
+		}
+		try (final var signal = connection.prepareStatement(SQL_TO_SIGNAL_BLOCKERS)) {
+			signal.setArray(1, connection.createArrayOf("INTEGER", pids));
+			signal.setArray(2, connection.createArrayOf("BOOLEAN", terminations));
+			try (final var results = signal.executeQuery()) {
+				while (results.next()) {
+					if (!results.getBoolean(2)) {
+						continue;
+					}
+					final var pid = results.getInt(1);
+					final var action = terminateByPid.get(pid) ? TERMINATED : CANCELLED;
+					for (final var blocker : blockers) {
+						if (blocker.getPid() == pid) {
+							blocker.setAction(action);
+						}
+					}
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,7 @@
+package com.leaprnd.migrannotate;
+
+public enum LockStrategy {
+	GLOBAL,
+	GROUP,
+	SCHEMA;
+}
@@ -0,0 +1,25 @@
+package com.leaprnd.migrannotate;
+
+import java.sql.SQLException;
+
+import static java.lang.String.format;
+
+public class LockTimeoutException extends FailedToMigrateException {
+
+	private final LockDiagnostics diagnostics;
+
+	public LockTimeoutException(long id, SQLException cause, LockDiagnostics diagnostics) {
+		super(id, cause);
+		this.diagnostics = diagnostics;
+	}
+
+	public LockDiagnostics getDiagnostics() {
+		return diagnostics;
+	}
+
+	@Override
+	public String getMessage() {
+		return format("Failed to migrate @SchemaIdentifiter(%dL) because its locks are held by:\n%s", getId(), diagnostics);
+	}
+
+}
@@ -0,0 +1,99 @@
+package com.leaprnd.migrannotate;
+
+import static java.lang.Long.numberOfLeadingZeros;
+
+/**
+ * An open-addressing map from {@code long} to {@code long} so that reading the {@code "schema"} table and the
+ * manifests does not box every identifier and checksum.
+ */
+final class LongLongMap {
+
+	private static final int MINIMUM_CAPACITY = 16;
+
+	private long[] keys;
+	private long[] values;
+	private boolean[] occupied;
+	private int size = 0;
+
+	LongLongMap() {
+		this(MINIMUM_CAPACITY / 2);
+	}
+
+	LongLongMap(int expectedSize) {
+		allocate(capacityFor(expectedSize));
+	}
+
+	private static int capacityFor(int expectedSize) {
+		final var minimum = Math.max(MINIMUM_CAPACITY, expectedSize * 2);
+		return 1 << (64 - numberOfLeadingZeros(minimum - 1L));
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new long[capacity];
+		occupied = new boolean[capacity];
+	}
+
+	private static int hash(long key) {
+		final var mixed = key * 0x9E3779B97F4A7C15L;
+		return (int) (mixed ^ mixed >>> 32);
+	}
+
+	private int indexOf(long key) {
+		final var mask = keys.length - 1;
+		var index = hash(key) & mask;
+		while (occupied[index] && keys[index] != key) {
+			index = index + 1 & mask;
+		}
+		return index;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean containsKey(long key) {
+		return occupied[indexOf(key)];
+	}
+
+	long get(long key, long defaultValue) {
+		final var index = indexOf(key);
+		return occupied[index] ? values[index] : defaultValue;
+	}
+
+	/**
+	 * Associates {@code value} with {@code key} and returns whether the key was absent.
+	 */
+	boolean put(long key, long value) {
+		var index = indexOf(key);
+		if (occupied[index]) {
+			values[index] = value;
+			return false;
+		}
+		if ((size + 1) * 2 > keys.length) {
+			grow();
+			index = indexOf(key);
+		}
+		keys[index] = key;
+		values[index] = value;
+		occupied[index] = true;
+		size ++;
+		return true;
+	}
+
+	private void grow() {
+		final var oldKeys = keys;
+		final var oldValues = values;
+		final var oldOccupied = occupied;
+		allocate(oldKeys.length * 2);
+		for (var index = 0; index < oldKeys.length; index ++) {
+			if (oldOccupied[index]) {
+				final var newIndex = indexOf(oldKeys[index]);
+				keys[newIndex] = oldKeys[index];
+				values[newIndex] = oldValues[index];
+				occupied[newIndex] = true;
+			}
+		}
+	}
+
+}
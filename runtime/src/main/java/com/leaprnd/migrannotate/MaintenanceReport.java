@@ -0,0 +1,75 @@
+package com.leaprnd.migrannotate;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.String.format;
+
+/**
+ * Describes what the {@link MaintenanceStage} did after a migration. A failure of the stage does not undo the
+ * migration, so it is reported here instead of being thrown.
+ */
+public final class MaintenanceReport {
+
+	private final List<String> analyzedRelations;
+	private final List<String> vacuumRecommendations;
+	private final Map<String, Long> prewarmedBlocksByRelation;
+	private final Duration duration;
+	private final SQLException failure;
+
+	MaintenanceReport(
+		List<String> analyzedRelations,
+		List<String> vacuumRecommendations,
+		Map<String, Long> prewarmedBlocksByRelation,
+		Duration duration,
+		SQLException failure
+	) {
+		this.analyzedRelations = analyzedRelations;
+		this.vacuumRecommendations = vacuumRecommendations;
+		this.prewarmedBlocksByRelation = prewarmedBlocksByRelation;
+		this.duration = duration;
+		this.failure = failure;
+	}
+
+	public List<String> getAnalyzedRelations() {
+		return analyzedRelations;
+	}
+
+	/**
+	 * Returns the relations that should be vacuumed (outside of a transaction) because most of their tuples are dead.
+	 */
+	public List<String> getVacuumRecommendations() {
+		return vacuumRecommendations;
+	}
+
+	/**
+	 * Returns how many blocks were loaded into the buffer cache for each hot relation, which is empty if
+	 * {@code pg_prewarm} is not installed.
+	 */
+	public Map<String, Long> getPrewarmedBlocksByRelation() {
+		return prewarmedBlocksByRelation;
+	}
+
+	public Duration getDuration() {
+		return duration;
+	}
+
+	public SQLException getFailure() {
+		return failure;
+	}
+
+	@Override
+	public String toString() {
+		return format(
+			"analyzed %s, recommended vacuuming %s and prewarmed %s in %d ms%s",
+			analyzedRelations,
+			vacuumRecommendations,
+			prewarmedBlocksByRelation.keySet(),
+			duration.toMillis(),
+			failure == null ? "" : " (failed: " + failure.getMessage() + ")"
+		);
+	}
+
+}
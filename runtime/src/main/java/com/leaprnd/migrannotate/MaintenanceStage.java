@@ -0,0 +1,205 @@
+package com.leaprnd.migrannotate;
+
+import org.intellij.lang.annotations.Language;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static com.leaprnd.migrannotate.ImpactEstimator.RELATION;
+import static com.leaprnd.migrannotate.Migration.enquoteIdentifier;
+import static java.lang.System.nanoTime;
+import static java.util.regex.Pattern.CASE_INSENSITIVE;
+import static java.util.regex.Pattern.DOTALL;
+
+/**
+ * Runs after a migration has been committed: {@code ANALYZE}s the relations that the executed SQL altered or wrote
+ * to (so that the first queries are not planned with stale statistics), recommends a {@code VACUUM} of those that are
+ * now mostly dead tuples (which cannot run inside a transaction) and loads the {@link HotRelations} of every migrated
+ * schema into the buffer cache with {@code pg_prewarm} (if the extension is installed).
+ */
+public final class MaintenanceStage {
+
+	private static final Pattern[] MODIFIED_RELATIONS = {
+		compile("^\\s*ALTER\\s+TABLE\\s+(?:IF\\s+EXISTS\\s+)?(?:ONLY\\s+)?" + RELATION),
+		compile("^\\s*UPDATE\\s+(?:ONLY\\s+)?" + RELATION),
+		compile("^\\s*INSERT\\s+INTO\\s+" + RELATION),
+		compile("^\\s*DELETE\\s+FROM\\s+(?:ONLY\\s+)?" + RELATION),
+		compile("^\\s*CREATE\\s+(?:UNIQUE\\s+)?INDEX\\b.*?\\bON\\s+(?:ONLY\\s+)?" + RELATION),
+		compile("^\\s*(?:CLUSTER|REFRESH\\s+MATERIALIZED\\s+VIEW\\s+(?:CONCURRENTLY\\s+)?)" + RELATION),
+	};
+
+	@Language("SQL")
+	private static final String SQL_TO_SELECT_EXISTING_RELATIONS = """
+		SELECT "relation"."name" FROM UNNEST(?::TEXT[]) AS "relation" ("name")
+		JOIN pg_class AS "class" ON "class"."oid" = TO_REGCLASS("relation"."name")
+		WHERE "class"."relkind" IN ('r', 'm', 'p');
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_SELECT_DEAD_TUPLES = """
+		SELECT "relation"."name", "statistics"."n_dead_tup", "statistics"."n_live_tup"
+		FROM UNNEST(?::TEXT[]) AS "relation" ("name")
+		JOIN pg_stat_user_tables AS "statistics" ON "statistics"."relid" = TO_REGCLASS("relation"."name");
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_SELECT_PREWARM = """
+		SELECT TO_REGPROC('pg_prewarm') IS NOT NULL;
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_PREWARM = """
+		SELECT "relation"."name", pg_prewarm(TO_REGCLASS("relation"."name"))
+		FROM UNNEST(?::TEXT[]) AS "relation" ("name")
+		WHERE TO_REGCLASS("relation"."name") IS NOT NULL;
+		""";
+
+	private boolean analyze = true;
+	private boolean prewarm = true;
+	private double vacuumThreshold = 0.2;
+
+	private static Pattern compile(String regex) {
+		return Pattern.compile(regex, CASE_INSENSITIVE | DOTALL);
+	}
+
+	public MaintenanceStage setAnalyze(boolean analyze) {
+		this.analyze = analyze;
+		return this;
+	}
+
+	public MaintenanceStage setPrewarm(boolean prewarm) {
+		this.prewarm = prewarm;
+		return this;
+	}
+
+	/**
+	 * Sets the fraction of dead tuples above which a {@code VACUUM} of a modified relation is recommended.
+	 */
+	public MaintenanceStage setVacuumThreshold(double vacuumThreshold) {
+		this.vacuumThreshold = vacuumThreshold;
+		return this;
+	}
+
+	MaintenanceReport run(Connection connection, Collection<String> executedSql, Collection<Migration> migrations) {
+		final var start = nanoTime();
+		final var analyzed = new ArrayList<String>();
+		final var vacuumRecommendations = new ArrayList<String>();
+		final var prewarmedBlocksByRelation = new LinkedHashMap<String, Long>();
+		SQLException failure = null;
+		try {
+			final var relations = selectExistingRelations(connection, findModifiedRelationsIn(executedSql));
+			if (!relations.isEmpty()) {
+				if (analyze) {
+					try (final var statement = connection.createStatement()) {
+						statement.execute("ANALYZE " + String.join(", ", relations) + ";");
+					}
+					analyzed.addAll(relations);
+				}
+				vacuumRecommendations.addAll(selectRelationsToVacuum(connection, relations));
+			}
+			if (prewarm) {
+				final var hotRelations = new LinkedHashSet<String>();
+				for (final var migration : migrations) {
+					for (final var relation : migration.getHotRelations()) {
+						hotRelations.add(enquoteIdentifier(relation));
+					}
+				}
+				if (!hotRelations.isEmpty()) {
+					prewarm(connection, hotRelations, prewarmedBlocksByRelation);
+				}
+			}
+			connection.commit();
+		} catch (SQLException exception) {
+			failure = exception;
+			try {
+				connection.rollback();
+			} catch (SQLException suppressed) {
+				exception.addSuppressed(suppressed);
+			}
+		}
+		final var duration = Duration.ofNanos(nanoTime() - start);
+		return new MaintenanceReport(analyzed, vacuumRecommendations, prewarmedBlocksByRelation, duration, failure);
+	}
+
+	static Set<String> findModifiedRelationsIn(Collection<String> executedSql) {
+		final var relations = new LinkedHashSet<String>();
+		for (final var sql : executedSql) {
+			for (final var statement : SQLStatements.split(sql)) {
+				final var masked = SQLStatements.mask(statement);
+				for (final var pattern : MODIFIED_RELATIONS) {
+					final var matcher = pattern.matcher(masked);
+					if (matcher.find()) {
+						relations.add(matcher.group(1).replaceAll("\\s*\\.\\s*", "."));
+						break;
+					}
+				}
+			}
+		}
+		return relations;
+	}
+
+	private static List<String> selectExistingRelations(Connection connection, Set<String> relations) throws SQLException {
+		final var existing = new ArrayList<String>();
+		if (relations.isEmpty()) {
+			return existing;
+		}
+		try (final var select = connection.prepareStatement(SQL_TO_SELECT_EXISTING_RELATIONS)) {
+			select.setArray(1, connection.createArrayOf("TEXT", relations.toArray()));
+			try (final var results = select.executeQuery()) {
+				while (results.next()) {
+					existing.add(results.getString(1));
+				}
+			}
+		}
+		return existing;
+	}
+
+	private List<String> selectRelationsToVacuum(Connection connection, List<String> relations) throws SQLException {
+		final var recommendations = new ArrayList<String>();
+		try (final var select = connection.prepareStatement(SQL_TO_SELECT_DEAD_TUPLES)) {
+			select.setArray(1, connection.createArrayOf("TEXT", relations.toArray()));
+			try (final var results = select.executeQuery()) {
+				while (results.next()) {
+					final var dead = results.getLong(2);
+					final var live = results.getLong(3);
+					if (dead > 0 && dead > vacuumThreshold * (dead + live)) {
+						recommendations.add(results.getString(1));
+					}
+				}
+			}
+		}
+		return recommendations;
+	}
+
+	private static void prewarm(
+		Connection connection,
+		Set<String> relations,
+		Map<String, Long> prewarmedBlocksByRelation
+	) throws SQLException {
+		try (final var statement = connection.createStatement()) {
+			try (final var results = statement.executeQuery(SQL_TO_SELECT_PREWARM)) {
+				if (!results.next() || !results.getBoolean(1)) {
+					return;
+				}
+			}
+		}
+		try (final var select = connection.prepareStatement(SQL_TO_PREWARM)) {
+			select.setArray(1, connection.createArrayOf("TEXT", relations.toArray()));
+			try (final var results = select.executeQuery()) {
+				while (results.next()) {
+					prewarmedBlocksByRelation.put(results.getString(1), results.getLong(2));
+				}
+			}
+		}
+	}
+
+}
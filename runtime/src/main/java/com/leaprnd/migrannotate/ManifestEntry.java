@@ -0,0 +1,68 @@
+package com.leaprnd.migrannotate;
+
+import static com.leaprnd.migrannotate.Migrate.UNKNOWN_AT_COMPILE_TIME;
+
+final class ManifestEntry {
+
+	private final long id;
+	private final long latestChecksum;
+	private final String group;
+	private final String pathToClassFile;
+	private final ClassLoader classLoader;
+	private Migration migration;
+
+	ManifestEntry(Migration migration) {
+		this.id = migration.getId();
+		this.latestChecksum = migration.getLatestChecksum();
+		this.group = null;
+		this.pathToClassFile = null;
+		this.classLoader = null;
+		this.migration = migration;
+	}
+
+	ManifestEntry(long id, long latestChecksum, String group, String pathToClassFile, ClassLoader classLoader) {
+		this.id = id;
+		this.latestChecksum = latestChecksum;
+		this.group = group;
+		this.pathToClassFile = pathToClassFile;
+		this.classLoader = classLoader;
+	}
+
+	long getId() {
+		return id;
+	}
+
+	long getLatestChecksum() {
+		if (latestChecksum == UNKNOWN_AT_COMPILE_TIME) {
+			return getMigration().getLatestChecksum();
+		}
+		return latestChecksum;
+	}
+
+	/**
+	 * Returns the {@code @SchemaGroup} whose manifest listed this entry, or {@code null} for migrations that were
+	 * {@linkplain Migrannotate#add(Migration) added} explicitly.
+	 */
+	String getGroup() {
+		return group;
+	}
+
+	boolean isUpToDate(long currentChecksum) {
+		return currentChecksum == getLatestChecksum();
+	}
+
+	String getCanonicalClassName() {
+		if (pathToClassFile == null) {
+			return migration.getClass().getCanonicalName();
+		}
+		return pathToClassFile.replace('/', '.');
+	}
+
+	synchronized Migration getMigration() {
+		if (migration == null) {
+			migration = MigrationRegistry.getMigration(classLoader, pathToClassFile);
+		}
+		return migration;
+	}
+
+}
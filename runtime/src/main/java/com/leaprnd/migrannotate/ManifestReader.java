@@ -0,0 +1,105 @@
+package com.leaprnd.migrannotate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import static com.leaprnd.migrannotate.Migrate.UNKNOWN_AT_COMPILE_TIME;
+import static com.leaprnd.migrannotate.Migration.EMPTY_CHECKSUM;
+import static java.lang.Long.rotateLeft;
+
+/**
+ * Reads the manifests of some groups (and any migrations that were {@linkplain Migrannotate#add(Migration) added}
+ * explicitly) without a connection, so that tools like {@link UpgradePathVerifier} can find every migration without
+ * creating a {@link Migrannotate}.
+ */
+final class ManifestReader {
+
+	private final Set<String> groups;
+	private final Collection<Migration> extraMigrations;
+	private final ClassLoader classLoader;
+
+	ManifestReader(Set<String> groups, ClassLoader classLoader) {
+		this(groups, Set.of(), classLoader);
+	}
+
+	ManifestReader(Set<String> groups, Collection<Migration> extraMigrations, ClassLoader classLoader) {
+		this.groups = groups;
+		this.extraMigrations = extraMigrations;
+		this.classLoader = classLoader;
+	}
+
+	List<ManifestEntry> read() {
+		return read(new LongLongMap());
+	}
+
+	/**
+	 * Reads every manifest of every group (which {@link MigrationRegistry} parses only once per class loader), skipping
+	 * the entries whose latest checksum is known at compile time and already matches {@code currentChecksumsById}
+	 * before creating a {@link ManifestEntry} for them.
+	 */
+	List<ManifestEntry> read(LongLongMap currentChecksumsById) {
+		final var entries = new ArrayList<ManifestEntry>();
+		final var ids = new LongLongMap(extraMigrations.size());
+		for (final var extraMigration : extraMigrations) {
+			final var entry = new ManifestEntry(extraMigration);
+			if (!ids.put(entry.getId(), EMPTY_CHECKSUM)) {
+				throw findDuplicateSchemaIdentifier(entry.getId());
+			}
+			entries.add(entry);
+		}
+		for (final var group : groups) {
+			final var manifest = MigrationRegistry.getManifest(classLoader, group);
+			for (var index = 0; index < manifest.size(); index ++) {
+				final var id = manifest.getId(index);
+				final var latestChecksum = manifest.getLatestChecksum(index);
+				if (!ids.put(id, latestChecksum)) {
+					throw findDuplicateSchemaIdentifier(id);
+				}
+				if (latestChecksum != UNKNOWN_AT_COMPILE_TIME) {
+					if (currentChecksumsById.get(id, EMPTY_CHECKSUM) == latestChecksum) {
+						continue;
+					}
+				}
+				entries.add(new ManifestEntry(id, latestChecksum, group, manifest.getPath(index), classLoader));
+			}
+		}
+		return entries;
+	}
+
+	private DuplicateSchemaIdentifierException findDuplicateSchemaIdentifier(long id) {
+		final var canonicalClassNames = new ArrayList<String>();
+		for (final var extraMigration : extraMigrations) {
+			if (extraMigration.getId() == id) {
+				canonicalClassNames.add(new ManifestEntry(extraMigration).getCanonicalClassName());
+			}
+		}
+		for (final var group : groups) {
+			final var manifest = MigrationRegistry.getManifest(classLoader, group);
+			for (var index = 0; index < manifest.size(); index ++) {
+				if (manifest.getId(index) == id) {
+					final var latestChecksum = manifest.getLatestChecksum(index);
+					final var entry = new ManifestEntry(id, latestChecksum, group, manifest.getPath(index), classLoader);
+					canonicalClassNames.add(entry.getCanonicalClassName());
+				}
+			}
+		}
+		return new DuplicateSchemaIdentifierException(canonicalClassNames.get(1), canonicalClassNames.get(0));
+	}
+
+	/**
+	 * Returns a digest of the groups and the latest checksum of every schema in them, which changes whenever a fresh
+	 * install would.
+	 */
+	long computeDigestOfLatestChecksums() {
+		var digest = (long) groups.hashCode();
+		for (final var entry : read()) {
+			if (!entry.isUpToDate(EMPTY_CHECKSUM)) {
+				digest += rotateLeft(entry.getId(), 17) ^ entry.getLatestChecksum() * 0x9E3779B97F4A7C15L;
+			}
+		}
+		return digest;
+	}
+
+}
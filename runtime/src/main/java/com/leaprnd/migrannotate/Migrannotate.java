@@ -2,70 +2,203 @@ package com.leaprnd.migrannotate;
 
 import org.intellij.lang.annotations.Language;
 
-import java.io.DataInputStream;
-import java.io.EOFException;
-import java.io.IOException;
-import java.lang.invoke.MethodHandles;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 
+import static com.leaprnd.migrannotate.CommitStrategy.PER_MIGRATION;
+import static com.leaprnd.migrannotate.CommitStrategy.PER_PHASE;
+import static com.leaprnd.migrannotate.CommitStrategy.SINGLE_TRANSACTION;
 import static com.leaprnd.migrannotate.ExecutionDirection.UNSTABLE;
-import static com.leaprnd.migrannotate.Migrate.UNKNOWN_AT_COMPILE_TIME;
+import static com.leaprnd.migrannotate.LockStrategy.GLOBAL;
+import static com.leaprnd.migrannotate.LockStrategy.SCHEMA;
+import static com.leaprnd.migrannotate.MigrationHistory.FAILED;
+import static com.leaprnd.migrannotate.MigrationHistory.SUCCEEDED;
 import static com.leaprnd.migrannotate.Migration.DEFAULT_GROUP;
 import static com.leaprnd.migrannotate.Migration.EMPTY_CHECKSUM;
+import static com.leaprnd.migrannotate.Migration.enquoteLiteral;
+import static com.leaprnd.migrannotate.Migration.getHigherOrderBitsOf;
+import static com.leaprnd.migrannotate.Migration.getLowerOrderBitsOf;
 import static com.leaprnd.migrannotate.MigrationResult.ALREADY_UP_TO_DATE;
+import static com.leaprnd.migrannotate.Phase.CONTRACT;
+import static com.leaprnd.migrannotate.Phase.EXPAND;
+import static com.leaprnd.migrannotate.MigrationResult.BASELINED;
 import static com.leaprnd.migrannotate.MigrationResult.FAILED_TO_LOCK;
 import static com.leaprnd.migrannotate.MigrationResult.MIGRATED;
 import static java.lang.ClassLoader.getSystemClassLoader;
-import static java.lang.invoke.MethodHandles.Lookup.ClassOption.NESTMATE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.reverse;
 import static java.util.Comparator.comparingLong;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
 
 public class Migrannotate {
 
 	public static final Comparator<Migration> MIGRATION_COMPARATOR = comparingLong(Migration::getId);
 
+	private static final long GLOBAL_ADVISORY_LOCK_KEY = 7478093087527115071L;
+
 	@Language("SQL")
-	private static final String SQL_TO_LOCK_AND_CREATE_TABLE_AND_SELECT_ALL_SCHEMA_ROWS = """
-		SELECT pg_try_advisory_lock(7478093087527115071);
-		CREATE TABLE IF NOT EXISTS "schema" (
-			"id" BIGINT NOT NULL PRIMARY KEY,
-			"checksum" BIGINT NOT NULL
-		);
-		SELECT "id", "checksum" FROM "schema";
+	private static final String SQL_TO_CREATE_TABLE = """
+		DO $$ BEGIN
+			CREATE TABLE IF NOT EXISTS "schema" (
+				"id" BIGINT NOT NULL PRIMARY KEY,
+				"checksum" BIGINT NOT NULL,
+				"group" VARCHAR,
+				"contract" TEXT
+			);
+			IF NOT EXISTS (
+				SELECT FROM pg_attribute WHERE attrelid = '"schema"'::REGCLASS AND attname = 'group' AND NOT attisdropped
+			) THEN
+				ALTER TABLE "schema" ADD COLUMN "group" VARCHAR;
+			END IF;
+			IF NOT EXISTS (
+				SELECT FROM pg_attribute WHERE attrelid = '"schema"'::REGCLASS AND attname = 'contract' AND NOT attisdropped
+			) THEN
+				ALTER TABLE "schema" ADD COLUMN "contract" TEXT;
+			END IF;
+		EXCEPTION WHEN unique_violation OR duplicate_column THEN
+			NULL;
+		END; $$;
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_SELECT_WHETHER_TABLE_IS_CURRENT = """
+		SELECT COUNT(*) = 2 FROM pg_attribute
+		WHERE attrelid = TO_REGCLASS('"schema"') AND attname IN ('group', 'contract') AND NOT attisdropped;
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_SELECT_WHETHER_TABLE_EXISTS_AND_IS_CURRENT = """
+		SELECT TO_REGCLASS('"schema"') IS NOT NULL, COUNT(*) = 2 FROM pg_attribute
+		WHERE attrelid = TO_REGCLASS('"schema"') AND attname IN ('group', 'contract') AND NOT attisdropped;
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_SELECT_LEGACY_SCHEMA_ROWS = """
+		SELECT "id", "checksum", NULL FROM "schema";
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_SELECT_SCHEMA_ROWS = """
+		SELECT "id", "checksum", "contract" FROM "schema" WHERE "group" IS NULL OR "group" IN (%s);
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_UPSERT_SCHEMA_ROW_IF_UNCHANGED = """
+		INSERT INTO "schema" AS S ("id", "checksum", "group", "contract") VALUES (?, ?, ?, ?)
+		ON CONFLICT ("id") DO UPDATE SET
+			"checksum" = EXCLUDED."checksum",
+			"group" = EXCLUDED."group",
+			"contract" = NULLIF(CONCAT(S."contract", EXCLUDED."contract"), '')
+		WHERE S."checksum" = ?;
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_CLEAR_CONTRACT_IF_UNCHANGED = """
+		UPDATE "schema" SET "contract" = NULL WHERE "id" = ? AND "contract" = ?;
 		""";
 
 	@Language("SQL")
-	private static final String SQL_TO_INSERT_SCHEMA_ROW = """
-		INSERT INTO "schema" VALUES (%d, %d);
+	private static final String SQL_TO_DELETE_SCHEMA_ROW_IF_UNCHANGED = """
+		DELETE FROM "schema" WHERE "id" = ? AND "checksum" = ? AND "contract" IS NULL;
 		""";
 
 	@Language("SQL")
-	private static final String SQL_TO_UPDATE_SCHEMA_ROW = """
-		UPDATE "schema" SET "checksum" = %d WHERE "id" = %d;
+	private static final String SQL_TO_UPSERT_SCHEMA_ROW = """
+		INSERT INTO "schema" ("id", "checksum", "group") VALUES (?, ?, ?)
+		ON CONFLICT ("id") DO UPDATE SET "checksum" = EXCLUDED."checksum", "group" = EXCLUDED."group";
 		""";
 
 	@Language("SQL")
-	private static final String SQL_TO_DELETE_SCHEMA_ROW = """
-		DELETE FROM "schema" WHERE "id" = %d;
+	private static final String SQL_TO_NOTIFY = """
+		SELECT pg_notify(?, ?);
 		""";
 
 	@Language("SQL")
-	private static final String SQL_TO_UNLOCK = """
-		SELECT pg_advisory_unlock(7478093087527115071);
+	private static final String SQL_TO_CREATE_REFERENCE_SCHEMA = """
+		SAVEPOINT "reference";
+		CREATE SCHEMA "migrannotate_reference";
+		SET LOCAL search_path TO "migrannotate_reference";
 		""";
 
-	private final String group;
+	@Language("SQL")
+	private static final String SQL_TO_DISCARD_REFERENCE_SCHEMA = """
+		ROLLBACK TO SAVEPOINT "reference";
+		""";
+
+	private static String getAdvisoryLockKeyOf(String group) {
+		if (group.equals(DEFAULT_GROUP)) {
+			return Long.toString(GLOBAL_ADVISORY_LOCK_KEY);
+		}
+		var hash = 0xCBF29CE484222325L;
+		for (final var octet : group.getBytes(UTF_8)) {
+			hash ^= octet & 0xFF;
+			hash *= 0x100000001B3L;
+		}
+		return Long.toString(hash ^ GLOBAL_ADVISORY_LOCK_KEY);
+	}
+
+	private static String getAdvisoryLockKeyOf(long id) {
+		return getHigherOrderBitsOf(id) + ", " + getLowerOrderBitsOf(id);
+	}
+
+	private static String sqlToTryLock(Collection<String> keys) {
+		final var sql = new StringBuilder("SELECT ");
+		for (final var key : keys) {
+			if (sql.length() > 7) {
+				sql.append(", ");
+			}
+			sql.append("pg_try_advisory_lock(").append(key).append(')');
+		}
+		return sql.append(";\n").toString();
+	}
+
+	private static String sqlToUnlock(Collection<String> keys) {
+		final var sql = new StringBuilder("SELECT ");
+		for (final var key : keys) {
+			if (sql.length() > 7) {
+				sql.append(", ");
+			}
+			sql.append("pg_advisory_unlock(").append(key).append(')');
+		}
+		return sql.append(";\n").toString();
+	}
+
+	private final TreeSet<String> groups;
+	private final String sqlToSelectSchemaRows;
 	private final Connection connection;
 	private final HashSet<Migration> extraMigrations = new HashSet<>();
 	private final ExecutionDirection executionDirection;
+	private boolean recordHistory = false;
+	private LockStrategy lockStrategy = GLOBAL;
+	private String notificationChannel = null;
+	private ImpactBudget impactBudget = null;
+	private CommitStrategy commitStrategy = PER_PHASE;
+	private ReplicationThrottle replicationThrottle = null;
+	private volatile MigrationReport lastReport = null;
+	private boolean memoizePlans = false;
+	private int slowStatementsToReport = 0;
+	private MaintenanceStage maintenanceStage = null;
+	private LockMonitor lockMonitor = null;
+	private TableLockAcquisition tableLockAcquisition = null;
+	private ClassLoader classLoader = getSystemClassLoader();
 
 	public Migrannotate(Connection connection) {
 		this(DEFAULT_GROUP, connection);
@@ -80,7 +213,23 @@ public class Migrannotate {
 	}
 
 	public Migrannotate(String group, Connection connection, ExecutionDirection executionDirection) {
-		this.group = group;
+		this(Set.of(group), connection, executionDirection);
+	}
+
+	/**
+	 * Migrates every schema of every one of the {@code groups} under one lock and one set of phase transactions, in
+	 * an order that respects {@code @SchemaDependency} annotations across groups.
+	 */
+	public Migrannotate(Set<String> groups, Connection connection) {
+		this(groups, connection, UNSTABLE);
+	}
+
+	public Migrannotate(Set<String> groups, Connection connection, ExecutionDirection executionDirection) {
+		if (groups.isEmpty()) {
+			throw new IllegalArgumentException("At least one group is required!");
+		}
+		this.groups = new TreeSet<>(groups);
+		this.sqlToSelectSchemaRows = sqlToSelectSchemaRowsOf(this.groups);
 		this.connection = connection;
 		this.executionDirection = executionDirection;
 	}
@@ -90,174 +239,934 @@ public class Migrannotate {
 		return this;
 	}
 
+	/**
+	 * Appends a row per migrated schema to the {@code "schemaHistory"} table (creating it if necessary) with the
+	 * checksums, phase durations and outcome of the migration.
+	 */
+	public Migrannotate recordHistory() {
+		recordHistory = true;
+		return this;
+	}
+
+	/**
+	 * Shares the rendered SQL between every {@code Migrannotate} (of the same groups) that finds the same current
+	 * checksums, so that migrating many databases at the same version only renders it once. Only use this if every
+	 * {@link Migration} always renders the same SQL for the same current checksum.
+	 */
+	public Migrannotate memoizePlans() {
+		memoizePlans = true;
+		return this;
+	}
+
+	/**
+	 * Reads the manifests and migration classes from {@code classLoader} instead of the system class loader, e.g. to
+	 * migrate an application whose classes are not on the classpath of this one.
+	 */
+	public Migrannotate setClassLoader(ClassLoader classLoader) {
+		this.classLoader = classLoader;
+		return this;
+	}
+
+	/**
+	 * Runs the {@code stage} after every migration that changed anything, once it has been committed and its advisory
+	 * locks have been released.
+	 */
+	public Migrannotate setMaintenanceStage(MaintenanceStage stage) {
+		maintenanceStage = stage;
+		return this;
+	}
+
+	/**
+	 * Executes the SQL of every migration one statement at a time (which costs one round trip per statement) and
+	 * reports the {@code slowest} statements in the {@linkplain #getLastReport() report}. Enable the
+	 * {@code migrannotate.splitStatements} option of the annotation processor to have the statements split at compile
+	 * time and labelled with the annotation they came from.
+	 */
+	public Migrannotate profileStatements(int slowest) {
+		slowStatementsToReport = slowest;
+		return this;
+	}
+
+	/**
+	 * Sends a {@code NOTIFY} on the {@code channel} with the {@code @SchemaIdentifier} and new checksum of every schema
+	 * that was migrated, once the migration has been committed. Use {@link SchemaChangeSubscription} to listen.
+	 */
+	public Migrannotate notifyOn(String channel) {
+		notificationChannel = channel;
+		return this;
+	}
+
+	/**
+	 * Takes a snapshot of the sessions holding the locks that {@link #migrate()} could not take (and optionally cancels
+	 * or terminates some of them), which is either {@linkplain MigrationReport#getLockDiagnostics() reported} or
+	 * thrown in a {@link LockTimeoutException}.
+	 */
+	public Migrannotate setLockMonitor(LockMonitor monitor) {
+		lockMonitor = monitor;
+		return this;
+	}
+
+	/**
+	 * Takes the table locks of every transaction up front, in a canonical order and with {@code NOWAIT}, retrying as
+	 * configured by the {@code acquisition}. If the locks cannot be taken, the migration fails (and is rolled back)
+	 * with a {@link FailedToMigrateException} caused by {@code lock_not_available}.
+	 */
+	public Migrannotate setTableLockAcquisition(TableLockAcquisition acquisition) {
+		tableLockAcquisition = acquisition;
+		return this;
+	}
+
+	public Migrannotate setLockStrategy(LockStrategy lockStrategy) {
+		this.lockStrategy = lockStrategy;
+		return this;
+	}
+
+	/**
+	 * Controls how often {@link #migrate()} commits: {@link CommitStrategy#PER_PHASE} (the default) commits after the
+	 * prologues, the SQL and the epilogues of every migration, {@link CommitStrategy#PER_MIGRATION} commits after each
+	 * of them so that the locks on a table are released as soon as its migration is done, and
+	 * {@link CommitStrategy#SINGLE_TRANSACTION} only commits once everything has succeeded.
+	 */
+	public Migrannotate setCommitStrategy(CommitStrategy commitStrategy) {
+		this.commitStrategy = commitStrategy;
+		return this;
+	}
+
+	/**
+	 * Checks the replication lag before every transaction of the {@link CommitStrategy} (i.e. before every phase, every
+	 * migration or only once) and pauses while the replicas are too far behind. Combine this with
+	 * {@link CommitStrategy#PER_MIGRATION} to check the lag between any two migrations.
+	 */
+	public Migrannotate setReplicationThrottle(ReplicationThrottle throttle) {
+		replicationThrottle = throttle;
+		return this;
+	}
+
+	/**
+	 * Returns the report of the most recent call to {@link #migrate()} that did not throw, or {@code null}.
+	 */
+	public MigrationReport getLastReport() {
+		return lastReport;
+	}
+
+	/**
+	 * Refuses to migrate (after acquiring the lock but before running anything) if the {@link ImpactEstimate} of the
+	 * migration exceeds the {@code budget}.
+	 */
+	public Migrannotate setImpactBudget(ImpactBudget budget) {
+		impactBudget = budget;
+		return this;
+	}
+
+	private List<String> getAdvisoryLockKeys() {
+		if (lockStrategy == GLOBAL) {
+			return List.of(Long.toString(GLOBAL_ADVISORY_LOCK_KEY));
+		}
+		final var keys = new ArrayList<String>(groups.size());
+		for (final var group : groups) {
+			keys.add(getAdvisoryLockKeyOf(group));
+		}
+		return keys;
+	}
+
+	private static String sqlToSelectSchemaRowsOf(Set<String> groups) {
+		final var literals = new StringJoiner(", ");
+		for (final var group : groups) {
+			literals.add(enquoteLiteral(group));
+		}
+		return SQL_TO_SELECT_SCHEMA_ROWS.formatted(literals);
+	}
+
 	public MigrationResult migrate() throws SQLException {
+		return migrate(this::readManifest, true, true);
+	}
+
+	/**
+	 * Runs only one half of a zero-downtime deployment: {@link Phase#EXPAND} runs everything but the
+	 * {@code @SchemaUpgrade(contract = ...)} SQL (which is recorded in the {@code "schema"} table instead), while
+	 * {@link Phase#CONTRACT} runs the recorded contract SQL once every instance is running the new version.
+	 */
+	public MigrationResult migrate(Phase phase) throws SQLException {
+		return migrate(this::readManifest, phase == EXPAND, phase == CONTRACT);
+	}
+
+	/**
+	 * Starts reading the manifests and defining the migration classes on the {@code executor} while the lock is being
+	 * acquired and the current checksums are being read. The connection must not be used by anything else until the
+	 * returned future completes.
+	 */
+	public CompletableFuture<MigrationResult> migrateAsync(Executor executor) {
+		final var manifest = supplyAsync(this::readManifestAndDefineMigrations, executor);
+		return supplyAsync(
+			() -> {
+				try {
+					return migrate(currentChecksumsById -> manifest.join(), true, true);
+				} catch (SQLException exception) {
+					throw new CompletionException(exception);
+				}
+			},
+			executor
+		);
+	}
+
+	private MigrationResult migrate(Function<LongLongMap, List<ManifestEntry>> manifest, boolean expand, boolean contract) throws SQLException {
+		final var run = new MigrationRun(slowStatementsToReport);
+		final var result = migrateUsing(run, manifest, expand, contract);
+		lastReport = run.toReport(result);
+		return result;
+	}
+
+	private MigrationResult migrateUsing(
+		MigrationRun run,
+		Function<LongLongMap, List<ManifestEntry>> manifest,
+		boolean expand,
+		boolean contract
+	) throws SQLException {
 		final var oldAutoCommit = connection.getAutoCommit();
 		connection.setAutoCommit(false);
 		try {
 			final var statement = connection.createStatement();
+			final var steps = new ArrayList<MigrationStep>();
+			final var history = recordHistory ? new MigrationHistory() : null;
+			final var lockedKeys = new ArrayList<String>();
+			final var pendingContractsById = new TreeMap<Long, String>();
+			String oldLockTimeout = null;
+			List<String> executedSql = null;
+			List<Migration> migrations = null;
 			try {
-				statement.execute(SQL_TO_LOCK_AND_CREATE_TABLE_AND_SELECT_ALL_SCHEMA_ROWS);
-				if (readWhetherLockFailedFrom(statement)) {
-					return FAILED_TO_LOCK;
+				if (lockMonitor != null && lockMonitor.getLockTimeout() != null) {
+					oldLockTimeout = setLockTimeout(statement, lockMonitor.getLockTimeout());
 				}
-				final var currentChecksumsById = readCurrentChecksumsByIdFrom(statement);
-				final var writers = createSqlWriters(currentChecksumsById);
-				if (writers.isEmpty()) {
+				if (lockStrategy == SCHEMA) {
+					statement.execute(SQL_TO_CREATE_TABLE + sqlToSelectSchemaRows);
+				} else {
+					final var keys = getAdvisoryLockKeys();
+					if (!tryLock(statement, keys, SQL_TO_CREATE_TABLE + sqlToSelectSchemaRows, lockedKeys)) {
+						return failToLock(run, keys, lockedKeys);
+					}
+				}
+				var currentChecksumsById = new LongLongMap();
+				readSchemaRowsFrom(statement, currentChecksumsById, pendingContractsById);
+				final var entries = expand ? manifest.apply(currentChecksumsById) : List.<ManifestEntry>of();
+				var writers = createSqlWriters(currentChecksumsById, entries);
+				if (!contract) {
+					pendingContractsById.clear();
+				}
+				if (writers.isEmpty() && pendingContractsById.isEmpty()) {
 					return ALREADY_UP_TO_DATE;
 				}
-				for (final var writer : writers) {
-					try {
-						statement.execute(writer.getPrologue());
-					} catch (SQLException exception) {
-						throw new FailedToMigrateException(writer.getId(), exception);
+				if (lockStrategy == SCHEMA) {
+					final var keys = getAdvisoryLockKeysOf(writers, pendingContractsById.keySet());
+					if (!tryLock(statement, keys, "", lockedKeys)) {
+						return failToLock(run, keys, lockedKeys);
+					}
+					currentChecksumsById = new LongLongMap();
+					pendingContractsById.clear();
+					try (final var results = statement.executeQuery(sqlToSelectSchemaRows)) {
+						readSchemaRowsFrom(results, currentChecksumsById, pendingContractsById);
+					}
+					writers = createSqlWriters(currentChecksumsById, entries);
+					if (!contract) {
+						pendingContractsById.clear();
+					}
+					final var keysToMigrate = getAdvisoryLockKeysOf(writers, pendingContractsById.keySet());
+					if (!lockedKeys.containsAll(keysToMigrate)) {
+						return failToLock(run, keysToMigrate, lockedKeys);
+					}
+					if (writers.isEmpty() && pendingContractsById.isEmpty()) {
+						return ALREADY_UP_TO_DATE;
 					}
 				}
-				connection.commit();
+				if (impactBudget != null) {
+					impactBudget.verify(ImpactEstimator.estimate(connection, writers, contract, pendingContractsById));
+				}
 				for (final var writer : writers) {
-					try {
-						statement.execute(writer.getSql());
-					} catch (SQLException exception) {
-						throw new FailedToMigrateException(writer.getId(), exception);
+					steps.add(new MigrationStep(writer));
+				}
+				// Nothing but reading the "schema" table has happened so far, so that is committed before pausing
+				commitIf(replicationThrottle != null);
+				awaitReplicasIf(run, commitStrategy == SINGLE_TRANSACTION);
+				lockTablesIf(commitStrategy == SINGLE_TRANSACTION, statement, steps, writer -> List.of(
+					writer.getPrologue(),
+					writer.getSql(),
+					writer.getRepeatable(),
+					writer.getEpilogue(),
+					contract ? writer.getContract() : ""
+				), pendingContractsById);
+				if (!writers.isEmpty()) {
+					awaitReplicasIf(run, commitStrategy == PER_PHASE);
+					lockTablesIf(commitStrategy == PER_PHASE, statement, steps, writer -> List.of(writer.getPrologue()), Map.of());
+					for (final var step : steps) {
+						awaitReplicasIf(run, commitStrategy == PER_MIGRATION);
+						lockTablesIf(commitStrategy == PER_MIGRATION, statement, List.of(step), writer -> List.of(writer.getPrologue()), Map.of());
+						step.executePrologue(statement);
+						commitIf(commitStrategy == PER_MIGRATION);
+					}
+					commitIf(commitStrategy == PER_PHASE);
+					if (commitStrategy == PER_MIGRATION) {
+						for (final var step : steps) {
+							awaitReplicas(run);
+							lockTablesIf(true, statement, List.of(step), writer -> List.of(writer.getSql(), writer.getRepeatable()), Map.of());
+							step.executeSql(statement, run.getProfiler());
+							recordChecksumsOf(List.of(step));
+							connection.commit();
+						}
+					} else {
+						awaitReplicasIf(run, commitStrategy == PER_PHASE);
+						lockTablesIf(commitStrategy == PER_PHASE, statement, steps, writer -> List.of(writer.getSql(), writer.getRepeatable()), Map.of());
+						for (final var step : steps) {
+							step.executeSql(statement, run.getProfiler());
+						}
+						recordChecksumsOf(steps);
+						commitIf(commitStrategy == PER_PHASE);
+					}
+					awaitReplicasIf(run, commitStrategy == PER_PHASE);
+					lockTablesIf(commitStrategy == PER_PHASE, statement, steps, writer -> List.of(writer.getEpilogue()), Map.of());
+					// Each step is recorded once its epilogue has run, so that its row holds the durations of all three phases
+					for (final var step : steps) {
+						awaitReplicasIf(run, commitStrategy == PER_MIGRATION);
+						lockTablesIf(commitStrategy == PER_MIGRATION, statement, List.of(step), writer -> List.of(writer.getEpilogue()), Map.of());
+						step.executeEpilogue(statement);
+						if (commitStrategy == PER_MIGRATION) {
+							if (history != null) {
+								history.record(connection, List.of(step), SUCCEEDED);
+							}
+							connection.commit();
+						}
+					}
+					if (commitStrategy != PER_MIGRATION && history != null) {
+						history.record(connection, steps, SUCCEEDED);
 					}
+					commitIf(commitStrategy == PER_PHASE);
 				}
-				connection.commit();
-				for (final var writer : writers) {
-					try {
-						statement.execute(writer.getEpilogue());
-					} catch (SQLException exception) {
-						throw new FailedToMigrateException(writer.getId(), exception);
+				if (contract) {
+					for (final var writer : writers) {
+						final var sql = writer.getContract();
+						if (!sql.isEmpty()) {
+							pendingContractsById.merge(writer.getId(), sql, String::concat);
+						}
 					}
+					if (!pendingContractsById.isEmpty()) {
+						awaitReplicasIf(run, commitStrategy != SINGLE_TRANSACTION);
+						lockTablesIf(commitStrategy != SINGLE_TRANSACTION, statement, List.of(), writer -> List.of(), pendingContractsById);
+						executeContracts(statement, pendingContractsById, manifest);
+						commitIf(commitStrategy != SINGLE_TRANSACTION);
+					}
+				}
+				if (notificationChannel != null) {
+					notifyChangesOf(writers, pendingContractsById.keySet(), currentChecksumsById);
 				}
 				connection.commit();
-				return MIGRATED;
+				if (maintenanceStage != null) {
+					executedSql = getExecutedSqlOf(writers, pendingContractsById.values());
+					migrations = getMigrationsOf(writers, entries);
+				}
 			} catch (Throwable exception) {
 				connection.rollback();
+				if (history != null) {
+					recordFailureOf(steps, history, exception);
+				}
+				if (lockMonitor != null && exception instanceof final FailedToMigrateException failure) {
+					if (LockMonitor.isLockNotAvailable(failure.getCause())) {
+						throw diagnoseLockTimeoutOf(failure, steps, pendingContractsById);
+					}
+				}
 				throw exception;
 			} finally {
 				try {
-					statement.execute(SQL_TO_UNLOCK);
+					final var sql = new StringBuilder();
+					if (oldLockTimeout != null) {
+						sql.append("SELECT set_config('lock_timeout', ").append(enquoteLiteral(oldLockTimeout)).append(", false);\n");
+					}
+					if (!lockedKeys.isEmpty()) {
+						sql.append(sqlToUnlock(lockedKeys));
+					}
+					if (!sql.isEmpty()) {
+						statement.execute(sql.toString());
+					}
 				} finally {
 					statement.close();
 				}
 			}
+			// Maintenance can take a while, so it only runs once the locks are released and lock_timeout is restored
+			if (executedSql != null) {
+				run.setMaintenanceReport(maintenanceStage.run(connection, executedSql, migrations));
+			}
+			return MIGRATED;
 		} finally {
 			connection.setAutoCommit(oldAutoCommit);
 		}
 	}
 
-	private boolean readWhetherLockFailedFrom(Statement statement) throws SQLException {
+	/**
+	 * Pauses while the replicas are lagging behind if a {@link ReplicationThrottle} is set. This is only ever done right
+	 * after a commit, since pausing in the middle of a transaction would keep the locks it already took.
+	 */
+	private void awaitReplicasIf(MigrationRun run, boolean condition) throws SQLException {
+		if (condition) {
+			awaitReplicas(run);
+		}
+	}
+
+	private void awaitReplicas(MigrationRun run) throws SQLException {
+		if (replicationThrottle != null) {
+			run.throttled(replicationThrottle.awaitReplicasOf(connection));
+		}
+	}
+
+	private static List<String> getExecutedSqlOf(Collection<SQLWriter> writers, Collection<String> contracts) {
+		final var sql = new ArrayList<String>(writers.size() * 4 + contracts.size());
+		for (final var writer : writers) {
+			sql.add(writer.getPrologue());
+			sql.add(writer.getSql());
+			sql.add(writer.getRepeatable());
+			sql.add(writer.getEpilogue());
+		}
+		sql.addAll(contracts);
+		return sql;
+	}
+
+	private static List<Migration> getMigrationsOf(Collection<SQLWriter> writers, List<ManifestEntry> entries) {
+		final var migrations = new ArrayList<Migration>(writers.size());
+		for (final var writer : writers) {
+			for (final var entry : entries) {
+				if (entry.getId() == writer.getId()) {
+					migrations.add(entry.getMigration());
+					break;
+				}
+			}
+		}
+		return migrations;
+	}
+
+	/**
+	 * Takes the table locks needed by the {@code sqlOf} every step and by the contracts up front if a
+	 * {@link TableLockAcquisition} is set. If they cannot be taken, the migration fails as if the first of them had.
+	 */
+	private void lockTablesIf(
+		boolean condition,
+		Statement statement,
+		Collection<MigrationStep> steps,
+		Function<SQLWriter, List<String>> sqlOf,
+		Map<Long, String> contractsById
+	) {
+		if (!condition || tableLockAcquisition == null || steps.isEmpty() && contractsById.isEmpty()) {
+			return;
+		}
+		final var sql = new ArrayList<String>();
+		for (final var step : steps) {
+			sql.addAll(sqlOf.apply(step.getWriter()));
+		}
+		sql.addAll(contractsById.values());
+		try {
+			tableLockAcquisition.acquire(statement, sql);
+		} catch (SQLException exception) {
+			final var id = steps.isEmpty() ? contractsById.keySet().iterator().next() : steps.iterator().next().getId();
+			throw new FailedToMigrateException(id, exception);
+		}
+	}
+
+	private void commitIf(boolean condition) throws SQLException {
+		if (condition) {
+			connection.commit();
+		}
+	}
+
+	/**
+	 * Runs the recorded contract SQL in the reverse of the dependency order (so that e.g. a dependent schema drops its
+	 * foreign key before its dependency drops the referenced column) and then clears it with compare-and-set semantics.
+	 * Contracts of schemas that are no longer in the manifests run first.
+	 */
+	private void executeContracts(
+		Statement statement,
+		TreeMap<Long, String> pendingContractsById,
+		Function<LongLongMap, List<ManifestEntry>> manifest
+	) throws SQLException {
+		final var unordered = new HashMap<Migration, Map.Entry<Long, String>>();
+		final var ordered = new ArrayList<Map.Entry<Long, String>>();
+		final var remaining = new TreeMap<>(pendingContractsById);
+		for (final var entry : manifest.apply(new LongLongMap())) {
+			final var sql = remaining.remove(entry.getId());
+			if (sql != null) {
+				unordered.put(entry.getMigration(), Map.entry(entry.getId(), sql));
+			}
+		}
+		ordered.addAll(remaining.entrySet());
+		final var inDependencyOrder = new ArrayList<>(getValuesInOrder(unordered));
+		reverse(inDependencyOrder);
+		ordered.addAll(inDependencyOrder);
+		for (final var contract : ordered) {
+			try {
+				statement.execute(contract.getValue());
+			} catch (SQLException exception) {
+				throw new FailedToMigrateException(contract.getKey(), exception);
+			}
+		}
+		try (final var clear = connection.prepareStatement(SQL_TO_CLEAR_CONTRACT_IF_UNCHANGED)) {
+			for (final var contract : ordered) {
+				clear.setLong(1, contract.getKey());
+				clear.setString(2, contract.getValue());
+				clear.addBatch();
+			}
+			final var updateCounts = clear.executeBatch();
+			for (var index = 0; index < updateCounts.length; index ++) {
+				if (updateCounts[index] == 0) {
+					throw new MigrationCollisionException(ordered.get(index).getKey());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the advisory lock of every schema that is about to be migrated in ascending order of
+	 * {@code @SchemaIdentifier}, so that migrations of disjoint sets of schemas can proceed concurrently.
+	 */
+	private static List<String> getAdvisoryLockKeysOf(Collection<SQLWriter> writers, Collection<Long> otherIds) {
+		final var ids = new TreeSet<>(otherIds);
+		for (final var writer : writers) {
+			ids.add(writer.getId());
+		}
+		final var keys = new ArrayList<String>(ids.size());
+		for (final var id : ids) {
+			keys.add(getAdvisoryLockKeyOf(id));
+		}
+		return keys;
+	}
+
+	private MigrationResult failToLock(MigrationRun run, Collection<String> keys, Collection<String> lockedKeys) throws SQLException {
+		if (lockMonitor != null) {
+			final var contestedKeys = new ArrayList<>(keys);
+			contestedKeys.removeAll(lockedKeys);
+			run.setLockDiagnostics(lockMonitor.diagnoseAdvisoryLocks(connection, contestedKeys));
+		}
+		return FAILED_TO_LOCK;
+	}
+
+	/**
+	 * Returns the old {@code lock_timeout} of the session (which is restored before unlocking) after setting it to
+	 * {@code lockTimeout}.
+	 */
+	private static String setLockTimeout(Statement statement, String lockTimeout) throws SQLException {
+		final var sql = "SELECT current_setting('lock_timeout'), set_config('lock_timeout', " + enquoteLiteral(lockTimeout) + ", false);";
+		try (final var results = statement.executeQuery(sql)) {
+			results.next();
+			return results.getString(1);
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the sessions holding locks on the relations of the migration that failed to take them, once
+	 * its transaction has been rolled back.
+	 */
+	private RuntimeException diagnoseLockTimeoutOf(
+		FailedToMigrateException failure,
+		List<MigrationStep> steps,
+		Map<Long, String> pendingContractsById
+	) {
+		final var sql = new ArrayList<String>();
+		for (final var step : steps) {
+			if (step.getId() == failure.getId()) {
+				final var writer = step.getWriter();
+				sql.add(writer.getPrologue());
+				sql.add(writer.getSql());
+				sql.add(writer.getRepeatable());
+				sql.add(writer.getEpilogue());
+				sql.add(writer.getContract());
+			}
+		}
+		final var contract = pendingContractsById.get(failure.getId());
+		if (contract != null) {
+			sql.add(contract);
+		}
+		final LockDiagnostics lockDiagnostics;
+		try {
+			lockDiagnostics = lockMonitor.diagnoseRelations(connection, sql);
+			connection.rollback();
+		} catch (SQLException exception) {
+			failure.addSuppressed(exception);
+			return failure;
+		}
+		return new LockTimeoutException(failure.getId(), (SQLException) failure.getCause(), lockDiagnostics);
+	}
+
+	/**
+	 * Tries to take every advisory lock in {@code keys} (in order) in the same round trip as {@code followingSql}, whose
+	 * results are left unread on the {@code statement}. Every lock that was taken is added to {@code lockedKeys}, even
+	 * when some of the others could not be.
+	 */
+	private boolean tryLock(Statement statement, List<String> keys, String followingSql, List<String> lockedKeys) throws SQLException {
+		statement.execute(sqlToTryLock(keys) + followingSql);
 		try (final var results = statement.getResultSet()) {
-			if (results.next() && results.getBoolean(1)) {
-				return false;
+			var locked = results.next();
+			var index = 1;
+			for (final var key : keys) {
+				if (locked && results.getBoolean(index ++)) {
+					lockedKeys.add(key);
+				} else {
+					locked = false;
+				}
 			}
+			return locked;
 		}
-		return true;
 	}
 
-	private HashMap<Long, Long> readCurrentChecksumsByIdFrom(Statement statement) throws SQLException {
-		final var currentChecksumsById = new HashMap<Long, Long>();
-		while (true) {
-			if (statement.getMoreResults()) {
-				try (final var results = statement.getResultSet()) {
-					while (results.next()) {
-						final var id = results.getLong(1);
-						final var currentChecksum = results.getLong(2);
-						currentChecksumsById.put(id, currentChecksum);
-					}
+	/**
+	 * Records the new checksums with compare-and-set semantics, so that a concurrent migration of the same schema
+	 * (e.g. by an instance using a different {@link LockStrategy}) is detected instead of silently overwritten.
+	 */
+	private void recordChecksumsOf(Collection<MigrationStep> steps) throws SQLException {
+		final var upserted = new ArrayList<SQLWriter>();
+		final var deleted = new ArrayList<SQLWriter>();
+		for (final var step : steps) {
+			final var writer = step.getWriter();
+			if (writer.getLatestChecksum() == EMPTY_CHECKSUM && writer.getContract().isEmpty()) {
+				deleted.add(writer);
+			} else {
+				upserted.add(writer);
+			}
+		}
+		if (!upserted.isEmpty()) {
+			try (final var statement = connection.prepareStatement(SQL_TO_UPSERT_SCHEMA_ROW_IF_UNCHANGED)) {
+				for (final var writer : upserted) {
+					statement.setLong(1, writer.getId());
+					statement.setLong(2, writer.getLatestChecksum());
+					statement.setString(3, writer.getGroup());
+					statement.setString(4, writer.getContract().isEmpty() ? null : writer.getContract());
+					statement.setLong(5, writer.getCurrentChecksum());
+					statement.addBatch();
 				}
-			} else if (statement.getUpdateCount() < 0) {
-				break;
+				verifyNoCollisionsIn(statement.executeBatch(), upserted);
+			}
+		}
+		if (!deleted.isEmpty()) {
+			try (final var statement = connection.prepareStatement(SQL_TO_DELETE_SCHEMA_ROW_IF_UNCHANGED)) {
+				for (final var writer : deleted) {
+					statement.setLong(1, writer.getId());
+					statement.setLong(2, writer.getCurrentChecksum());
+					statement.addBatch();
+				}
+				verifyNoCollisionsIn(statement.executeBatch(), deleted);
 			}
 		}
-		return currentChecksumsById;
 	}
 
-	private Collection<SQLWriter> createSqlWriters(Map<Long, Long> currentChecksums) {
-		final var lookup = MethodHandles.lookup();
-		final var classLoader = getSystemClassLoader();
+	private static void verifyNoCollisionsIn(int[] updateCounts, List<SQLWriter> writers) {
+		for (var index = 0; index < updateCounts.length; index ++) {
+			if (updateCounts[index] == 0) {
+				throw new MigrationCollisionException(writers.get(index).getId());
+			}
+		}
+	}
+
+	private void notifyChangesOf(
+		Collection<SQLWriter> writers,
+		Collection<Long> contractedIds,
+		LongLongMap currentChecksumsById
+	) throws SQLException {
+		final var checksumsById = new TreeMap<Long, Long>();
+		for (final var id : contractedIds) {
+			checksumsById.put(id, currentChecksumsById.get(id, EMPTY_CHECKSUM));
+		}
+		for (final var writer : writers) {
+			checksumsById.put(writer.getId(), writer.getLatestChecksum());
+		}
+		try (final var notify = connection.prepareStatement(SQL_TO_NOTIFY)) {
+			for (final var payload : SchemaChangePayloads.encode(checksumsById)) {
+				notify.setString(1, notificationChannel);
+				notify.setString(2, payload);
+				notify.executeQuery().close();
+			}
+		}
+	}
+
+	private void recordFailureOf(Collection<MigrationStep> steps, MigrationHistory history, Throwable exception) {
+		final var failedSteps = new ArrayList<MigrationStep>();
+		for (final var step : steps) {
+			if (step.isFailed()) {
+				failedSteps.add(step);
+			}
+		}
+		if (failedSteps.isEmpty()) {
+			return;
+		}
 		try {
-			final var canonicalClassNamesById = new HashMap<Long, String>();
-			final Map<Migration, SQLWriter> unordered = switch (executionDirection) {
-				case UNSTABLE -> new HashMap<>();
-				case FORWARD -> new TreeMap<>(MIGRATION_COMPARATOR);
-				case BACKWARD -> new TreeMap<>(MIGRATION_COMPARATOR.reversed());
-			};
-			for (final var extraMigration : extraMigrations) {
-				final var id = extraMigration.getId();
-				final var canonicalClassName = extraMigration.getClass().getCanonicalName();
-				canonicalClassNamesById.put(id, canonicalClassName);
-				final var latestChecksum = extraMigration.getLatestChecksum();
-				final var currentChecksum = currentChecksums.getOrDefault(id, EMPTY_CHECKSUM);
-				if (currentChecksum == latestChecksum) {
-					continue;
+			history.record(connection, failedSteps, FAILED);
+			connection.commit();
+		} catch (SQLException suppressed) {
+			exception.addSuppressed(suppressed);
+		}
+	}
+
+	/**
+	 * Checks (without taking any advisory lock or changing anything) whether every schema is at its latest checksum, so
+	 * that instances of an application can cheaply verify that a standalone migrator has already migrated the database.
+	 * Only the {@code "schema"} table is read, so a role without the {@code CREATE} privilege can check it, too. If the
+	 * table does not exist (or predates groups or contracts), the database is not up to date. Pending contracts are not
+	 * taken into account.
+	 */
+	public boolean isUpToDate() throws SQLException {
+		try (final var statement = connection.createStatement()) {
+			try (final var results = statement.executeQuery(SQL_TO_SELECT_WHETHER_TABLE_IS_CURRENT)) {
+				if (!results.next() || !results.getBoolean(1)) {
+					return false;
 				}
-				unordered.put(extraMigration, createSqlWriter(extraMigration, currentChecksum, latestChecksum));
 			}
-			final var resources = classLoader.getResources(group + ".migrannotate");
-			while (resources.hasMoreElements()) {
-				final var resource = resources.nextElement();
-				try (final var inputStream = resource.openStream()) {
-					try (final var dataInputStream = new DataInputStream(inputStream)) {
-						while (true) {
-							final var id = dataInputStream.readLong();
-							var latestChecksum = dataInputStream.readLong();
-							final var pathToClassFile = dataInputStream.readUTF();
-							final var canonicalClassName = pathToClassFile.replaceAll("/", ".");
-							final var conflictingCanonicalClassName = canonicalClassNamesById.put(id, canonicalClassName);
-							if (conflictingCanonicalClassName != null) {
-								throw new DuplicateSchemaIdentifierException(canonicalClassName, conflictingCanonicalClassName);
-							}
-							final var currentChecksum = currentChecksums.getOrDefault(id, EMPTY_CHECKSUM);
-							if (latestChecksum != UNKNOWN_AT_COMPILE_TIME && currentChecksum == latestChecksum) {
-								continue;
-							}
-							final byte[] classBytes;
-							try (final var classInputStream = classLoader.getResourceAsStream(pathToClassFile)) {
-								if (classInputStream == null) {
-									throw new MissingMigrationException(pathToClassFile);
-								}
-								classBytes = classInputStream.readAllBytes();
-							}
-							final var object = lookup
-								.defineHiddenClass(classBytes, true, NESTMATE)
-								.lookupClass()
-								.getConstructor()
-								.newInstance();
-							if (object instanceof final Migration migration) {
-								if (latestChecksum == UNKNOWN_AT_COMPILE_TIME) {
-									latestChecksum = migration.getLatestChecksum();
-								}
-								unordered.put(migration, createSqlWriter(migration, currentChecksum, latestChecksum));
-							} else {
-								throw new IllegalStateException();
-							}
+			final var currentChecksumsById = new LongLongMap();
+			try (final var results = statement.executeQuery(sqlToSelectSchemaRows)) {
+				readSchemaRowsFrom(results, currentChecksumsById, new TreeMap<>());
+			}
+			for (final var entry : readManifest(currentChecksumsById)) {
+				if (!entry.isUpToDate(currentChecksumsById.get(entry.getId(), EMPTY_CHECKSUM))) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Estimates the impact of everything that {@link #migrate()} would run without taking any lock or changing
+	 * anything. Like {@link #isUpToDate()}, it only reads the {@code "schema"} table (in a read-only transaction), which
+	 * may not exist yet or predate groups and contracts.
+	 */
+	public ImpactEstimate estimateImpact() throws SQLException {
+		final var oldAutoCommit = connection.getAutoCommit();
+		final var oldReadOnly = connection.isReadOnly();
+		connection.setReadOnly(true);
+		connection.setAutoCommit(false);
+		try (final var statement = connection.createStatement()) {
+			final var currentChecksumsById = new LongLongMap();
+			final var pendingContractsById = new TreeMap<Long, String>();
+			final String sqlToSelectRows;
+			try (final var results = statement.executeQuery(SQL_TO_SELECT_WHETHER_TABLE_EXISTS_AND_IS_CURRENT)) {
+				if (!results.next() || !results.getBoolean(1)) {
+					sqlToSelectRows = null;
+				} else {
+					sqlToSelectRows = results.getBoolean(2) ? sqlToSelectSchemaRows : SQL_TO_SELECT_LEGACY_SCHEMA_ROWS;
+				}
+			}
+			if (sqlToSelectRows != null) {
+				try (final var results = statement.executeQuery(sqlToSelectRows)) {
+					readSchemaRowsFrom(results, currentChecksumsById, pendingContractsById);
+				}
+			}
+			final var writers = createSqlWriters(currentChecksumsById);
+			return ImpactEstimator.estimate(connection, writers, true, pendingContractsById);
+		} finally {
+			connection.rollback();
+			connection.setAutoCommit(oldAutoCommit);
+			connection.setReadOnly(oldReadOnly);
+		}
+	}
+
+	public CatalogFingerprint fingerprint() throws SQLException {
+		try (final var statement = connection.createStatement()) {
+			return CatalogFingerprint.of(statement);
+		}
+	}
+
+	public List<String> findDrift(CatalogFingerprint reference) throws SQLException {
+		return fingerprint().findDriftFrom(reference);
+	}
+
+	/**
+	 * Fingerprints the catalog that every {@code @Schema} of the group creates in an empty scratch schema. The scratch
+	 * schema only lives in a transaction that is rolled back afterwards, even if autocommit was already disabled, so
+	 * anything else in that transaction is rolled back, too.
+	 */
+	public CatalogFingerprint fingerprintReference() throws SQLException {
+		final var oldAutoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		try (final var statement = connection.createStatement()) {
+			return fingerprintReference(statement, createSqlWriters(new LongLongMap()));
+		} finally {
+			connection.rollback();
+			connection.setAutoCommit(oldAutoCommit);
+		}
+	}
+
+	private CatalogFingerprint fingerprintReference(Statement statement, Collection<SQLWriter> writers) throws SQLException {
+		try {
+			statement.execute(SQL_TO_CREATE_REFERENCE_SCHEMA);
+			for (final var writer : writers) {
+				statement.execute(writer.getPrologue());
+			}
+			for (final var writer : writers) {
+				statement.execute(writer.getSql());
+				statement.execute(writer.getRepeatable());
+			}
+			for (final var writer : writers) {
+				statement.execute(writer.getEpilogue());
+			}
+			return CatalogFingerprint.of(statement);
+		} finally {
+			statement.execute(SQL_TO_DISCARD_REFERENCE_SCHEMA);
+		}
+	}
+
+	public MigrationResult baseline() throws SQLException {
+		return baselineAgainst(null);
+	}
+
+	public MigrationResult baseline(CatalogFingerprint reference) throws SQLException {
+		return baselineAgainst(reference);
+	}
+
+	private MigrationResult baselineAgainst(CatalogFingerprint reference) throws SQLException {
+		final var oldAutoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		try {
+			final var statement = connection.createStatement();
+			final var lockedKeys = new ArrayList<String>();
+			try {
+				if (!tryLock(statement, getAdvisoryLockKeys(), SQL_TO_CREATE_TABLE + sqlToSelectSchemaRows, lockedKeys)) {
+					return FAILED_TO_LOCK;
+				}
+				final var currentChecksumsById = readCurrentChecksumsByIdFrom(statement);
+				final var writers = createSqlWriters(new LongLongMap());
+				if (reference == null) {
+					reference = fingerprintReference(statement, writers);
+				}
+				final var drift = CatalogFingerprint.of(statement).findDriftFrom(reference);
+				if (!drift.isEmpty()) {
+					throw new CatalogDriftException(drift);
+				}
+				var upToDate = true;
+				try (final var upsert = connection.prepareStatement(SQL_TO_UPSERT_SCHEMA_ROW)) {
+					for (final var writer : writers) {
+						final var id = writer.getId();
+						final var latestChecksum = writer.getLatestChecksum();
+						if (currentChecksumsById.get(id, EMPTY_CHECKSUM) != latestChecksum) {
+							upsert.setLong(1, id);
+							upsert.setLong(2, latestChecksum);
+							upsert.setString(3, writer.getGroup());
+							upsert.addBatch();
+							upToDate = false;
 						}
-					} catch (EOFException exception) {
-						continue;
 					}
+					if (upToDate) {
+						return ALREADY_UP_TO_DATE;
+					}
+					upsert.executeBatch();
+				}
+				connection.commit();
+				return BASELINED;
+			} catch (SQLException exception) {
+				connection.rollback();
+				throw new FailedToBaselineException(exception);
+			} catch (Throwable exception) {
+				connection.rollback();
+				throw exception;
+			} finally {
+				try {
+					if (!lockedKeys.isEmpty()) {
+						statement.execute(sqlToUnlock(lockedKeys));
+					}
+				} finally {
+					statement.close();
+				}
+			}
+		} finally {
+			connection.setAutoCommit(oldAutoCommit);
+		}
+	}
+
+	private LongLongMap readCurrentChecksumsByIdFrom(Statement statement) throws SQLException {
+		final var currentChecksumsById = new LongLongMap();
+		readSchemaRowsFrom(statement, currentChecksumsById, new TreeMap<>());
+		return currentChecksumsById;
+	}
+
+	private void readSchemaRowsFrom(
+		Statement statement,
+		LongLongMap currentChecksumsById,
+		Map<Long, String> pendingContractsById
+	) throws SQLException {
+		while (true) {
+			if (statement.getMoreResults()) {
+				try (final var results = statement.getResultSet()) {
+					readSchemaRowsFrom(results, currentChecksumsById, pendingContractsById);
 				}
+			} else if (statement.getUpdateCount() < 0) {
+				break;
 			}
-			return getValuesInOrder(unordered);
-		} catch (IOException | ReflectiveOperationException exception) {
-			throw new RuntimeException(exception);
 		}
 	}
 
-	private SQLWriter createSqlWriter(Migration migration, long currentChecksum, long latestChecksum) {
-		final var id = migration.getId();
-		final var writer = new SQLWriter(id);
+	private void readSchemaRowsFrom(
+		ResultSet results,
+		LongLongMap currentChecksumsById,
+		Map<Long, String> pendingContractsById
+	) throws SQLException {
+		while (results.next()) {
+			final var id = results.getLong(1);
+			final var currentChecksum = results.getLong(2);
+			currentChecksumsById.put(id, currentChecksum);
+			final var pendingContract = results.getString(3);
+			if (pendingContract != null) {
+				pendingContractsById.put(id, pendingContract);
+			}
+		}
+	}
+
+	Collection<SQLWriter> createSqlWriters(LongLongMap currentChecksums) {
+		return createSqlWriters(currentChecksums, readManifest(currentChecksums));
+	}
+
+	private Collection<SQLWriter> createSqlWriters(LongLongMap currentChecksums, List<ManifestEntry> entries) {
+		if (!memoizePlans || !extraMigrations.isEmpty()) {
+			return renderPlan(currentChecksums, entries);
+		}
+		final var idsAndCurrentChecksums = new long[entries.size() * 2];
+		for (var index = 0; index < entries.size(); index ++) {
+			final var id = entries.get(index).getId();
+			idsAndCurrentChecksums[index * 2] = id;
+			idsAndCurrentChecksums[index * 2 + 1] = currentChecksums.get(id, EMPTY_CHECKSUM);
+		}
+		final var key = new MigrationRegistry.PlanKey(groups, executionDirection, idsAndCurrentChecksums);
+		return MigrationRegistry.getPlan(classLoader, key, () -> renderPlan(currentChecksums, entries));
+	}
+
+	private Collection<SQLWriter> renderPlan(LongLongMap currentChecksums, List<ManifestEntry> entries) {
+		final Map<Migration, SQLWriter> unordered = switch (executionDirection) {
+			case UNSTABLE -> new HashMap<>();
+			case FORWARD -> new TreeMap<>(MIGRATION_COMPARATOR);
+			case BACKWARD -> new TreeMap<>(MIGRATION_COMPARATOR.reversed());
+		};
+		for (final var entry : entries) {
+			final var currentChecksum = currentChecksums.get(entry.getId(), EMPTY_CHECKSUM);
+			if (entry.isUpToDate(currentChecksum)) {
+				continue;
+			}
+			final var migration = entry.getMigration();
+			final var writer = createSqlWriter(migration, currentChecksum, entry.getLatestChecksum(), entry.getGroup());
+			unordered.put(migration, writer);
+		}
+		return getValuesInOrder(unordered);
+	}
+
+	private List<ManifestEntry> readManifestAndDefineMigrations() {
+		final var entries = readManifest(new LongLongMap());
+		for (final var entry : entries) {
+			entry.getMigration();
+		}
+		return entries;
+	}
+
+	List<ManifestEntry> readManifest(LongLongMap currentChecksumsById) {
+		return new ManifestReader(groups, extraMigrations, classLoader).read(currentChecksumsById);
+	}
+
+	private SQLWriter createSqlWriter(Migration migration, long currentChecksum, long latestChecksum, String group) {
+		final var writer = new SQLWriter(migration.getId(), currentChecksum, latestChecksum, group);
 		migration.migrate(currentChecksum, writer);
-		if (currentChecksum == EMPTY_CHECKSUM) {
-			writer.append(SQL_TO_INSERT_SCHEMA_ROW.formatted(id, latestChecksum));
-		} else if (latestChecksum == EMPTY_CHECKSUM) {
-			writer.append(SQL_TO_DELETE_SCHEMA_ROW.formatted(id));
-		} else {
-			writer.append(SQL_TO_UPDATE_SCHEMA_ROW.formatted(latestChecksum, id));
+		if (currentChecksum != EMPTY_CHECKSUM) {
+			writer.coalesceAlterTables();
 		}
 		return writer;
 	}
 
-	private <X> Collection<X> getValuesInOrder(Map<Migration, X> unordered) {
+	static <X> Collection<X> getValuesInOrder(Map<Migration, X> unordered) {
 		final var ordered = new LinkedHashSet<X>();
 		while (true) {
 			final var iterator = unordered.entrySet().iterator();
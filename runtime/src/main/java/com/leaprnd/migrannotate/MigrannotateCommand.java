@@ -0,0 +1,283 @@
+package com.leaprnd.migrannotate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.ServiceLoader;
+import java.util.TreeSet;
+
+import static com.leaprnd.migrannotate.Migration.DEFAULT_GROUP;
+import static com.leaprnd.migrannotate.MigrationResult.FAILED_TO_LOCK;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Migrates a database once and exits, e.g. as a Kubernetes init container or job, so that instances of the application
+ * only have to check that the database {@linkplain Migrannotate#isUpToDate() is up to date}. The migrations (and the
+ * JDBC driver) are loaded from {@code --classpath}. The {@linkplain MigrationReport#toJson() report} is written to
+ * standard output (or to {@code --report}) and the exit status is one of the constants of this class.
+ */
+public final class MigrannotateCommand {
+
+	/**
+	 * The database was migrated, was already up to date or (with {@code --check}) is up to date.
+	 */
+	public static final int SUCCEEDED = 0;
+	/**
+	 * A migration failed and was rolled back.
+	 */
+	public static final int FAILED = 1;
+	/**
+	 * With {@code --check}, the database is not up to date.
+	 */
+	public static final int NOT_UP_TO_DATE = 3;
+	/**
+	 * The arguments are invalid.
+	 */
+	public static final int USAGE = 64;
+	/**
+	 * No connection to the database could be made.
+	 */
+	public static final int UNAVAILABLE = 69;
+	/**
+	 * Another migration holds the lock or a table could not be locked in time, so trying again later may succeed.
+	 */
+	public static final int TEMPORARY_FAILURE = 75;
+
+	static final String PASSWORD_VARIABLE = "MIGRANNOTATE_PASSWORD";
+
+	private static final String USAGE_TEXT = """
+		Usage: java com.leaprnd.migrannotate.MigrannotateCommand --url <jdbc-url> [options]
+		  --url <jdbc-url>             The database to migrate (the password is read from $MIGRANNOTATE_PASSWORD)
+		  --user <name>                The user to connect as
+		  --classpath <paths>          Where to load the migrations and the JDBC driver from
+		  --group <group>              A group to migrate (repeatable, defaults to "default")
+		  --phase <expand|contract>    Only run one half of a zero-downtime deployment
+		  --lock-strategy <strategy>   global, group or schema
+		  --commit-strategy <strategy> per-phase, per-migration or single-transaction
+		  --lock-timeout <millis>      Fail instead of waiting longer for a table lock
+		  --lock-tables <attempts>     Take the table locks up front with NOWAIT and retry
+		  --profile <statements>       Report the slowest statements
+		  --record-history             Record the migration in the "schemaHistory" table
+		  --notify <channel>           Notify the channel of every migrated schema
+		  --report <file>              Write the JSON report to the file instead of standard output
+		  --check                      Only check whether the database is up to date
+		""";
+
+	private String url = null;
+	private String user = null;
+	private String classpath = null;
+	private final TreeSet<String> groups = new TreeSet<>();
+	private Phase phase = null;
+	private LockStrategy lockStrategy = null;
+	private CommitStrategy commitStrategy = null;
+	private Duration lockTimeout = null;
+	private int lockTableAttempts = 0;
+	private int slowStatementsToReport = 0;
+	private boolean recordHistory = false;
+	private String notificationChannel = null;
+	private Path report = null;
+	private boolean check = false;
+
+	public static void main(String[] arguments) {
+		System.exit(run(arguments, System.out, System.err));
+	}
+
+	static int run(String[] arguments, PrintStream out, PrintStream err) {
+		final MigrannotateCommand command;
+		try {
+			command = parse(arguments);
+		} catch (IllegalArgumentException exception) {
+			err.println(exception.getMessage());
+			err.print(USAGE_TEXT);
+			return USAGE;
+		}
+		final ClassLoader classLoader;
+		try {
+			classLoader = command.createClassLoader();
+		} catch (MalformedURLException exception) {
+			err.println(exception.getMessage());
+			return USAGE;
+		}
+		try (final var connection = command.connect(classLoader)) {
+			return command.execute(connection, classLoader, out, err);
+		} catch (SQLException exception) {
+			err.println("Failed to connect to " + command.url + ": " + exception.getMessage());
+			return UNAVAILABLE;
+		}
+	}
+
+	static MigrannotateCommand parse(String[] arguments) {
+		final var command = new MigrannotateCommand();
+		for (var index = 0; index < arguments.length; index ++) {
+			final var option = arguments[index];
+			switch (option) {
+				case "--record-history" -> command.recordHistory = true;
+				case "--check" -> command.check = true;
+				default -> {
+					if (index + 1 == arguments.length) {
+						throw new IllegalArgumentException(option + " requires a value!");
+					}
+					final var value = arguments[++ index];
+					switch (option) {
+						case "--url" -> command.url = value;
+						case "--user" -> command.user = value;
+						case "--classpath" -> command.classpath = value;
+						case "--group" -> command.groups.add(value);
+						case "--phase" -> command.phase = parseEnum(Phase.class, option, value);
+						case "--lock-strategy" -> command.lockStrategy = parseEnum(LockStrategy.class, option, value);
+						case "--commit-strategy" -> command.commitStrategy = parseEnum(CommitStrategy.class, option, value);
+						case "--lock-timeout" -> command.lockTimeout = Duration.ofMillis(parsePositiveInt(option, value));
+						case "--lock-tables" -> command.lockTableAttempts = parsePositiveInt(option, value);
+						case "--profile" -> command.slowStatementsToReport = parsePositiveInt(option, value);
+						case "--notify" -> command.notificationChannel = value;
+						case "--report" -> command.report = Path.of(value);
+						default -> throw new IllegalArgumentException("Unknown option " + option + "!");
+					}
+				}
+			}
+		}
+		if (command.url == null) {
+			throw new IllegalArgumentException("--url is required!");
+		}
+		if (command.groups.isEmpty()) {
+			command.groups.add(DEFAULT_GROUP);
+		}
+		return command;
+	}
+
+	private static <E extends Enum<E>> E parseEnum(Class<E> type, String option, String value) {
+		try {
+			return Enum.valueOf(type, value.toUpperCase(Locale.ROOT).replace('-', '_'));
+		} catch (IllegalArgumentException exception) {
+			throw new IllegalArgumentException("Invalid value of " + option + ": " + value + "!");
+		}
+	}
+
+	private static int parsePositiveInt(String option, String value) {
+		try {
+			final var parsed = Integer.parseInt(value);
+			if (parsed > 0) {
+				return parsed;
+			}
+		} catch (NumberFormatException ignored) {}
+		throw new IllegalArgumentException("Invalid value of " + option + ": " + value + "!");
+	}
+
+	ClassLoader createClassLoader() throws MalformedURLException {
+		final var parent = MigrannotateCommand.class.getClassLoader();
+		if (classpath == null || classpath.isEmpty()) {
+			return parent;
+		}
+		final var urls = new ArrayList<URL>();
+		for (final var path : classpath.split(File.pathSeparator)) {
+			if (!path.isEmpty()) {
+				urls.add(Path.of(path).toUri().toURL());
+			}
+		}
+		return new URLClassLoader(urls.toArray(new URL[0]), parent);
+	}
+
+	/**
+	 * Connects with the first JDBC driver (visible to the {@code classLoader}) accepting the URL. The
+	 * {@link java.sql.DriverManager} cannot be used because it ignores drivers that the caller's class loader cannot see.
+	 */
+	Connection connect(ClassLoader classLoader) throws SQLException {
+		final var properties = new Properties();
+		if (user != null) {
+			properties.setProperty("user", user);
+		}
+		final var password = System.getenv(PASSWORD_VARIABLE);
+		if (password != null) {
+			properties.setProperty("password", password);
+		}
+		for (final var driver : ServiceLoader.load(Driver.class, classLoader)) {
+			if (driver.acceptsURL(url)) {
+				final var connection = driver.connect(url, properties);
+				if (connection != null) {
+					return connection;
+				}
+			}
+		}
+		throw new SQLException("No JDBC driver accepts the URL!", "08001");
+	}
+
+	int execute(Connection connection, ClassLoader classLoader, PrintStream out, PrintStream err) {
+		final var lockMonitor = new LockMonitor().setWaitThreshold(lockTimeout);
+		final var migrannotate = new Migrannotate(groups, connection).setClassLoader(classLoader).setLockMonitor(lockMonitor);
+		if (lockStrategy != null) {
+			migrannotate.setLockStrategy(lockStrategy);
+		}
+		if (commitStrategy != null) {
+			migrannotate.setCommitStrategy(commitStrategy);
+		}
+		if (lockTableAttempts > 0) {
+			migrannotate.setTableLockAcquisition(new TableLockAcquisition().setAttempts(lockTableAttempts));
+		}
+		if (slowStatementsToReport > 0) {
+			migrannotate.profileStatements(slowStatementsToReport);
+		}
+		if (recordHistory) {
+			migrannotate.recordHistory();
+		}
+		if (notificationChannel != null) {
+			migrannotate.notifyOn(notificationChannel);
+		}
+		try {
+			if (check) {
+				final var upToDate = migrannotate.isUpToDate();
+				return writeReport("{\"upToDate\":" + upToDate + '}', out, err, upToDate ? SUCCEEDED : NOT_UP_TO_DATE);
+			}
+			final var result = phase == null ? migrannotate.migrate() : migrannotate.migrate(phase);
+			final var status = result == FAILED_TO_LOCK ? TEMPORARY_FAILURE : SUCCEEDED;
+			return writeReport(migrannotate.getLastReport().toJson(), out, err, status);
+		} catch (LockTimeoutException exception) {
+			exception.printStackTrace(err);
+			return writeReport(toJson(exception, exception.getDiagnostics()), out, err, TEMPORARY_FAILURE);
+		} catch (SQLException | RuntimeException exception) {
+			exception.printStackTrace(err);
+			return writeReport(toJson(exception, null), out, err, FAILED);
+		}
+	}
+
+	private static String toJson(Exception exception, LockDiagnostics lockDiagnostics) {
+		final var json = new StringBuilder("{\"result\":\"FAILED\",\"exception\":");
+		MigrationReport.appendJsonString(json, exception.getClass().getName());
+		json.append(",\"message\":");
+		MigrationReport.appendJsonString(json, exception.getMessage());
+		if (lockDiagnostics != null) {
+			json.append(",\"lockDiagnostics\":");
+			MigrationReport.appendJson(json, lockDiagnostics);
+		}
+		return json.append('}').toString();
+	}
+
+	private int writeReport(String json, PrintStream out, PrintStream err, int status) {
+		if (report == null) {
+			out.println(json);
+			return status;
+		}
+		try {
+			Files.writeString(report, json + '\n', UTF_8);
+			return status;
+		} catch (IOException exception) {
+			err.println("Failed to write the report to " + report + ": " + exception.getMessage());
+			out.println(json);
+			return status;
+		}
+	}
+
+	private MigrannotateCommand() {}
+
+}
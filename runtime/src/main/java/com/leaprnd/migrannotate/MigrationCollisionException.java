@@ -1,5 +1,22 @@
 package com.leaprnd.migrannotate;
 
+import static java.lang.String.format;
+
 public class MigrationCollisionException extends RuntimeException {
 
+	private final long id;
+
+	public MigrationCollisionException(long id) {
+		this.id = id;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	@Override
+	public String getMessage() {
+		return format("@SchemaIdentifier(%dL) was concurrently migrated by someone else", id);
+	}
+
 }
@@ -0,0 +1,61 @@
+package com.leaprnd.migrannotate;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Lets components that depend on the database wait for a migration started with
+ * {@link Migrannotate#migrateAsync(java.util.concurrent.Executor)} while everything else initializes concurrently.
+ */
+public final class MigrationGate {
+
+	private final CompletableFuture<MigrationResult> future;
+
+	public MigrationGate(CompletableFuture<MigrationResult> future) {
+		this.future = future;
+	}
+
+	public boolean isOpen() {
+		return future.isDone() && !future.isCompletedExceptionally();
+	}
+
+	public MigrationResult await() throws InterruptedException, SQLException {
+		try {
+			return future.get();
+		} catch (ExecutionException exception) {
+			throw unwrap(exception);
+		}
+	}
+
+	public MigrationResult await(Duration timeout) throws InterruptedException, SQLException, TimeoutException {
+		try {
+			return future.get(timeout.toNanos(), NANOSECONDS);
+		} catch (ExecutionException exception) {
+			throw unwrap(exception);
+		}
+	}
+
+	public CompletableFuture<MigrationResult> toCompletableFuture() {
+		return future;
+	}
+
+	private static SQLException unwrap(ExecutionException exception) {
+		final var cause = exception.getCause();
+		if (cause instanceof final SQLException sqlException) {
+			return sqlException;
+		}
+		if (cause instanceof final RuntimeException runtimeException) {
+			throw runtimeException;
+		}
+		if (cause instanceof final Error error) {
+			throw error;
+		}
+		throw new IllegalStateException(cause);
+	}
+
+}
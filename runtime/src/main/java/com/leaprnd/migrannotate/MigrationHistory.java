@@ -0,0 +1,85 @@
+package com.leaprnd.migrannotate;
+
+import org.intellij.lang.annotations.Language;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.UUID;
+
+import static java.lang.management.ManagementFactory.getRuntimeMXBean;
+import static java.util.UUID.randomUUID;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+final class MigrationHistory {
+
+	static final String SUCCEEDED = "SUCCEEDED";
+	static final String FAILED = "FAILED";
+
+	@Language("SQL")
+	private static final String SQL_TO_CREATE_TABLE = """
+		CREATE TABLE IF NOT EXISTS "schemaHistory" (
+			"run" UUID NOT NULL,
+			"id" BIGINT NOT NULL,
+			"fromChecksum" BIGINT NOT NULL,
+			"toChecksum" BIGINT NOT NULL,
+			"executedAt" TIMESTAMPTZ NOT NULL DEFAULT NOW(),
+			"prologueMicroseconds" BIGINT NOT NULL,
+			"sqlMicroseconds" BIGINT NOT NULL,
+			"epilogueMicroseconds" BIGINT NOT NULL,
+			"sqlBytes" INTEGER NOT NULL,
+			"jvm" VARCHAR NOT NULL,
+			"outcome" VARCHAR NOT NULL,
+			CONSTRAINT "pkSchemaHistory" PRIMARY KEY ("run", "id")
+		);
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_INSERT_ROW = """
+		INSERT INTO "schemaHistory" (
+			"run",
+			"id",
+			"fromChecksum",
+			"toChecksum",
+			"prologueMicroseconds",
+			"sqlMicroseconds",
+			"epilogueMicroseconds",
+			"sqlBytes",
+			"jvm",
+			"outcome"
+		) VALUES (
+			?, ?, ?, ?, ?, ?, ?, ?, ?, ?
+		);
+		""";
+
+	private final UUID run = randomUUID();
+	private final String jvm = getRuntimeMXBean().getName();
+
+	/**
+	 * Appends one row per step, so every step must only be recorded once per run. This does not commit, so that the rows
+	 * become visible in the same transaction as the epilogues of their steps.
+	 */
+	void record(Connection connection, Collection<MigrationStep> steps, String outcome) throws SQLException {
+		try (final var statement = connection.createStatement()) {
+			statement.execute(SQL_TO_CREATE_TABLE);
+		}
+		try (final var statement = connection.prepareStatement(SQL_TO_INSERT_ROW)) {
+			for (final var step : steps) {
+				final var writer = step.getWriter();
+				statement.setObject(1, run);
+				statement.setLong(2, writer.getId());
+				statement.setLong(3, writer.getCurrentChecksum());
+				statement.setLong(4, writer.getLatestChecksum());
+				statement.setLong(5, NANOSECONDS.toMicros(step.getPrologueNanos()));
+				statement.setLong(6, NANOSECONDS.toMicros(step.getSqlNanos()));
+				statement.setLong(7, NANOSECONDS.toMicros(step.getEpilogueNanos()));
+				statement.setInt(8, step.getSqlBytes());
+				statement.setString(9, jvm);
+				statement.setString(10, outcome);
+				statement.addBatch();
+			}
+			statement.executeBatch();
+		}
+	}
+
+}
@@ -0,0 +1,212 @@
+package com.leaprnd.migrannotate;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static java.lang.invoke.MethodHandles.Lookup.ClassOption.NESTMATE;
+
+/**
+ * A process-wide cache of the parsed manifests, defined migrations and (if {@linkplain Migrannotate#memoizePlans()
+ * asked}) rendered plans of every class loader, so that migrating thousands of databases in a row only pays for
+ * scanning the class path and defining the hidden classes once. Class loaders are weakly held and nothing that is
+ * cached refers back to them, so a class loader (and its cache) can still be collected.
+ */
+final class MigrationRegistry {
+
+	private static final int MANIFEST_ENTRY_HEADER_LENGTH = Long.BYTES * 2;
+	private static final int MAXIMUM_PLANS_PER_CLASS_LOADER = 64;
+	private static final Map<ClassLoader, Entries> ENTRIES_BY_CLASS_LOADER = new WeakHashMap<>();
+
+	private static Entries getEntriesOf(ClassLoader classLoader) {
+		synchronized (ENTRIES_BY_CLASS_LOADER) {
+			return ENTRIES_BY_CLASS_LOADER.computeIfAbsent(classLoader, ignored -> new Entries());
+		}
+	}
+
+	static Manifest getManifest(ClassLoader classLoader, String group) {
+		return getEntriesOf(classLoader).manifestsByGroup.computeIfAbsent(group, ignored -> readManifest(classLoader, group));
+	}
+
+	static Migration getMigration(ClassLoader classLoader, String pathToClassFile) {
+		return getEntriesOf(classLoader).migrationsByPath.computeIfAbsent(
+			pathToClassFile,
+			ignored -> defineMigration(classLoader, pathToClassFile)
+		);
+	}
+
+	static Collection<SQLWriter> getPlan(ClassLoader classLoader, PlanKey key, Supplier<Collection<SQLWriter>> planner) {
+		final var plans = getEntriesOf(classLoader).plansByKey;
+		synchronized (plans) {
+			final var plan = plans.get(key);
+			if (plan != null) {
+				return plan;
+			}
+		}
+		final var plan = Collections.unmodifiableCollection(planner.get());
+		synchronized (plans) {
+			plans.put(key, plan);
+		}
+		return plan;
+	}
+
+	/**
+	 * Reads the identifier, latest checksum and path of every entry of every manifest of the {@code group}.
+	 */
+	private static Manifest readManifest(ClassLoader classLoader, String group) {
+		try {
+			var ids = new long[16];
+			var latestChecksums = new long[16];
+			var paths = new String[16];
+			var size = 0;
+			final var header = ByteBuffer.allocate(MANIFEST_ENTRY_HEADER_LENGTH);
+			final var resources = classLoader.getResources(group + ".migrannotate");
+			while (resources.hasMoreElements()) {
+				final var resource = resources.nextElement();
+				try (final var inputStream = new DataInputStream(resource.openStream())) {
+					while (inputStream.readNBytes(header.array(), 0, MANIFEST_ENTRY_HEADER_LENGTH) == MANIFEST_ENTRY_HEADER_LENGTH) {
+						if (size == ids.length) {
+							ids = Arrays.copyOf(ids, size * 2);
+							latestChecksums = Arrays.copyOf(latestChecksums, size * 2);
+							paths = Arrays.copyOf(paths, size * 2);
+						}
+						ids[size] = header.getLong(0);
+						latestChecksums[size] = header.getLong(Long.BYTES);
+						paths[size] = inputStream.readUTF();
+						size ++;
+					}
+				}
+			}
+			return new Manifest(Arrays.copyOf(ids, size), Arrays.copyOf(latestChecksums, size), Arrays.copyOf(paths, size));
+		} catch (IOException exception) {
+			throw new RuntimeException(exception);
+		}
+	}
+
+	/**
+	 * Defines the migration class as a hidden class if the {@code classLoader} is the one that loaded Migrannotate.
+	 * Otherwise (e.g. for the {@code --classpath} of {@link MigrannotateCommand}), a hidden class would be defined in
+	 * the wrong class loader and could not see the other classes of the {@code classLoader}, so the class is loaded by
+	 * the {@code classLoader} itself.
+	 */
+	private static Migration defineMigration(ClassLoader classLoader, String pathToClassFile) {
+		try {
+			final Class<?> migrationClass;
+			if (classLoader == MigrationRegistry.class.getClassLoader()) {
+				final byte[] classBytes;
+				try (final var classInputStream = classLoader.getResourceAsStream(pathToClassFile)) {
+					if (classInputStream == null) {
+						throw new MissingMigrationException(pathToClassFile);
+					}
+					classBytes = classInputStream.readAllBytes();
+				}
+				migrationClass = MethodHandles.lookup().defineHiddenClass(classBytes, true, NESTMATE).lookupClass();
+			} else {
+				if (classLoader.getResource(pathToClassFile) == null) {
+					throw new MissingMigrationException(pathToClassFile);
+				}
+				final var className = pathToClassFile.substring(0, pathToClassFile.length() - ".class".length()).replace('/', '.');
+				migrationClass = Class.forName(className, true, classLoader);
+			}
+			final var object = migrationClass.getConstructor().newInstance();
+			if (object instanceof final Migration migration) {
+				return migration;
+			}
+			throw new IllegalStateException();
+		} catch (IOException | ReflectiveOperationException exception) {
+			throw new RuntimeException(exception);
+		}
+	}
+
+	private static final class Entries {
+
+		private final ConcurrentHashMap<String, Manifest> manifestsByGroup = new ConcurrentHashMap<>();
+		private final ConcurrentHashMap<String, Migration> migrationsByPath = new ConcurrentHashMap<>();
+		private final LinkedHashMap<PlanKey, Collection<SQLWriter>> plansByKey = new LinkedHashMap<>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<PlanKey, Collection<SQLWriter>> eldest) {
+				return size() > MAXIMUM_PLANS_PER_CLASS_LOADER;
+			}
+
+		};
+
+	}
+
+	static final class Manifest {
+
+		private final long[] ids;
+		private final long[] latestChecksums;
+		private final String[] paths;
+
+		private Manifest(long[] ids, long[] latestChecksums, String[] paths) {
+			this.ids = ids;
+			this.latestChecksums = latestChecksums;
+			this.paths = paths;
+		}
+
+		int size() {
+			return ids.length;
+		}
+
+		long getId(int index) {
+			return ids[index];
+		}
+
+		long getLatestChecksum(int index) {
+			return latestChecksums[index];
+		}
+
+		String getPath(int index) {
+			return paths[index];
+		}
+
+	}
+
+	/**
+	 * Identifies a plan by everything that it depends on: the groups, the execution direction and the identifier and
+	 * current checksum of every schema that is out of date.
+	 */
+	static final class PlanKey {
+
+		private final Set<String> groups;
+		private final ExecutionDirection executionDirection;
+		private final long[] idsAndCurrentChecksums;
+		private final int hashCode;
+
+		PlanKey(Set<String> groups, ExecutionDirection executionDirection, long[] idsAndCurrentChecksums) {
+			this.groups = groups;
+			this.executionDirection = executionDirection;
+			this.idsAndCurrentChecksums = idsAndCurrentChecksums;
+			this.hashCode = 31 * (31 * groups.hashCode() + executionDirection.hashCode()) + Arrays.hashCode(idsAndCurrentChecksums);
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			return object instanceof final PlanKey other &&
+				hashCode == other.hashCode &&
+				executionDirection == other.executionDirection &&
+				groups.equals(other.groups) &&
+				Arrays.equals(idsAndCurrentChecksums, other.idsAndCurrentChecksums);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+	}
+
+	private MigrationRegistry() {}
+
+}
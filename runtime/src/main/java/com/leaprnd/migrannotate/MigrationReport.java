@@ -0,0 +1,185 @@
+package com.leaprnd.migrannotate;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+
+import static java.lang.String.format;
+
+/**
+ * Describes the most recent run of {@link Migrannotate#migrate()} beyond its {@link MigrationResult}.
+ */
+public final class MigrationReport {
+
+	private final MigrationResult result;
+	private final int throttles;
+	private final Duration throttleTime;
+	private final List<StatementTiming> slowestStatements;
+	private final MaintenanceReport maintenance;
+	private final LockDiagnostics lockDiagnostics;
+
+	MigrationReport(
+		MigrationResult result,
+		int throttles,
+		Duration throttleTime,
+		List<StatementTiming> slowestStatements,
+		MaintenanceReport maintenance,
+		LockDiagnostics lockDiagnostics
+	) {
+		this.result = result;
+		this.throttles = throttles;
+		this.throttleTime = throttleTime;
+		this.slowestStatements = slowestStatements;
+		this.maintenance = maintenance;
+		this.lockDiagnostics = lockDiagnostics;
+	}
+
+	public MigrationResult getResult() {
+		return result;
+	}
+
+	/**
+	 * Returns how many times the migration paused because the replicas were lagging behind.
+	 */
+	public int getThrottles() {
+		return throttles;
+	}
+
+	public Duration getThrottleTime() {
+		return throttleTime;
+	}
+
+	/**
+	 * Returns the slowest statements (starting with the slowest one) if {@link Migrannotate#profileStatements(int)} is
+	 * enabled.
+	 */
+	public List<StatementTiming> getSlowestStatements() {
+		return slowestStatements;
+	}
+
+	/**
+	 * Returns what the {@link MaintenanceStage} did, or {@code null} if it did not run.
+	 */
+	public MaintenanceReport getMaintenance() {
+		return maintenance;
+	}
+
+	/**
+	 * Returns who held the locks that the migration could not take if it {@linkplain MigrationResult#FAILED_TO_LOCK
+	 * failed to lock} and a {@link LockMonitor} is set, or {@code null}.
+	 */
+	public LockDiagnostics getLockDiagnostics() {
+		return lockDiagnostics;
+	}
+
+	public String toJson() {
+		final var json = new StringBuilder();
+		json.append("{\"result\":\"").append(result).append('"');
+		json.append(",\"throttles\":").append(throttles);
+		json.append(",\"throttleTimeMillis\":").append(throttleTime.toMillis());
+		json.append(",\"slowestStatements\":[");
+		for (var index = 0; index < slowestStatements.size(); index ++) {
+			final var timing = slowestStatements.get(index);
+			if (index > 0) {
+				json.append(',');
+			}
+			json.append("{\"id\":").append(timing.getId());
+			json.append(",\"source\":");
+			appendJsonString(json, timing.getSource());
+			json.append(",\"index\":").append(timing.getIndex());
+			json.append(",\"durationMillis\":").append(timing.getDuration().toNanos() / 1e6);
+			json.append(",\"statement\":");
+			appendJsonString(json, timing.getStatement());
+			json.append('}');
+		}
+		json.append(']');
+		if (maintenance != null) {
+			json.append(",\"maintenance\":{\"analyzedRelations\":");
+			appendJsonStrings(json, maintenance.getAnalyzedRelations());
+			json.append(",\"vacuumRecommendations\":");
+			appendJsonStrings(json, maintenance.getVacuumRecommendations());
+			json.append(",\"prewarmedRelations\":");
+			appendJsonStrings(json, maintenance.getPrewarmedBlocksByRelation().keySet());
+			json.append(",\"durationMillis\":").append(maintenance.getDuration().toNanos() / 1e6);
+			json.append(",\"failure\":");
+			appendJsonString(json, maintenance.getFailure() == null ? null : maintenance.getFailure().getMessage());
+			json.append('}');
+		}
+		if (lockDiagnostics != null) {
+			json.append(",\"lockDiagnostics\":");
+			appendJson(json, lockDiagnostics);
+		}
+		return json.append('}').toString();
+	}
+
+	static void appendJson(StringBuilder json, LockDiagnostics lockDiagnostics) {
+		json.append("{\"blockers\":[");
+		final var blockers = lockDiagnostics.getBlockers();
+		for (var index = 0; index < blockers.size(); index ++) {
+			final var blocker = blockers.get(index);
+			if (index > 0) {
+				json.append(',');
+			}
+			json.append("{\"pid\":").append(blocker.getPid());
+			json.append(",\"applicationName\":");
+			appendJsonString(json, blocker.getApplicationName());
+			json.append(",\"state\":");
+			appendJsonString(json, blocker.getState());
+			json.append(",\"lockMode\":");
+			appendJsonString(json, blocker.getLockMode());
+			json.append(",\"lockedObject\":");
+			appendJsonString(json, blocker.getLockedObject());
+			json.append(",\"transactionMillis\":").append(blocker.getTransactionDuration().toMillis());
+			json.append(",\"action\":\"").append(blocker.getAction()).append('"');
+			json.append(",\"query\":");
+			appendJsonString(json, blocker.getQuery());
+			json.append('}');
+		}
+		json.append("]}");
+	}
+
+	private static void appendJsonStrings(StringBuilder json, Collection<String> values) {
+		json.append('[');
+		var first = true;
+		for (final var value : values) {
+			if (!first) {
+				json.append(',');
+			}
+			appendJsonString(json, value);
+			first = false;
+		}
+		json.append(']');
+	}
+
+	static void appendJsonString(StringBuilder json, String value) {
+		if (value == null) {
+			json.append("null");
+			return;
+		}
+		json.append('"');
+		for (var index = 0; index < value.length(); index ++) {
+			final var character = value.charAt(index);
+			switch (character) {
+				case '"' -> json.append("\\\"");
+				case '\\' -> json.append("\\\\");
+				case '\n' -> json.append("\\n");
+				case '\r' -> json.append("\\r");
+				case '\t' -> json.append("\\t");
+				default -> {
+					if (character < 0x20) {
+						json.append(format("\\u%04x", (int) character));
+					} else {
+						json.append(character);
+					}
+				}
+			}
+		}
+		json.append('"');
+	}
+
+	@Override
+	public String toString() {
+		return format("%s (throttled %d times for %d ms)", result, throttles, throttleTime.toMillis());
+	}
+
+}
@@ -3,5 +3,6 @@ package com.leaprnd.migrannotate;
 public enum MigrationResult {
 	ALREADY_UP_TO_DATE,
 	MIGRATED,
+	BASELINED,
 	FAILED_TO_LOCK
 }
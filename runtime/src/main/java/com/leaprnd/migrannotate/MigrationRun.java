@@ -0,0 +1,53 @@
+package com.leaprnd.migrannotate;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * What a single call to {@link Migrannotate#migrate()} has gathered for its {@link MigrationReport}, so that
+ * concurrent calls (e.g. through {@link Migrannotate#migrateAsync}) do not share it.
+ */
+final class MigrationRun {
+
+	private final StatementProfiler profiler;
+	private int throttles;
+	private long throttledNanos;
+	private MaintenanceReport maintenanceReport;
+	private LockDiagnostics lockDiagnostics;
+
+	MigrationRun(int slowStatementsToReport) {
+		profiler = slowStatementsToReport > 0 ? new StatementProfiler(slowStatementsToReport) : null;
+	}
+
+	StatementProfiler getProfiler() {
+		return profiler;
+	}
+
+	void throttled(long nanos) {
+		if (nanos > 0) {
+			throttles ++;
+			throttledNanos += nanos;
+		}
+	}
+
+	void setMaintenanceReport(MaintenanceReport maintenanceReport) {
+		this.maintenanceReport = maintenanceReport;
+	}
+
+	void setLockDiagnostics(LockDiagnostics lockDiagnostics) {
+		this.lockDiagnostics = lockDiagnostics;
+	}
+
+	MigrationReport toReport(MigrationResult result) {
+		final var slowestStatements = profiler == null ? List.<StatementTiming>of() : profiler.getSlowestStatements();
+		return new MigrationReport(
+			result,
+			throttles,
+			Duration.ofNanos(throttledNanos),
+			slowestStatements,
+			maintenanceReport,
+			lockDiagnostics
+		);
+	}
+
+}
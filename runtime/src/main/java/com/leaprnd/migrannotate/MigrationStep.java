@@ -0,0 +1,112 @@
+package com.leaprnd.migrannotate;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static java.lang.System.nanoTime;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+final class MigrationStep {
+
+	private final SQLWriter writer;
+	private final int sqlBytes;
+	private long prologueNanos;
+	private long sqlNanos;
+	private long epilogueNanos;
+	private boolean failed;
+
+	MigrationStep(SQLWriter writer) {
+		this.writer = writer;
+		this.sqlBytes = getByteLengthOf(writer.getPrologue()) +
+			getByteLengthOf(writer.getSql()) +
+			getByteLengthOf(writer.getRepeatable()) +
+			getByteLengthOf(writer.getEpilogue());
+	}
+
+	private static int getByteLengthOf(String sql) {
+		return sql.getBytes(UTF_8).length;
+	}
+
+	SQLWriter getWriter() {
+		return writer;
+	}
+
+	long getId() {
+		return writer.getId();
+	}
+
+	int getSqlBytes() {
+		return sqlBytes;
+	}
+
+	long getPrologueNanos() {
+		return prologueNanos;
+	}
+
+	long getSqlNanos() {
+		return sqlNanos;
+	}
+
+	long getEpilogueNanos() {
+		return epilogueNanos;
+	}
+
+	boolean isFailed() {
+		return failed;
+	}
+
+	void executePrologue(Statement statement) {
+		final var start = nanoTime();
+		try {
+			execute(statement, writer.getPrologue());
+		} finally {
+			prologueNanos = nanoTime() - start;
+		}
+	}
+
+	void executeSql(Statement statement, StatementProfiler profiler) {
+		final var start = nanoTime();
+		try {
+			if (profiler == null) {
+				execute(statement, writer.getSql());
+			} else {
+				try {
+					profiler.execute(statement, writer);
+				} catch (SQLException exception) {
+					failed = true;
+					throw new FailedToMigrateException(writer.getId(), exception);
+				}
+			}
+			final var repeatable = writer.getRepeatable();
+			if (!repeatable.isEmpty()) {
+				try {
+					RepeatableObjects.execute(statement, repeatable);
+				} catch (SQLException exception) {
+					failed = true;
+					throw new FailedToMigrateException(writer.getId(), exception);
+				}
+			}
+		} finally {
+			sqlNanos = nanoTime() - start;
+		}
+	}
+
+	void executeEpilogue(Statement statement) {
+		final var start = nanoTime();
+		try {
+			execute(statement, writer.getEpilogue());
+		} finally {
+			epilogueNanos = nanoTime() - start;
+		}
+	}
+
+	private void execute(Statement statement, String sql) {
+		try {
+			statement.execute(sql);
+		} catch (SQLException exception) {
+			failed = true;
+			throw new FailedToMigrateException(writer.getId(), exception);
+		}
+	}
+
+}
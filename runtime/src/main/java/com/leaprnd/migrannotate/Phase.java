@@ -0,0 +1,6 @@
+package com.leaprnd.migrannotate;
+
+public enum Phase {
+	EXPAND,
+	CONTRACT;
+}
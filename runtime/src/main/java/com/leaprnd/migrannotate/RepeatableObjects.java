@@ -0,0 +1,161 @@
+package com.leaprnd.migrannotate;
+
+import org.intellij.lang.annotations.Language;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.leaprnd.migrannotate.ImpactEstimator.RELATION;
+import static com.leaprnd.migrannotate.Migration.enquoteLiteral;
+import static java.util.regex.Pattern.CASE_INSENSITIVE;
+
+/**
+ * Runs the {@link SQLWriter#getRepeatable() repeatable} SQL of a migration one statement at a time. Before a
+ * {@code CREATE OR REPLACE FUNCTION}, {@code PROCEDURE}, {@code VIEW} or {@code TRIGGER} runs, the same statement
+ * creates a probe in {@code pg_temp} (a trigger is created on a temporary copy of its table) within a savepoint that
+ * is rolled back right away. If the definition of the probe (as reported by {@code PG_GET_FUNCTIONDEF},
+ * {@code PG_GET_VIEWDEF} or {@code PG_GET_TRIGGERDEF}) equals the live one, the statement is skipped, so that identical
+ * objects neither invalidate the cached plans of every backend nor wait for a lock on the object (or, for a trigger,
+ * its table). If the probe cannot be created (e.g. for an {@code INSTEAD OF} trigger or without the {@code TEMPORARY}
+ * privilege), the statement simply runs.
+ */
+final class RepeatableObjects {
+
+	private static final Pattern CREATE_OR_REPLACE = Pattern.compile(
+		"\\s*CREATE\\s+OR\\s+REPLACE\\s+(FUNCTION|PROCEDURE|VIEW|TRIGGER)\\s+(\"(?:[^\"]|\"\")+\"|[A-Za-z_][A-Za-z0-9_$]*)[\\s(]",
+		CASE_INSENSITIVE
+	);
+
+	private static final Pattern TRIGGER_RELATION = Pattern.compile("\\bON\\s+" + RELATION, CASE_INSENSITIVE);
+
+	private static final String PROBE_TABLE = "pg_temp.\"migrannotateProbe\"";
+
+	@Language("SQL")
+	private static final String SQL_TO_SELECT_WHETHER_ROUTINE_IS_UNCHANGED = """
+		WITH "routine" AS (
+			SELECT P.pronamespace = PG_MY_TEMP_SCHEMA() AS "probe", P.prokind, SUBSTRING(
+				PG_GET_FUNCTIONDEF(P.oid) FROM POSITION(Q."name" || '(' IN PG_GET_FUNCTIONDEF(P.oid)) + LENGTH(Q."name")
+			) AS "definition" FROM
+				pg_proc AS P CROSS JOIN LATERAL
+				(SELECT P.pronamespace::REGNAMESPACE::TEXT || '.' || QUOTE_IDENT(P.proname) AS "name") AS Q
+			WHERE
+				P.proname = %s AND
+				P.pronamespace IN (PG_MY_TEMP_SCHEMA(), (SELECT oid FROM pg_namespace WHERE nspname = CURRENT_SCHEMA()))
+		)
+		SELECT EXISTS (
+			SELECT FROM "routine" AS L JOIN "routine" AS P USING ("prokind", "definition") WHERE NOT L."probe" AND P."probe"
+		);
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_SELECT_WHETHER_VIEW_IS_UNCHANGED = """
+		WITH "view" AS (
+			SELECT C.relnamespace = PG_MY_TEMP_SCHEMA() AS "probe", PG_GET_VIEWDEF(C.oid) AS "definition" FROM
+				pg_class AS C
+			WHERE
+				C.relname = %s AND
+				C.relkind = 'v' AND
+				C.relnamespace IN (PG_MY_TEMP_SCHEMA(), (SELECT oid FROM pg_namespace WHERE nspname = CURRENT_SCHEMA()))
+		)
+		SELECT EXISTS (
+			SELECT FROM "view" AS L JOIN "view" AS P USING ("definition") WHERE NOT L."probe" AND P."probe"
+		);
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_SELECT_WHETHER_TRIGGER_IS_UNCHANGED = """
+		WITH "trigger" AS (
+			SELECT C.relnamespace = PG_MY_TEMP_SCHEMA() AS "probe", REPLACE(
+				PG_GET_TRIGGERDEF(T.oid),
+				' ON ' || C.relnamespace::REGNAMESPACE::TEXT || '.' || QUOTE_IDENT(C.relname) || ' ',
+				' ON '
+			) AS "definition" FROM
+				pg_trigger AS T JOIN
+				pg_class AS C ON C.oid = T.tgrelid
+			WHERE
+				T.tgname = %s AND
+				T.tgrelid IN (TO_REGCLASS(%s), TO_REGCLASS('pg_temp."migrannotateProbe"'))
+		)
+		SELECT EXISTS (
+			SELECT FROM "trigger" AS L JOIN "trigger" AS P USING ("definition") WHERE NOT L."probe" AND P."probe"
+		);
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_CREATE_SAVEPOINT = """
+		SAVEPOINT "repeatable";
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_DISCARD_SAVEPOINT = """
+		ROLLBACK TO SAVEPOINT "repeatable";
+		RELEASE SAVEPOINT "repeatable";
+		""";
+
+	static void execute(Statement statement, String sql) throws SQLException {
+		for (final var each : SQLStatements.split(sql)) {
+			// Masking turns leading comments into whitespace and leaves quoted identifiers as they are
+			final var masked = SQLStatements.mask(each);
+			final var matcher = CREATE_OR_REPLACE.matcher(masked);
+			if (!matcher.lookingAt() || !isUnchanged(statement, each, masked, matcher)) {
+				statement.execute(each);
+			}
+		}
+	}
+
+	/**
+	 * Creates a probe of the object that {@code each} would create or replace and compares it with the live one,
+	 * leaving the database as it was.
+	 */
+	private static boolean isUnchanged(Statement statement, String each, String masked, Matcher matcher) throws SQLException {
+		final var name = enquoteLiteral(nameOf(matcher.group(2)));
+		final String sqlToProbe;
+		switch (matcher.group(1).toUpperCase()) {
+			case "TRIGGER" -> {
+				final var relation = TRIGGER_RELATION.matcher(masked);
+				if (!relation.find(matcher.end(2))) {
+					return false;
+				}
+				sqlToProbe =
+					"CREATE TEMPORARY TABLE " + PROBE_TABLE + " (LIKE " + relation.group(1) + ");\n" +
+					each.substring(0, relation.start(1)) + PROBE_TABLE + each.substring(relation.end(1)) + ";\n" +
+					SQL_TO_SELECT_WHETHER_TRIGGER_IS_UNCHANGED.formatted(name, enquoteLiteral(relation.group(1)));
+			}
+			case "VIEW" -> sqlToProbe =
+				probeOf(each, matcher) + SQL_TO_SELECT_WHETHER_VIEW_IS_UNCHANGED.formatted(name);
+			default -> sqlToProbe =
+				probeOf(each, matcher) + SQL_TO_SELECT_WHETHER_ROUTINE_IS_UNCHANGED.formatted(name);
+		}
+		try {
+			var isResultSet = statement.execute(SQL_TO_CREATE_SAVEPOINT + sqlToProbe + SQL_TO_DISCARD_SAVEPOINT);
+			while (!isResultSet && statement.getUpdateCount() >= 0) {
+				isResultSet = statement.getMoreResults();
+			}
+			if (!isResultSet) {
+				return false;
+			}
+			try (final var results = statement.getResultSet()) {
+				return results.next() && results.getBoolean(1);
+			}
+		} catch (SQLException exception) {
+			statement.execute(SQL_TO_DISCARD_SAVEPOINT);
+			return false;
+		}
+	}
+
+	private static String probeOf(String each, Matcher matcher) {
+		return each.substring(0, matcher.start(2)) + "pg_temp." + each.substring(matcher.start(2)) + ";\n";
+	}
+
+	private static String nameOf(String identifier) {
+		if (identifier.startsWith("\"")) {
+			return identifier.substring(1, identifier.length() - 1).replace("\"\"", "\"");
+		}
+		return identifier.toLowerCase();
+	}
+
+	private RepeatableObjects() {}
+
+}
@@ -0,0 +1,33 @@
+package com.leaprnd.migrannotate;
+
+import org.intellij.lang.annotations.Language;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+
+@FunctionalInterface
+public interface ReplicationLagProvider {
+
+	@Language("SQL")
+	String SQL_TO_SELECT_REPLAY_LAG = """
+		SELECT COALESCE(MAX(EXTRACT(EPOCH FROM "replay_lag") * 1000000), 0)::BIGINT FROM pg_stat_replication;
+		""";
+
+	/**
+	 * Reports the {@code replay_lag} of the slowest replica connected to the primary according to
+	 * {@code pg_stat_replication}, which requires the {@code pg_monitor} role to see the lag of other users' replicas.
+	 */
+	ReplicationLagProvider PG_STAT_REPLICATION = connection -> {
+		try (
+			final var statement = connection.createStatement();
+			final var results = statement.executeQuery(SQL_TO_SELECT_REPLAY_LAG)
+		) {
+			results.next();
+			return Duration.ofNanos(results.getLong(1) * 1000);
+		}
+	};
+
+	Duration getReplicationLag(Connection connection) throws SQLException;
+
+}
@@ -0,0 +1,66 @@
+package com.leaprnd.migrannotate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+
+import static com.leaprnd.migrannotate.ReplicationLagProvider.PG_STAT_REPLICATION;
+import static java.lang.System.nanoTime;
+
+/**
+ * Pauses {@link Migrannotate#migrate()} between migrations, with exponential backoff, for as long as the replicas lag
+ * behind the primary by more than {@linkplain #setMaximumLag(Duration) the maximum}.
+ */
+public final class ReplicationThrottle {
+
+	private Duration maximumLag = Duration.ofSeconds(10);
+	private Duration initialBackoff = Duration.ofMillis(100);
+	private Duration maximumBackoff = Duration.ofSeconds(10);
+	private ReplicationLagProvider lagProvider = PG_STAT_REPLICATION;
+
+	public ReplicationThrottle setMaximumLag(Duration maximumLag) {
+		this.maximumLag = maximumLag;
+		return this;
+	}
+
+	public ReplicationThrottle setInitialBackoff(Duration initialBackoff) {
+		this.initialBackoff = initialBackoff;
+		return this;
+	}
+
+	public ReplicationThrottle setMaximumBackoff(Duration maximumBackoff) {
+		this.maximumBackoff = maximumBackoff;
+		return this;
+	}
+
+	public ReplicationThrottle setLagProvider(ReplicationLagProvider lagProvider) {
+		this.lagProvider = lagProvider;
+		return this;
+	}
+
+	/**
+	 * Waits until the replicas have caught up and returns how many nanoseconds that took. If the thread is interrupted,
+	 * it stops waiting (and keeps the interrupt flag set).
+	 */
+	long awaitReplicasOf(Connection connection) throws SQLException {
+		if (lagProvider.getReplicationLag(connection).compareTo(maximumLag) <= 0) {
+			return 0;
+		}
+		final var start = nanoTime();
+		var backoff = initialBackoff;
+		do {
+			try {
+				Thread.sleep(backoff.toMillis());
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			backoff = backoff.multipliedBy(2);
+			if (backoff.compareTo(maximumBackoff) > 0) {
+				backoff = maximumBackoff;
+			}
+		} while (lagProvider.getReplicationLag(connection).compareTo(maximumLag) > 0);
+		return nanoTime() - start;
+	}
+
+}
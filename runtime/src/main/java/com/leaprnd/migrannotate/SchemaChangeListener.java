@@ -0,0 +1,17 @@
+package com.leaprnd.migrannotate;
+
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * Receives the {@code @SchemaIdentifier}s and new checksums of the schemas that another instance has just migrated
+ * (see {@link Migrannotate#notifyOn(String)}), e.g. to reset statement caches or to flip feature gates.
+ */
+@FunctionalInterface
+public interface SchemaChangeListener {
+
+	void onSchemaChange(Map<Long, Long> checksumsById);
+
+	default void onFailure(SQLException exception) {}
+
+}
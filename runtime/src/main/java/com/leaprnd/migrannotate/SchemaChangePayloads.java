@@ -0,0 +1,53 @@
+package com.leaprnd.migrannotate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Encodes the {@code @SchemaIdentifier}s and new checksums of migrated schemas into the payloads of the notifications
+ * that {@link Migrannotate#notifyOn(String)} sends (as comma-separated {@code id=checksum} pairs) and decodes them
+ * again. It does not depend on the PostgreSQL JDBC driver, so listeners that receive the notifications some other way
+ * can use it, too.
+ */
+public final class SchemaChangePayloads {
+
+	// PostgreSQL rejects payloads of 8,000 bytes or more, and a payload only ever exceeds this by one pair
+	private static final int MAXIMUM_PAYLOAD_LENGTH = 7_000;
+
+	public static List<String> encode(Map<Long, Long> checksumsById) {
+		final var payloads = new ArrayList<String>();
+		final var payload = new StringBuilder();
+		for (final var entry : checksumsById.entrySet()) {
+			if (payload.length() > MAXIMUM_PAYLOAD_LENGTH) {
+				payloads.add(payload.toString());
+				payload.setLength(0);
+			}
+			if (!payload.isEmpty()) {
+				payload.append(',');
+			}
+			payload.append(entry.getKey()).append('=').append(entry.getValue());
+		}
+		if (!payload.isEmpty()) {
+			payloads.add(payload.toString());
+		}
+		return payloads;
+	}
+
+	public static Map<Long, Long> decode(String payload) {
+		final var checksumsById = new TreeMap<Long, Long>();
+		for (final var entry : payload.split(",")) {
+			final var separator = entry.indexOf('=');
+			if (separator > 0) {
+				final var id = Long.parseLong(entry, 0, separator, 10);
+				final var checksum = Long.parseLong(entry, separator + 1, entry.length(), 10);
+				checksumsById.put(id, checksum);
+			}
+		}
+		return checksumsById;
+	}
+
+	private SchemaChangePayloads() {}
+
+}
@@ -0,0 +1,93 @@
+package com.leaprnd.migrannotate;
+
+import org.postgresql.PGConnection;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static com.leaprnd.migrannotate.Migration.enquoteIdentifier;
+
+/**
+ * Listens for schema change notifications on a dedicated connection (which must not be used for anything else until
+ * the subscription is closed) and passes them to a {@link SchemaChangeListener} on a daemon thread.
+ */
+public final class SchemaChangeSubscription implements AutoCloseable {
+
+	private static final int POLLING_INTERVAL_IN_MILLISECONDS = 500;
+
+	public static SchemaChangeSubscription subscribe(
+		Connection connection,
+		String channel,
+		SchemaChangeListener listener
+	) throws SQLException {
+		final var pgConnection = connection.unwrap(PGConnection.class);
+		try (final var statement = connection.createStatement()) {
+			statement.execute("LISTEN " + enquoteIdentifier(channel));
+		}
+		if (!connection.getAutoCommit()) {
+			connection.commit();
+		}
+		final var subscription = new SchemaChangeSubscription(connection, pgConnection, channel, listener);
+		subscription.thread.start();
+		return subscription;
+	}
+
+	private final Connection connection;
+	private final PGConnection pgConnection;
+	private final String channel;
+	private final SchemaChangeListener listener;
+	private final Thread thread;
+	private volatile boolean closed = false;
+
+	private SchemaChangeSubscription(
+		Connection connection,
+		PGConnection pgConnection,
+		String channel,
+		SchemaChangeListener listener
+	) {
+		this.connection = connection;
+		this.pgConnection = pgConnection;
+		this.channel = channel;
+		this.listener = listener;
+		this.thread = new Thread(this::poll, "migrannotate-" + channel);
+		this.thread.setDaemon(true);
+	}
+
+	private void poll() {
+		while (!closed) {
+			try {
+				final var notifications = pgConnection.getNotifications(POLLING_INTERVAL_IN_MILLISECONDS);
+				if (notifications == null) {
+					continue;
+				}
+				for (final var notification : notifications) {
+					if (notification.getName().equals(channel)) {
+						listener.onSchemaChange(SchemaChangePayloads.decode(notification.getParameter()));
+					}
+				}
+			} catch (SQLException exception) {
+				if (!closed) {
+					listener.onFailure(exception);
+				}
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws SQLException {
+		closed = true;
+		try {
+			thread.join();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+		try (final var statement = connection.createStatement()) {
+			statement.execute("UNLISTEN " + enquoteIdentifier(channel));
+		}
+		if (!connection.getAutoCommit()) {
+			connection.commit();
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.leaprnd.migrannotate;
+
+import java.time.Duration;
+import java.util.List;
+
+import static java.lang.String.format;
+
+/**
+ * The estimated impact of one statement of a migration plan: whether it only changes the catalog or also has to scan
+ * or rewrite the relations it touches, how big they are and roughly how long that will take.
+ */
+public final class StatementImpact {
+
+	private final long id;
+	private final String statement;
+	private final Impact impact;
+	private final List<String> relations;
+	private final long rows;
+	private final long bytes;
+	private final Duration estimatedDuration;
+
+	StatementImpact(
+		long id,
+		String statement,
+		Impact impact,
+		List<String> relations,
+		long rows,
+		long bytes,
+		Duration estimatedDuration
+	) {
+		this.id = id;
+		this.statement = statement;
+		this.impact = impact;
+		this.relations = relations;
+		this.rows = rows;
+		this.bytes = bytes;
+		this.estimatedDuration = estimatedDuration;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getStatement() {
+		return statement;
+	}
+
+	public Impact getImpact() {
+		return impact;
+	}
+
+	public List<String> getRelations() {
+		return relations;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public Duration getEstimatedDuration() {
+		return estimatedDuration;
+	}
+
+	@Override
+	public String toString() {
+		return format(
+			"@SchemaIdentifier(%dL) %s %s (%d rows, %d bytes, ~%d ms): %s",
+			id,
+			impact,
+			relations,
+			rows,
+			bytes,
+			estimatedDuration.toMillis(),
+			statement.lines().findFirst().orElse("")
+		);
+	}
+
+}
@@ -0,0 +1,62 @@
+package com.leaprnd.migrannotate;
+
+import com.leaprnd.migrannotate.SQLWriter.SourcedStatement;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static java.lang.System.nanoTime;
+import static java.util.Collections.reverse;
+import static java.util.Comparator.comparing;
+
+/**
+ * Executes the SQL of a migration one statement at a time and keeps the slowest ones. Statements that were split at
+ * compile time keep the annotation they came from, while everything else is split at runtime.
+ */
+final class StatementProfiler {
+
+	private final int slowest;
+	private final PriorityQueue<StatementTiming> timings = new PriorityQueue<>(comparing(StatementTiming::getDuration));
+
+	StatementProfiler(int slowest) {
+		this.slowest = slowest;
+	}
+
+	void execute(Statement statement, SQLWriter writer) throws SQLException {
+		var statements = writer.getStatements();
+		if (statements == null) {
+			statements = new ArrayList<>();
+			for (final var each : SQLStatements.split(writer.getSql())) {
+				statements.add(new SourcedStatement(null, each));
+			}
+		}
+		for (var index = 0; index < statements.size(); index ++) {
+			final var each = statements.get(index);
+			final var start = nanoTime();
+			statement.execute(each.sql());
+			final var duration = Duration.ofNanos(nanoTime() - start);
+			timings.add(new StatementTiming(writer.getId(), each.source(), index, each.sql(), duration));
+			if (timings.size() > slowest) {
+				timings.poll();
+			}
+		}
+	}
+
+	/**
+	 * Returns the slowest statements, starting with the slowest one.
+	 */
+	List<StatementTiming> getSlowestStatements() {
+		final var sorted = new ArrayList<StatementTiming>(timings.size());
+		final var copy = new PriorityQueue<>(timings);
+		while (!copy.isEmpty()) {
+			sorted.add(copy.poll());
+		}
+		reverse(sorted);
+		return sorted;
+	}
+
+}
@@ -0,0 +1,57 @@
+package com.leaprnd.migrannotate;
+
+import java.time.Duration;
+
+import static java.lang.String.format;
+
+/**
+ * How long one statement of a migration took. The {@linkplain #getSource() source} is the annotation the statement
+ * came from (e.g. {@code @SchemaUpgrade(from = 1305369197L)}) if the statements were split at compile time, and
+ * {@code null} otherwise.
+ */
+public final class StatementTiming {
+
+	private final long id;
+	private final String source;
+	private final int index;
+	private final String statement;
+	private final Duration duration;
+
+	StatementTiming(long id, String source, int index, String statement, Duration duration) {
+		this.id = id;
+		this.source = source;
+		this.index = index;
+		this.statement = statement;
+		this.duration = duration;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * Returns the (zero-based) index of the statement in the SQL of the migration.
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	public String getStatement() {
+		return statement;
+	}
+
+	public Duration getDuration() {
+		return duration;
+	}
+
+	@Override
+	public String toString() {
+		final var location = source == null ? "" : " " + source;
+		return format("@SchemaIdentifier(%dL)%s statement #%d took %d ms", id, location, index, duration.toMillis());
+	}
+
+}
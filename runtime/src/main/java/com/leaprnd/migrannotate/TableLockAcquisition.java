@@ -0,0 +1,196 @@
+package com.leaprnd.migrannotate;
+
+import org.intellij.lang.annotations.Language;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+import static com.leaprnd.migrannotate.ImpactEstimator.IDENTIFIER;
+import static com.leaprnd.migrannotate.ImpactEstimator.RELATION;
+import static com.leaprnd.migrannotate.Migration.enquoteLiteral;
+import static java.util.regex.Pattern.CASE_INSENSITIVE;
+import static java.util.regex.Pattern.DOTALL;
+
+/**
+ * Takes the table locks that a transaction of a migration is going to need before running any of it, in the order of
+ * the {@code OID}s of the tables and with {@code NOWAIT}, so that a migration never holds the locks of some hot tables
+ * while queueing behind a long-running transaction for another one, and never deadlocks with transactions of the
+ * application. If any of the locks is not available, the attempt is rolled back to a savepoint (releasing the locks it
+ * did take) and retried after an exponential backoff with full jitter. The locks are found by matching the statements
+ * against a list of patterns, which covers {@code ALTER TABLE}, {@code DROP TABLE}, {@code CLUSTER},
+ * {@code VACUUM FULL}, {@code TRUNCATE}, creating and dropping triggers and rules, foreign keys, {@code CREATE INDEX}
+ * and {@code DROP INDEX} (which lock the table of the index), {@code INSERT}, {@code UPDATE} and {@code DELETE}. Any
+ * other statement takes its locks as it runs. Only tables are locked in advance: {@code LOCK TABLE} rejects
+ * materialized views and would lock every relation a view reads from in the same mode as the view itself, so
+ * statements on views take their locks as they run, too. Relations that are only read or that do not exist yet are
+ * not locked in advance either.
+ */
+public final class TableLockAcquisition {
+
+	private static final String ACCESS_EXCLUSIVE = "ACCESS EXCLUSIVE";
+	private static final String SHARE_ROW_EXCLUSIVE = "SHARE ROW EXCLUSIVE";
+	private static final String SHARE = "SHARE";
+	private static final String ROW_EXCLUSIVE = "ROW EXCLUSIVE";
+
+	// From the weakest to the strongest
+	private static final String[] MODES = {ROW_EXCLUSIVE, SHARE, SHARE_ROW_EXCLUSIVE, ACCESS_EXCLUSIVE};
+
+	private static final TableLock[] TABLE_LOCKS = {
+		new TableLock(compile("\\bALTER\\s+TABLE\\s+(?:IF\\s+EXISTS\\s+)?(?:ONLY\\s+)?" + RELATION), ACCESS_EXCLUSIVE),
+		new TableLock(compile("\\bDROP\\s+TABLE\\s+(?:IF\\s+EXISTS\\s+)?" + RELATION), ACCESS_EXCLUSIVE),
+		new TableLock(compile("^\\s*(?:CLUSTER|VACUUM\\s+FULL|TRUNCATE(?:\\s+TABLE)?)\\s+(?:ONLY\\s+)?" + RELATION), ACCESS_EXCLUSIVE),
+		new TableLock(compile("\\bDROP\\s+(?:TRIGGER|RULE)\\s+(?:IF\\s+EXISTS\\s+)?" + IDENTIFIER + "\\s+ON\\s+" + RELATION), ACCESS_EXCLUSIVE),
+		new TableLock(compile("^\\s*CREATE\\s+(?:OR\\s+REPLACE\\s+)?RULE\\b.*?\\bTO\\s+" + RELATION), ACCESS_EXCLUSIVE),
+		new TableLock(compile("^\\s*DROP\\s+INDEX\\s+(?!CONCURRENTLY\\b)(?:IF\\s+EXISTS\\s+)?" + RELATION), ACCESS_EXCLUSIVE),
+		new TableLock(compile("\\bCREATE\\s+(?:OR\\s+REPLACE\\s+)?(?:CONSTRAINT\\s+)?TRIGGER\\b.*?\\bON\\s+" + RELATION), SHARE_ROW_EXCLUSIVE),
+		new TableLock(compile("\\bREFERENCES\\s+" + RELATION), SHARE_ROW_EXCLUSIVE),
+		new TableLock(compile("^\\s*CREATE\\s+(?:UNIQUE\\s+)?INDEX\\s+(?!CONCURRENTLY\\b).*?\\bON\\s+(?:ONLY\\s+)?" + RELATION), SHARE),
+		new TableLock(compile("^\\s*(?:UPDATE\\s+(?:ONLY\\s+)?|DELETE\\s+FROM\\s+(?:ONLY\\s+)?|INSERT\\s+INTO\\s+)" + RELATION), ROW_EXCLUSIVE),
+	};
+
+	@Language("SQL")
+	private static final String SQL_TO_LOCK_TABLES = """
+		SAVEPOINT "tableLocks";
+		DO $lock$ DECLARE pending RECORD; BEGIN
+			FOR pending IN
+				SELECT C.oid::REGCLASS AS "table", "lock"."mode" FROM
+					(VALUES %s) AS "lock" ("relation", "mode") JOIN
+					pg_class AS C ON C.oid = COALESCE(
+						(SELECT I.indrelid FROM pg_index AS I WHERE I.indexrelid = TO_REGCLASS("lock"."relation")),
+						TO_REGCLASS("lock"."relation")
+					)
+				WHERE C.relkind IN ('r', 'p')
+				ORDER BY C.oid
+			LOOP
+				EXECUTE FORMAT('LOCK TABLE %%s IN %%s MODE NOWAIT', pending."table", pending."mode");
+			END LOOP;
+		END; $lock$;
+		RELEASE SAVEPOINT "tableLocks";
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_ROLLBACK = """
+		ROLLBACK TO SAVEPOINT "tableLocks";
+		RELEASE SAVEPOINT "tableLocks";
+		""";
+
+	private static Pattern compile(String regex) {
+		return Pattern.compile(regex, CASE_INSENSITIVE | DOTALL);
+	}
+
+	private int attempts = 5;
+	private Duration initialBackoff = Duration.ofMillis(50);
+	private Duration maximumBackoff = Duration.ofSeconds(2);
+
+	/**
+	 * Sets how many times to try to take the locks before failing the migration with {@code lock_not_available}.
+	 */
+	public TableLockAcquisition setAttempts(int attempts) {
+		if (attempts < 1) {
+			throw new IllegalArgumentException("At least one attempt is required!");
+		}
+		this.attempts = attempts;
+		return this;
+	}
+
+	/**
+	 * Sets the backoff after the first failed attempt, which doubles after every further one up to {@code maximum}.
+	 * The actual pause is a random duration between zero and the backoff, so that competing migrations (or
+	 * application transactions) do not retry in lockstep.
+	 */
+	public TableLockAcquisition setBackoff(Duration initial, Duration maximum) {
+		initialBackoff = initial;
+		maximumBackoff = maximum;
+		return this;
+	}
+
+	/**
+	 * Returns the strongest lock mode each table will be locked in by the statements of {@code sql}, in the order
+	 * they are first mentioned.
+	 */
+	static Map<String, String> findTableLocksIn(Collection<String> sql) {
+		final var modesByRelation = new LinkedHashMap<String, String>();
+		for (final var script : sql) {
+			for (final var statement : SQLStatements.split(script)) {
+				final var masked = SQLStatements.mask(statement);
+				for (final var lock : TABLE_LOCKS) {
+					final var matcher = lock.pattern().matcher(masked);
+					while (matcher.find()) {
+						final var relation = matcher.group(1).replaceAll("\\s*\\.\\s*", ".");
+						modesByRelation.merge(relation, lock.mode(), TableLockAcquisition::combine);
+					}
+				}
+			}
+		}
+		return modesByRelation;
+	}
+
+	/**
+	 * Returns the weakest mode that conflicts with everything either mode does. {@code SHARE} and
+	 * {@code ROW EXCLUSIVE} conflict with each other, so a transaction taking both upgrades its own lock, which can
+	 * deadlock unless {@code SHARE ROW EXCLUSIVE} is taken instead.
+	 */
+	private static String combine(String mode, String other) {
+		var index = 0;
+		var otherIndex = 0;
+		for (var candidate = 0; candidate < MODES.length; candidate ++) {
+			if (MODES[candidate].equals(mode)) {
+				index = candidate;
+			}
+			if (MODES[candidate].equals(other)) {
+				otherIndex = candidate;
+			}
+		}
+		final var strongest = Math.max(index, otherIndex);
+		if (index != otherIndex && MODES[strongest].equals(SHARE)) {
+			return SHARE_ROW_EXCLUSIVE;
+		}
+		return MODES[strongest];
+	}
+
+	/**
+	 * Takes the locks needed by {@code sql} in the current transaction, retrying until they are all taken or the
+	 * attempts are exhausted, in which case the {@link SQLException} of the last attempt is thrown (and the
+	 * transaction has to be rolled back).
+	 */
+	void acquire(Statement statement, Collection<String> sql) throws SQLException {
+		final var modesByRelation = findTableLocksIn(sql);
+		if (modesByRelation.isEmpty()) {
+			return;
+		}
+		final var values = new StringJoiner(", ");
+		for (final var entry : modesByRelation.entrySet()) {
+			values.add("(" + enquoteLiteral(entry.getKey()) + ", " + enquoteLiteral(entry.getValue()) + ")");
+		}
+		final var sqlToLock = SQL_TO_LOCK_TABLES.formatted(values);
+		var backoff = initialBackoff;
+		for (var attempt = 1; ; attempt ++) {
+			try {
+				statement.execute(attempt == 1 ? sqlToLock : SQL_TO_ROLLBACK + sqlToLock);
+				return;
+			} catch (SQLException exception) {
+				if (attempt >= attempts || !LockMonitor.isLockNotAvailable(exception)) {
+					throw exception;
+				}
+				try {
+					Thread.sleep(ThreadLocalRandom.current().nextLong(backoff.toMillis() + 1));
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw exception;
+				}
+				final var doubled = backoff.multipliedBy(2);
+				backoff = doubled.compareTo(maximumBackoff) > 0 ? maximumBackoff : doubled;
+			}
+		}
+	}
+
+	private record TableLock(Pattern pattern, String mode) {}
+
+}
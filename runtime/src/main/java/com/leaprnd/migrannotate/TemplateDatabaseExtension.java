@@ -0,0 +1,213 @@
+package com.leaprnd.migrannotate;
+
+import org.intellij.lang.annotations.Language;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ExtensionContext.Namespace;
+import org.junit.jupiter.api.extension.ExtensionContext.Store.CloseableResource;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolver;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.leaprnd.migrannotate.Migration.DEFAULT_GROUP;
+import static com.leaprnd.migrannotate.Migration.enquoteIdentifier;
+import static com.leaprnd.migrannotate.Migration.enquoteLiteral;
+import static com.leaprnd.migrannotate.MigrationResult.FAILED_TO_LOCK;
+import static java.lang.ClassLoader.getSystemClassLoader;
+import static java.lang.Long.toHexString;
+
+/**
+ * A JUnit 5 extension that migrates a template database once (per set of latest checksums) and then gives every test
+ * its own {@code CREATE DATABASE ... TEMPLATE} clone, which is injected as a {@link Connection} parameter.
+ */
+public class TemplateDatabaseExtension implements BeforeEachCallback, ParameterResolver {
+
+	@Language("SQL")
+	private static final String SQL_TO_LOCK = """
+		SELECT pg_advisory_lock(%d);
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_UNLOCK = """
+		SELECT pg_advisory_unlock(%d);
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_SELECT_DATABASE = """
+		SELECT TRUE FROM pg_database WHERE datname = %s;
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_CREATE_DATABASE = """
+		CREATE DATABASE %s;
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_CREATE_DATABASE_FROM_TEMPLATE = """
+		CREATE DATABASE %s TEMPLATE %s;
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_RENAME_DATABASE = """
+		ALTER DATABASE %s RENAME TO %s;
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_MARK_DATABASE_AS_TEMPLATE = """
+		ALTER DATABASE %s IS_TEMPLATE TRUE;
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_DISABLE_SYNCHRONOUS_COMMIT = """
+		ALTER DATABASE %s SET synchronous_commit = off;
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_DROP_DATABASE = """
+		DROP DATABASE IF EXISTS %s;
+		""";
+
+	private static final AtomicLong CLONE_COUNTER = new AtomicLong();
+	private static final String CLONE_KEY = "clone";
+	private static final String MAINTENANCE_KEY = "maintenance";
+
+	private final String group;
+	private final DatabaseConnector connector;
+	private final Namespace namespace = Namespace.create(TemplateDatabaseExtension.class, this);
+	private String maintenanceDatabase = "postgres";
+	private boolean durable = true;
+	private Maintenance maintenance;
+	private String template;
+
+	public TemplateDatabaseExtension(DatabaseConnector connector) {
+		this(DEFAULT_GROUP, connector);
+	}
+
+	public TemplateDatabaseExtension(String group, DatabaseConnector connector) {
+		this.group = group;
+		this.connector = connector;
+	}
+
+	public TemplateDatabaseExtension setMaintenanceDatabase(String maintenanceDatabase) {
+		this.maintenanceDatabase = maintenanceDatabase;
+		return this;
+	}
+
+	/**
+	 * Disables {@code synchronous_commit} on every clone. Only use this against throwaway databases.
+	 */
+	public TemplateDatabaseExtension withoutDurability() {
+		durable = false;
+		return this;
+	}
+
+	@Override
+	public void beforeEach(ExtensionContext context) throws Exception {
+		final var maintenance = getOrOpenMaintenance(context);
+		final var template = getOrCreateTemplate(maintenance);
+		final var clone = template + '_' + ProcessHandle.current().pid() + '_' + CLONE_COUNTER.incrementAndGet();
+		maintenance.execute(SQL_TO_CREATE_DATABASE_FROM_TEMPLATE.formatted(enquoteIdentifier(clone), enquoteIdentifier(template)));
+		if (!durable) {
+			maintenance.execute(SQL_TO_DISABLE_SYNCHRONOUS_COMMIT.formatted(enquoteIdentifier(clone)));
+		}
+		context.getStore(namespace).put(CLONE_KEY, new Clone(maintenance, clone, connector.connect(clone)));
+	}
+
+	private synchronized Maintenance getOrOpenMaintenance(ExtensionContext context) throws SQLException {
+		if (maintenance == null) {
+			maintenance = new Maintenance(connector.connect(maintenanceDatabase));
+			context.getRoot().getStore(namespace).put(MAINTENANCE_KEY, maintenance);
+		}
+		return maintenance;
+	}
+
+	private synchronized String getOrCreateTemplate(Maintenance maintenance) throws SQLException {
+		if (template != null) {
+			return template;
+		}
+		final var key = new ManifestReader(Set.of(group), getSystemClassLoader()).computeDigestOfLatestChecksums();
+		final var name = "migrannotate_" + toHexString(key);
+		maintenance.execute(SQL_TO_LOCK.formatted(key));
+		try {
+			if (!maintenance.exists(SQL_TO_SELECT_DATABASE.formatted(enquoteLiteral(name)))) {
+				final var building = name + "_building";
+				maintenance.execute(SQL_TO_DROP_DATABASE.formatted(enquoteIdentifier(building)));
+				maintenance.execute(SQL_TO_CREATE_DATABASE.formatted(enquoteIdentifier(building)));
+				try (final var connection = connector.connect(building)) {
+					if (new Migrannotate(group, connection).migrate() == FAILED_TO_LOCK) {
+						throw new IllegalStateException();
+					}
+				}
+				maintenance.execute(SQL_TO_RENAME_DATABASE.formatted(enquoteIdentifier(building), enquoteIdentifier(name)));
+				maintenance.execute(SQL_TO_MARK_DATABASE_AS_TEMPLATE.formatted(enquoteIdentifier(name)));
+			}
+		} finally {
+			maintenance.execute(SQL_TO_UNLOCK.formatted(key));
+		}
+		return template = name;
+	}
+
+	@Override
+	public boolean supportsParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+		return parameterContext.getParameter().getType() == Connection.class;
+	}
+
+	@Override
+	public Connection resolveParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+		return extensionContext.getStore(namespace).get(CLONE_KEY, Clone.class).connection;
+	}
+
+	private static class Maintenance implements CloseableResource {
+
+		private final Connection connection;
+
+		public Maintenance(Connection connection) {
+			this.connection = connection;
+		}
+
+		public synchronized void execute(String sql) throws SQLException {
+			try (final var statement = connection.createStatement()) {
+				statement.execute(sql);
+			}
+		}
+
+		public synchronized boolean exists(String sql) throws SQLException {
+			try (final var statement = connection.createStatement()) {
+				try (final var results = statement.executeQuery(sql)) {
+					return results.next();
+				}
+			}
+		}
+
+		@Override
+		public void close() throws SQLException {
+			connection.close();
+		}
+
+	}
+
+	private static class Clone implements CloseableResource {
+
+		private final Maintenance maintenance;
+		private final String database;
+		private final Connection connection;
+
+		public Clone(Maintenance maintenance, String database, Connection connection) {
+			this.maintenance = maintenance;
+			this.database = database;
+			this.connection = connection;
+		}
+
+		@Override
+		public void close() throws SQLException {
+			connection.close();
+			maintenance.execute(SQL_TO_DROP_DATABASE.formatted(enquoteIdentifier(database)));
+		}
+
+	}
+
+}
@@ -0,0 +1,34 @@
+package com.leaprnd.migrannotate;
+
+import static java.lang.String.format;
+
+public final class UpgradePathFailure {
+
+	private final long id;
+	private final long fromChecksum;
+	private final String reason;
+
+	UpgradePathFailure(long id, long fromChecksum, String reason) {
+		this.id = id;
+		this.fromChecksum = fromChecksum;
+		this.reason = reason;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public long getFromChecksum() {
+		return fromChecksum;
+	}
+
+	public String getReason() {
+		return reason;
+	}
+
+	@Override
+	public String toString() {
+		return format("@SchemaIdentifier(%dL) cannot be upgraded from %dL: %s", id, fromChecksum, reason);
+	}
+
+}
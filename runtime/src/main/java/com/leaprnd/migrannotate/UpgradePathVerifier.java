@@ -0,0 +1,318 @@
+package com.leaprnd.migrannotate;
+
+import org.intellij.lang.annotations.Language;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.leaprnd.migrannotate.Migration.DEFAULT_GROUP;
+import static com.leaprnd.migrannotate.Migration.EMPTY_CHECKSUM;
+import static com.leaprnd.migrannotate.Migration.enquoteIdentifier;
+import static com.leaprnd.migrannotate.MigrationResult.FAILED_TO_LOCK;
+import static java.lang.ClassLoader.getSystemClassLoader;
+import static java.lang.Long.toHexString;
+import static java.util.Comparator.comparingLong;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+/**
+ * Verifies every {@code @SchemaUpgrade} chain of a group. Without a database, it checks that the chain starting at
+ * every {@code from} checksum ends at the latest checksum. For every {@linkplain #addFixture(long, long, String)
+ * fixture}, it also clones a template database with the dependencies of the schema, builds the old version of the
+ * schema with the fixture, migrates it and compares the resulting catalog to that of a fresh install. The fixtures are
+ * verified in parallel, each in its own clone.
+ */
+public final class UpgradePathVerifier {
+
+	@Language("SQL")
+	private static final String SQL_TO_CREATE_DATABASE = """
+		CREATE DATABASE %s;
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_CREATE_DATABASE_FROM_TEMPLATE = """
+		CREATE DATABASE %s TEMPLATE %s;
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_DROP_DATABASE = """
+		DROP DATABASE IF EXISTS %s;
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_CREATE_SCHEMA_TABLE = """
+		CREATE TABLE "schema" (
+			"id" BIGINT NOT NULL PRIMARY KEY,
+			"checksum" BIGINT NOT NULL
+		);
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_INSERT_SCHEMA_ROW = """
+		INSERT INTO "schema" ("id", "checksum") VALUES (?, ?);
+		""";
+
+	@Language("SQL")
+	private static final String SQL_TO_SELECT_CHECKSUM = """
+		SELECT "checksum" FROM "schema" WHERE "id" = ?;
+		""";
+
+	private static final AtomicLong VERIFICATION_COUNTER = new AtomicLong();
+
+	private final String group;
+	private final DatabaseConnector connector;
+	private final TreeMap<Long, TreeMap<Long, String>> fixtures = new TreeMap<>();
+	private String maintenanceDatabase = "postgres";
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	public UpgradePathVerifier(DatabaseConnector connector) {
+		this(DEFAULT_GROUP, connector);
+	}
+
+	public UpgradePathVerifier(String group, DatabaseConnector connector) {
+		this.group = group;
+		this.connector = connector;
+	}
+
+	public UpgradePathVerifier setMaintenanceDatabase(String maintenanceDatabase) {
+		this.maintenanceDatabase = maintenanceDatabase;
+		return this;
+	}
+
+	public UpgradePathVerifier setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * Registers the {@code sql} that builds the version of the schema identified by {@code id} whose checksum was
+	 * {@code fromChecksum} (e.g. the {@code @Schema} of an old release). Its dependencies are installed beforehand.
+	 */
+	public UpgradePathVerifier addFixture(long id, long fromChecksum, @Language("SQL") String sql) {
+		fixtures.computeIfAbsent(id, ignored -> new TreeMap<>()).put(fromChecksum, sql);
+		return this;
+	}
+
+	public List<UpgradePathFailure> verify() throws SQLException, InterruptedException {
+		final var migrationsById = new TreeMap<Long, Migration>();
+		for (final var entry : new ManifestReader(Set.of(group), getSystemClassLoader()).read()) {
+			migrationsById.put(entry.getId(), entry.getMigration());
+		}
+		final var failures = new ArrayList<UpgradePathFailure>();
+		for (final var migration : migrationsById.values()) {
+			for (final var fromChecksum : migration.getUpgradableChecksums()) {
+				try {
+					render(migration, fromChecksum);
+				} catch (CannotUpgradeSchemaException exception) {
+					failures.add(new UpgradePathFailure(migration.getId(), fromChecksum, exception.getMessage()));
+				}
+			}
+		}
+		if (!fixtures.isEmpty()) {
+			failures.addAll(verifyFixtures(migrationsById));
+		}
+		failures.sort(comparingLong(UpgradePathFailure::getId).thenComparingLong(UpgradePathFailure::getFromChecksum));
+		return failures;
+	}
+
+	private SQLWriter render(Migration migration, long currentChecksum) {
+		final var writer = new SQLWriter(migration.getId(), currentChecksum, migration.getLatestChecksum(), group);
+		migration.migrate(currentChecksum, writer);
+		return writer;
+	}
+
+	private List<UpgradePathFailure> verifyFixtures(Map<Long, Migration> migrationsById) throws SQLException, InterruptedException {
+		final var failures = new ArrayList<UpgradePathFailure>();
+		final var prefix = "migrannotate_verify_" + ProcessHandle.current().pid() + '_' + VERIFICATION_COUNTER.incrementAndGet();
+		final var databases = Collections.synchronizedList(new ArrayList<String>());
+		final var executor = newFixedThreadPool(parallelism);
+		try {
+			// The reference and the templates are independent of each other, so they are all built at once
+			final var reference = prefix + "_reference";
+			final var futureFreshInstall = executor.submit(() -> {
+				createDatabase(reference, null, databases);
+				try (final var connection = connector.connect(reference)) {
+					if (new Migrannotate(group, connection).migrate() == FAILED_TO_LOCK) {
+						throw new IllegalStateException();
+					}
+					return new Migrannotate(group, connection).fingerprint();
+				}
+			});
+			final var templatesById = new HashMap<Long, Future<String>>();
+			for (final var id : fixtures.keySet()) {
+				final var migration = migrationsById.get(id);
+				if (migration == null) {
+					for (final var fromChecksum : fixtures.get(id).keySet()) {
+						failures.add(new UpgradePathFailure(id, fromChecksum, "There is no such @SchemaIdentifier in the group!"));
+					}
+					continue;
+				}
+				final var template = prefix + '_' + toHexString(id);
+				templatesById.put(id, executor.submit(() -> {
+					createDatabase(template, null, databases);
+					try (final var connection = connector.connect(template)) {
+						installDependenciesOf(migration, migrationsById, connection);
+					}
+					return template;
+				}));
+			}
+			final var freshInstall = await(futureFreshInstall);
+			final var futures = new ArrayList<Future<UpgradePathFailure>>();
+			for (final var fixturesOfSchema : fixtures.entrySet()) {
+				final var futureTemplate = templatesById.get(fixturesOfSchema.getKey());
+				if (futureTemplate == null) {
+					continue;
+				}
+				final var template = await(futureTemplate);
+				final var migration = migrationsById.get(fixturesOfSchema.getKey());
+				for (final var fixture : fixturesOfSchema.getValue().entrySet()) {
+					final var fromChecksum = fixture.getKey();
+					final var clone = template + '_' + toHexString(fromChecksum);
+					futures.add(executor.submit(() -> {
+						createDatabase(clone, template, databases);
+						try (final var connection = connector.connect(clone)) {
+							return verifyFixture(migration, fromChecksum, fixture.getValue(), freshInstall, connection);
+						}
+					}));
+				}
+			}
+			for (final var future : futures) {
+				final var failure = await(future);
+				if (failure != null) {
+					failures.add(failure);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			executor.awaitTermination(1, MINUTES);
+			if (!databases.isEmpty()) {
+				try (final var maintenance = connector.connect(maintenanceDatabase)) {
+					for (final var database : databases) {
+						execute(maintenance, SQL_TO_DROP_DATABASE.formatted(enquoteIdentifier(database)));
+					}
+				}
+			}
+		}
+		return failures;
+	}
+
+	private static <X> X await(Future<X> future) throws SQLException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException exception) {
+			if (exception.getCause() instanceof final SQLException cause) {
+				throw cause;
+			}
+			throw new RuntimeException(exception.getCause());
+		}
+	}
+
+	private UpgradePathFailure verifyFixture(
+		Migration migration,
+		long fromChecksum,
+		String sql,
+		CatalogFingerprint freshInstall,
+		Connection connection
+	) throws SQLException {
+		final var id = migration.getId();
+		try (final var statement = connection.createStatement()) {
+			statement.execute(sql);
+		}
+		try (final var insert = connection.prepareStatement(SQL_TO_INSERT_SCHEMA_ROW)) {
+			insert.setLong(1, id);
+			insert.setLong(2, fromChecksum);
+			insert.executeUpdate();
+		}
+		final var migrannotate = new Migrannotate(group, connection);
+		try {
+			migrannotate.migrate();
+		} catch (RuntimeException exception) {
+			final var cause = exception.getCause() == null ? exception : exception.getCause();
+			return new UpgradePathFailure(id, fromChecksum, cause.getMessage());
+		}
+		try (final var select = connection.prepareStatement(SQL_TO_SELECT_CHECKSUM)) {
+			select.setLong(1, id);
+			try (final var results = select.executeQuery()) {
+				if (!results.next() || results.getLong(1) != migration.getLatestChecksum()) {
+					return new UpgradePathFailure(id, fromChecksum, "The latest checksum was not recorded!");
+				}
+			}
+		}
+		final var drift = migrannotate.findDrift(freshInstall);
+		if (!drift.isEmpty()) {
+			return new UpgradePathFailure(id, fromChecksum, "The catalog differs from a fresh install: " + drift);
+		}
+		return null;
+	}
+
+	/**
+	 * Installs the latest version of everything the {@code migration} transitively depends on and records it in the
+	 * {@code "schema"} table.
+	 */
+	private void installDependenciesOf(
+		Migration migration,
+		Map<Long, Migration> migrationsById,
+		Connection connection
+	) throws SQLException {
+		final var unordered = new HashMap<Migration, SQLWriter>();
+		for (final var other : migrationsById.values()) {
+			if (other != migration && migration.isDependentOn(other)) {
+				unordered.put(other, render(other, EMPTY_CHECKSUM));
+			}
+		}
+		final var writers = Migrannotate.getValuesInOrder(unordered);
+		try (final var statement = connection.createStatement()) {
+			statement.execute(SQL_TO_CREATE_SCHEMA_TABLE);
+			for (final var writer : writers) {
+				statement.execute(writer.getPrologue());
+			}
+			for (final var writer : writers) {
+				statement.execute(writer.getSql());
+				statement.execute(writer.getRepeatable());
+			}
+			for (final var writer : writers) {
+				statement.execute(writer.getEpilogue());
+			}
+		}
+		try (final var insert = connection.prepareStatement(SQL_TO_INSERT_SCHEMA_ROW)) {
+			for (final var writer : writers) {
+				insert.setLong(1, writer.getId());
+				insert.setLong(2, writer.getLatestChecksum());
+				insert.addBatch();
+			}
+			insert.executeBatch();
+		}
+	}
+
+	/**
+	 * Creates the {@code database} over a maintenance connection of its own, so that the databases are copied in
+	 * parallel rather than one after the other, since copying a template is most of what verifying a fixture costs.
+	 */
+	private void createDatabase(String database, String template, List<String> databases) throws SQLException {
+		try (final var maintenance = connector.connect(maintenanceDatabase)) {
+			if (template == null) {
+				execute(maintenance, SQL_TO_CREATE_DATABASE.formatted(enquoteIdentifier(database)));
+			} else {
+				execute(maintenance, SQL_TO_CREATE_DATABASE_FROM_TEMPLATE.formatted(enquoteIdentifier(database), enquoteIdentifier(template)));
+			}
+		}
+		databases.add(database);
+	}
+
+	private static void execute(Connection maintenance, String sql) throws SQLException {
+		try (final var statement = maintenance.createStatement()) {
+			statement.execute(sql);
+		}
+	}
+
+}
@@ -0,0 +1,67 @@
+package com.leaprnd.migrannotate;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class AlterTableCoalescerTest {
+
+	@Test
+	public void testCoalesceMergesConsecutiveUpgradesOfTheSameTable() {
+		final var sql = """
+			ALTER TABLE "knight" ADD COLUMN "name" VARCHAR NOT NULL;
+			-- The second upgrade
+			ALTER TABLE "knight"
+				ADD COLUMN "favoriteApple" BIGINT NOT NULL,
+				ADD CONSTRAINT "fkKnightFavoriteApple" FOREIGN KEY ("favoriteApple") REFERENCES "apple" ("id") ON DELETE CASCADE;
+			CREATE INDEX "knightName" ON "knight" ("name");
+			""";
+		assertEquals("""
+			ALTER TABLE "knight" ADD COLUMN "name" VARCHAR NOT NULL,
+				ADD COLUMN "favoriteApple" BIGINT NOT NULL,
+				ADD CONSTRAINT "fkKnightFavoriteApple" FOREIGN KEY("favoriteApple")REFERENCES "apple"("id")ON DELETE CASCADE;
+			CREATE INDEX "knightName" ON "knight" ("name");
+			""", AlterTableCoalescer.coalesce(sql));
+	}
+
+	@Test
+	public void testCoalesceTerminatesStatementsEndingInComments() {
+		final var sql = """
+			ALTER TABLE "knight" ADD COLUMN "name" VARCHAR;
+			ALTER TABLE "knight" ADD COLUMN "title" VARCHAR; -- The second upgrade
+			UPDATE "knight" SET "name" = 'Unknown' -- backfill
+			;
+			DELETE FROM "knight";
+			""";
+		assertEquals("""
+			ALTER TABLE "knight" ADD COLUMN "name" VARCHAR,
+				ADD COLUMN "title" VARCHAR;
+			-- The second upgrade
+			UPDATE "knight" SET "name" = 'Unknown';
+			DELETE FROM "knight";
+			""", AlterTableCoalescer.coalesce(sql));
+	}
+
+	@Test
+	public void testCoalesceKeepsStatementsThatTouchTheSameColumn() {
+		final var sql = """
+			ALTER TABLE "knight" ADD COLUMN "title" VARCHAR;
+			ALTER TABLE knight DROP COLUMN Title;
+			""";
+		assertSame(sql, AlterTableCoalescer.coalesce(sql));
+	}
+
+	@Test
+	public void testCoalesceKeepsStatementsThatCannotBeCombined() {
+		final var sql = """
+			ALTER TABLE "knight" ADD COLUMN "title" VARCHAR;
+			ALTER TABLE "jedi" ADD COLUMN "rank" VARCHAR;
+			ALTER TABLE "jedi" RENAME TO "sith";
+			ALTER TABLE "sith" ALTER COLUMN "rank" TYPE INTEGER USING "rank"::INTEGER;
+			ALTER TABLE "sith" DROP COLUMN "title" CASCADE;
+			""";
+		assertSame(sql, AlterTableCoalescer.coalesce(sql));
+	}
+
+}
@@ -21,7 +21,10 @@ ALTER TABLE "knight"
 	ADD COLUMN "favoriteSauce" BIGINT NOT NULL,
 	ADD CONSTRAINT "fkKnightFavoriteApple" FOREIGN KEY ("favoriteApple") REFERENCES "apple" ("id") ON UPDATE CASCADE ON DELETE CASCADE,
 	ADD CONSTRAINT "fkKnightFavoriteSauce" FOREIGN KEY ("favoriteSauce") REFERENCES "sauce" ("id") ON UPDATE CASCADE ON DELETE CASCADE;
+""", contract = """
+ALTER TABLE "knight" DROP COLUMN IF EXISTS "title";
 """)
+@HotRelations({"knight", "pkKnight"})
 @SchemaDependency(Apple.class)
 @SchemaDependency(Sauce.class)
 public class Knight {}
\ No newline at end of file
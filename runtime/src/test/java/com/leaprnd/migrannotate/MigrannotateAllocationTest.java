@@ -0,0 +1,90 @@
+package com.leaprnd.migrannotate;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Set;
+
+import static com.leaprnd.migrannotate.Migration.DEFAULT_GROUP;
+import static com.leaprnd.migrannotate.Person.PERSON_GROUP;
+import static java.lang.ClassLoader.getSystemClassLoader;
+import static java.lang.management.ManagementFactory.getThreadMXBean;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MigrannotateAllocationTest {
+
+	private static final int WARM_UP_ITERATIONS = 1_000;
+	private static final int MEASURED_ITERATIONS = 1_000;
+	// The manifests are parsed once per class loader, so an up-to-date read only allocates the bookkeeping
+	private static final long BUDGET_PER_MANIFEST = 256;
+	private static final long BUDGET_PER_MANIFEST_ENTRY = 64;
+	// Finding and opening a resource costs the class loader roughly 12 KiB, which is beyond our control
+	private static final long COLD_BUDGET_PER_MANIFEST = 16_384;
+	private static final long COLD_BUDGET_PER_MANIFEST_ENTRY = 256;
+
+	private static final Set<String> GROUPS = Set.of(DEFAULT_GROUP, PERSON_GROUP);
+
+	private final ManifestReader reader = new ManifestReader(GROUPS, getSystemClassLoader());
+	private final LongLongMap latestChecksumsById = new LongLongMap();
+
+	@Test
+	public void testReadManifestStaysWithinAllocationBudgetWhenUpToDate() throws Exception {
+		final var entries = readLatestChecksums();
+		final var manifests = countManifestsOf(DEFAULT_GROUP) + countManifestsOf(PERSON_GROUP);
+		final var bytesPerIteration = measureBytesPerIteration(() -> assertTrue(reader.read(latestChecksumsById).isEmpty()));
+		final var budget = manifests * BUDGET_PER_MANIFEST + entries * BUDGET_PER_MANIFEST_ENTRY;
+		assertTrue(
+			bytesPerIteration <= budget,
+			() -> bytesPerIteration + " bytes were allocated to read " + entries + " entries from " + manifests + " manifests"
+		);
+	}
+
+	@Test
+	public void testReadManifestStaysWithinAllocationBudgetWhenCold() throws Exception {
+		final var entries = readLatestChecksums();
+		final var manifests = countManifestsOf(DEFAULT_GROUP) + countManifestsOf(PERSON_GROUP);
+		// A new class loader has nothing cached, so every iteration finds, opens and parses every manifest
+		final var bytesPerIteration = measureBytesPerIteration(() -> {
+			final var coldReader = new ManifestReader(GROUPS, new ClassLoader(getSystemClassLoader()) {});
+			assertTrue(coldReader.read(latestChecksumsById).isEmpty());
+		});
+		final var budget = manifests * COLD_BUDGET_PER_MANIFEST + entries * COLD_BUDGET_PER_MANIFEST_ENTRY;
+		assertTrue(
+			bytesPerIteration <= budget,
+			() -> bytesPerIteration + " bytes were allocated to parse " + entries + " entries from " + manifests + " manifests"
+		);
+	}
+
+	private int readLatestChecksums() {
+		final var entries = reader.read(latestChecksumsById);
+		for (final var entry : entries) {
+			latestChecksumsById.put(entry.getId(), entry.getLatestChecksum());
+		}
+		return entries.size();
+	}
+
+	private static long measureBytesPerIteration(Runnable iteration) {
+		for (var index = 0; index < WARM_UP_ITERATIONS; index ++) {
+			iteration.run();
+		}
+		final var threadMXBean = (com.sun.management.ThreadMXBean) getThreadMXBean();
+		final var threadId = Thread.currentThread().getId();
+		final var before = threadMXBean.getThreadAllocatedBytes(threadId);
+		for (var index = 0; index < MEASURED_ITERATIONS; index ++) {
+			iteration.run();
+		}
+		final var after = threadMXBean.getThreadAllocatedBytes(threadId);
+		return (after - before) / MEASURED_ITERATIONS;
+	}
+
+	private static int countManifestsOf(String group) throws IOException {
+		final var resources = getSystemClassLoader().getResources(group + ".migrannotate");
+		var count = 0;
+		while (resources.hasMoreElements()) {
+			resources.nextElement();
+			count ++;
+		}
+		return count;
+	}
+
+}
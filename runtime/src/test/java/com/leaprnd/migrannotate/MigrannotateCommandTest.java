@@ -0,0 +1,177 @@
+package com.leaprnd.migrannotate;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.PrintStream;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.leaprnd.migrannotate.MigrannotateCommand.FAILED;
+import static com.leaprnd.migrannotate.MigrannotateCommand.NOT_UP_TO_DATE;
+import static com.leaprnd.migrannotate.MigrannotateCommand.SUCCEEDED;
+import static com.leaprnd.migrannotate.MigrannotateCommand.TEMPORARY_FAILURE;
+import static com.leaprnd.migrannotate.MigrannotateCommand.UNAVAILABLE;
+import static com.leaprnd.migrannotate.MigrannotateCommand.USAGE;
+import static com.leaprnd.migrannotate.Migration.DEFAULT_GROUP;
+import static java.lang.ClassLoader.getSystemClassLoader;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MigrannotateCommandTest {
+
+	private static final long KNIGHT_ID = 6067387809931810870L;
+	private static final long OLDEST_KNIGHT_CHECKSUM = 1305369197L;
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+	@Test
+	public void testRunRejectsInvalidArguments() {
+		assertEquals(USAGE, run("--group", "default"));
+		assertTrue(err.toString(UTF_8).startsWith("--url is required!"));
+		assertEquals(USAGE, run("--url", "jdbc:postgresql://localhost/example", "--commit-strategy", "sometimes"));
+		assertEquals(USAGE, run("--url", "jdbc:postgresql://localhost/example", "--profile"));
+	}
+
+	@Test
+	public void testRunFailsWithoutDriverAcceptingUrl() {
+		assertEquals(UNAVAILABLE, run("--url", "jdbc:nonexistent:example"));
+	}
+
+	@Test
+	public void testExecuteReportsMigrationAsJson() {
+		final var database = createUpToDateDatabase().withSchemaRow(KNIGHT_ID, OLDEST_KNIGHT_CHECKSUM);
+		assertEquals(SUCCEEDED, execute(database, "--url", "jdbc:recording:", "--commit-strategy", "per-migration"));
+		assertTrue(out.toString(UTF_8).startsWith("{\"result\":\"MIGRATED\""));
+	}
+
+	@Test
+	public void testExecuteFailsTemporarilyWhenLockIsContested() {
+		final var database = createUpToDateDatabase()
+			.withContestedLocks()
+			.respond("pg_locks", sql -> List.<Object[]>of(
+				new Object[] {4242, "migrator", "active", "SELECT 1;", "ExclusiveLock", "advisory lock 1741110310:3148476735", 1_000L}
+			));
+		assertEquals(TEMPORARY_FAILURE, execute(database, "--url", "jdbc:recording:"));
+		final var json = out.toString(UTF_8);
+		assertTrue(json.startsWith("{\"result\":\"FAILED_TO_LOCK\""));
+		assertTrue(json.contains("\"applicationName\":\"migrator\""));
+	}
+
+	@Test
+	public void testExecuteReportsFailure() {
+		final var database = createUpToDateDatabase()
+			.withSchemaRow(KNIGHT_ID, OLDEST_KNIGHT_CHECKSUM)
+			.fail("^ALTER TABLE \"knight\"", "42P07");
+		assertEquals(FAILED, execute(database, "--url", "jdbc:recording:"));
+		assertTrue(out.toString(UTF_8).startsWith("{\"result\":\"FAILED\",\"exception\":\"com.leaprnd.migrannotate.FailedToMigrateException\""));
+	}
+
+	@Test
+	public void testExecuteChecksWhetherUpToDate() {
+		final var upToDate = createUpToDateDatabase().respond("pg_attribute", sql -> List.<Object[]>of(new Object[] {true}));
+		assertEquals(SUCCEEDED, execute(upToDate, "--url", "jdbc:recording:", "--check"));
+		// Checking neither locks nor changes anything, so it only checks that the "schema" table exists and reads it
+		assertEquals(2, upToDate.getRoundTrips().size());
+		for (final var sql : upToDate.getRoundTrips()) {
+			assertTrue(sql.strip().startsWith("SELECT"), sql);
+		}
+		final var outdated = createUpToDateDatabase()
+			.withSchemaRow(KNIGHT_ID, OLDEST_KNIGHT_CHECKSUM)
+			.respond("pg_attribute", sql -> List.<Object[]>of(new Object[] {true}));
+		assertEquals(NOT_UP_TO_DATE, execute(outdated, "--url", "jdbc:recording:", "--check"));
+		assertEquals(OLDEST_KNIGHT_CHECKSUM, outdated.getChecksumOf(KNIGHT_ID));
+		// Without the "schema" table, the database is not up to date and the table is not created
+		final var empty = new RecordingConnection();
+		assertEquals(NOT_UP_TO_DATE, execute(empty, "--url", "jdbc:recording:", "--check"));
+		assertEquals(1, empty.getRoundTrips().size());
+	}
+
+	@Test
+	public void testExecuteMigratesFromSeparateClasspath(@TempDir Path classpath) throws Exception {
+		// The migration refers to another class that only the --classpath can see
+		compile(classpath, Map.of(
+			"SeparateMigration", """
+				package com.leaprnd.migrannotate;
+				public final class SeparateMigration implements Migration {
+					public long getId() { return 42L; }
+					public long getLatestChecksum() { return 1L; }
+					public void migrate(long currentChecksum, SQLWriter sql) { sql.append(SeparateTables.sqlToCreate()); }
+				}
+				""",
+			"SeparateTables", """
+				package com.leaprnd.migrannotate;
+				final class SeparateTables {
+					static String sqlToCreate() { return "CREATE TABLE \\"separate\\" ();\\n"; }
+				}
+				"""
+		));
+		try (final var manifest = new DataOutputStream(Files.newOutputStream(classpath.resolve("separate.migrannotate")))) {
+			manifest.writeLong(42L);
+			manifest.writeLong(1L);
+			manifest.writeUTF("com/leaprnd/migrannotate/SeparateMigration.class");
+		}
+		final var database = new RecordingConnection();
+		final var command = MigrannotateCommand.parse(new String[] {
+			"--url", "jdbc:recording:", "--classpath", classpath.toString(), "--group", "separate"
+		});
+		try (final var classLoader = (URLClassLoader) command.createClassLoader()) {
+			final var exitCode = command.execute(
+				database.getConnection(),
+				classLoader,
+				new PrintStream(out, true, UTF_8),
+				new PrintStream(err, true, UTF_8)
+			);
+			assertEquals(SUCCEEDED, exitCode, () -> out.toString(UTF_8));
+		}
+		assertTrue(out.toString(UTF_8).startsWith("{\"result\":\"MIGRATED\""), () -> out.toString(UTF_8));
+		assertTrue(database.getRoundTrips().stream().anyMatch(sql -> sql.contains("CREATE TABLE \"separate\"")));
+		assertEquals(1L, database.getChecksumOf(42L));
+	}
+
+	/**
+	 * Compiles the sources of classes in the {@code com.leaprnd.migrannotate} package into the {@code classpath}, against
+	 * the annotations but not the test classes.
+	 */
+	private static void compile(Path classpath, Map<String, String> sourcesBySimpleName) throws Exception {
+		final var arguments = new ArrayList<String>();
+		final var annotations = Path.of(Migration.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+		Collections.addAll(arguments, "-proc:none", "-classpath", annotations.toString(), "-d", classpath.toString());
+		for (final var source : sourcesBySimpleName.entrySet()) {
+			final var sourceFile = classpath.resolve(source.getKey() + ".java");
+			Files.writeString(sourceFile, source.getValue());
+			arguments.add(sourceFile.toString());
+		}
+		assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, arguments.toArray(new String[0])));
+	}
+
+	private int run(String... arguments) {
+		return MigrannotateCommand.run(arguments, new PrintStream(out, true, UTF_8), new PrintStream(err, true, UTF_8));
+	}
+
+	private int execute(RecordingConnection database, String... arguments) {
+		final var command = MigrannotateCommand.parse(arguments);
+		final var classLoader = MigrannotateCommandTest.class.getClassLoader();
+		return command.execute(database.getConnection(), classLoader, new PrintStream(out, true, UTF_8), new PrintStream(err, true, UTF_8));
+	}
+
+	private static RecordingConnection createUpToDateDatabase() {
+		final var database = new RecordingConnection();
+		for (final var entry : new ManifestReader(Set.of(DEFAULT_GROUP), getSystemClassLoader()).read()) {
+			database.withSchemaRow(entry.getId(), entry.getMigration().getLatestChecksum());
+		}
+		return database;
+	}
+
+}
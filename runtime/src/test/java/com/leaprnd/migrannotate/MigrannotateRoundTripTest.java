@@ -0,0 +1,301 @@
+package com.leaprnd.migrannotate;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.leaprnd.migrannotate.BlockerAction.NONE;
+import static com.leaprnd.migrannotate.BlockerAction.TERMINATED;
+import static com.leaprnd.migrannotate.CommitStrategy.PER_MIGRATION;
+import static com.leaprnd.migrannotate.Migration.DEFAULT_GROUP;
+import static com.leaprnd.migrannotate.MigrationResult.ALREADY_UP_TO_DATE;
+import static com.leaprnd.migrannotate.MigrationResult.FAILED_TO_LOCK;
+import static com.leaprnd.migrannotate.MigrationResult.MIGRATED;
+import static com.leaprnd.migrannotate.Recipe.RECIPE_GROUP;
+import static java.lang.ClassLoader.getSystemClassLoader;
+import static java.lang.System.nanoTime;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Puts a budget on the number of round trips {@link Migrannotate#migrate()} makes, so that a change which adds one
+ * fails the build instead of quietly slowing down every deployment to a distant database. If a change deliberately
+ * adds (or removes) round trips, update the budget and explain why in the commit.
+ */
+public class MigrannotateRoundTripTest {
+
+	private static final long KNIGHT_ID = 6067387809931810870L;
+	private static final long OLDEST_KNIGHT_CHECKSUM = 1305369197L;
+
+	// Locking and reading the "schema" table, the three phases of all four migrations (including the empty ones), the
+	// two statements of the repeatable schema, recording the checksums, unlocking and the commit of each phase
+	private static final int ROUND_TRIPS_WHEN_DATABASE_IS_EMPTY = 21;
+	// Locking and reading the "schema" table, unlocking and ending the transaction
+	private static final int ROUND_TRIPS_WHEN_ALREADY_UP_TO_DATE = 3;
+	// The same as an empty database, but for one migration (whose upgrades run in one round trip) and its contract
+	private static final int ROUND_TRIPS_WHEN_UPGRADING_ONE_SCHEMA = 13;
+
+	@Test
+	public void testMigrateRoundTripsWhenDatabaseIsEmpty() throws Exception {
+		final var database = new RecordingConnection();
+		assertEquals(MIGRATED, new Migrannotate(database.getConnection()).migrate());
+		verifyRoundTrips(ROUND_TRIPS_WHEN_DATABASE_IS_EMPTY, database);
+	}
+
+	@Test
+	public void testMigrateRoundTripsWhenAlreadyUpToDate() throws Exception {
+		final var database = createUpToDateDatabase();
+		assertEquals(ALREADY_UP_TO_DATE, new Migrannotate(database.getConnection()).migrate());
+		verifyRoundTrips(ROUND_TRIPS_WHEN_ALREADY_UP_TO_DATE, database);
+	}
+
+	@Test
+	public void testMigrateRoundTripsWhenUpgradingOneSchema() throws Exception {
+		final var database = createUpToDateDatabase().withSchemaRow(KNIGHT_ID, OLDEST_KNIGHT_CHECKSUM);
+		assertEquals(MIGRATED, new Migrannotate(database.getConnection()).migrate());
+		verifyRoundTrips(ROUND_TRIPS_WHEN_UPGRADING_ONE_SCHEMA, database);
+		final var upgrade = database.getRoundTrips().stream().filter(sql -> sql.startsWith("ALTER TABLE \"knight\" ADD")).findFirst();
+		assertEquals(1, SQLStatements.split(upgrade.orElseThrow()).size());
+		assertEquals(new ManifestReader(Set.of(DEFAULT_GROUP), getSystemClassLoader()).read().stream()
+			.filter(entry -> entry.getId() == KNIGHT_ID)
+			.findFirst()
+			.orElseThrow()
+			.getMigration()
+			.getLatestChecksum(), database.getChecksumOf(KNIGHT_ID));
+	}
+
+	@Test
+	public void testMigrateSkipsRepeatableObjectsWhoseDefinitionIsUnchanged() throws Exception {
+		final var database = new RecordingConnection()
+			.respond("PG_GET_(?:FUNCTIONDEF|VIEWDEF|TRIGGERDEF)", sql -> List.<Object[]>of(new Object[] {true}));
+		assertEquals(MIGRATED, new Migrannotate(RECIPE_GROUP, database.getConnection()).migrate());
+		final var roundTrips = database.getRoundTrips();
+		assertEquals(4, roundTrips.stream().filter(sql -> sql.startsWith("SAVEPOINT \"repeatable\"")).count());
+		assertTrue(roundTrips.stream().noneMatch(sql -> sql.startsWith("CREATE OR REPLACE")));
+	}
+
+	@Test
+	public void testMigrateReplacesRepeatableObjectsWhenProbeFails() throws Exception {
+		final var database = new RecordingConnection().fail("migrannotateProbe", "42501");
+		assertEquals(MIGRATED, new Migrannotate(RECIPE_GROUP, database.getConnection()).migrate());
+		final var roundTrips = database.getRoundTrips();
+		assertEquals(1, roundTrips.stream().filter(sql -> sql.startsWith("ROLLBACK TO SAVEPOINT \"repeatable\"")).count());
+		assertEquals(1, roundTrips.stream().filter(sql -> sql.startsWith("CREATE OR REPLACE TRIGGER")).count());
+	}
+
+	@Test
+	public void testMigrateRecordsHistoryOncePerStep() throws Exception {
+		for (final var commitStrategy : CommitStrategy.values()) {
+			final var database = new RecordingConnection();
+			final var migrannotate = new Migrannotate(database.getConnection()).setCommitStrategy(commitStrategy).recordHistory();
+			assertEquals(MIGRATED, migrannotate.migrate());
+			final var inserts = database.getRoundTrips().stream().filter(sql -> sql.contains("INSERT INTO \"schemaHistory\"")).toList();
+			assertEquals(commitStrategy == PER_MIGRATION ? 4 : 1, inserts.size(), commitStrategy::name);
+			assertTrue(inserts.stream().noneMatch(sql -> sql.contains("ON CONFLICT")));
+		}
+	}
+
+	@Test
+	public void testFingerprintReferenceRollsBackWhenAutoCommitIsDisabled() throws Exception {
+		final var database = new RecordingConnection();
+		final var connection = database.getConnection();
+		connection.setAutoCommit(false);
+		new Migrannotate(connection).fingerprintReference();
+		final var roundTrips = database.getRoundTrips();
+		assertEquals("ROLLBACK", roundTrips.get(roundTrips.size() - 1));
+		assertFalse(connection.getAutoCommit());
+	}
+
+	@Test
+	public void testMigrateCommitsBeforeAwaitingReplicas() throws Exception {
+		final var database = new RecordingConnection()
+			.respond("pg_stat_replication", sql -> List.<Object[]>of(new Object[] {0L}));
+		final var migrannotate = new Migrannotate(database.getConnection()).setReplicationThrottle(new ReplicationThrottle());
+		assertEquals(MIGRATED, migrannotate.migrate());
+		final var roundTrips = database.getRoundTrips();
+		assertTrue(roundTrips.stream().anyMatch(sql -> sql.contains("pg_stat_replication")));
+		for (var index = 0; index < roundTrips.size(); index ++) {
+			if (roundTrips.get(index).contains("pg_stat_replication")) {
+				assertEquals("COMMIT", roundTrips.get(index - 1), () -> String.join("\n----\n", roundTrips));
+			}
+		}
+	}
+
+	@Test
+	public void testMigrateReportsSlowestStatementsWhenProfiling() throws Exception {
+		final var database = createUpToDateDatabase().withSchemaRow(KNIGHT_ID, OLDEST_KNIGHT_CHECKSUM);
+		final var migrannotate = new Migrannotate(database.getConnection()).profileStatements(3);
+		assertEquals(MIGRATED, migrannotate.migrate());
+		final var report = migrannotate.getLastReport();
+		assertEquals(1, report.getSlowestStatements().size());
+		final var timing = report.getSlowestStatements().get(0);
+		assertEquals(KNIGHT_ID, timing.getId());
+		// The test schemas are compiled without the migrannotate.splitStatements option, so the source is unknown
+		assertNull(timing.getSource());
+		assertEquals(0, timing.getIndex());
+		assertTrue(timing.getStatement().startsWith("ALTER TABLE \"knight\" ADD"));
+	}
+
+	@Test
+	public void testMigrateRoundTripsWhenProfilingEmptyDatabase() throws Exception {
+		final var database = new RecordingConnection();
+		final var migrannotate = new Migrannotate(database.getConnection()).profileStatements(2);
+		assertEquals(MIGRATED, migrannotate.migrate());
+		// Every migration but the repeatable one consists of one statement, so only the empty SQL is skipped
+		verifyRoundTrips(ROUND_TRIPS_WHEN_DATABASE_IS_EMPTY - 1, database);
+		final var slowestStatements = migrannotate.getLastReport().getSlowestStatements();
+		assertEquals(2, slowestStatements.size());
+		assertTrue(slowestStatements.get(0).getDuration().compareTo(slowestStatements.get(1).getDuration()) >= 0);
+	}
+
+	@Test
+	public void testMigrateRunsMaintenanceStageAfterCommitting() throws Exception {
+		final var database = createUpToDateDatabase()
+			.withSchemaRow(KNIGHT_ID, OLDEST_KNIGHT_CHECKSUM)
+			.respond("pg_prewarm\\(", sql -> List.<Object[]>of(new Object[] {"\"knight\"", 42L}, new Object[] {"\"pkKnight\"", 7L}))
+			.respond("TO_REGPROC", sql -> List.<Object[]>of(new Object[] {true}))
+			.respond("n_dead_tup", sql -> List.<Object[]>of(new Object[] {"\"knight\"", 600L, 400L}))
+			.respond("relkind", sql -> List.<Object[]>of(new Object[] {"\"knight\""}));
+		final var migrannotate = new Migrannotate(database.getConnection()).setMaintenanceStage(new MaintenanceStage());
+		assertEquals(MIGRATED, migrannotate.migrate());
+		final var maintenance = migrannotate.getLastReport().getMaintenance();
+		assertNull(maintenance.getFailure());
+		assertEquals(List.of("\"knight\""), maintenance.getAnalyzedRelations());
+		assertEquals(List.of("\"knight\""), maintenance.getVacuumRecommendations());
+		assertEquals(Map.of("\"knight\"", 42L, "\"pkKnight\"", 7L), maintenance.getPrewarmedBlocksByRelation());
+		final var roundTrips = database.getRoundTrips();
+		final var analyze = roundTrips.indexOf("ANALYZE \"knight\";");
+		assertTrue(analyze > roundTrips.indexOf("COMMIT"));
+		assertTrue(analyze < roundTrips.lastIndexOf("COMMIT"));
+		// The advisory lock is released before the maintenance stage runs
+		final var unlock = roundTrips.stream().filter(sql -> sql.contains("pg_advisory_unlock(")).findFirst().orElseThrow();
+		assertTrue(analyze > roundTrips.indexOf(unlock));
+		// Selecting the existing relations, analyzing them, selecting their dead tuples and prewarming the hot ones, with
+		// the commit of the unlock being the one of the maintenance stage
+		verifyRoundTrips(ROUND_TRIPS_WHEN_UPGRADING_ONE_SCHEMA + 5, database);
+	}
+
+	@Test
+	public void testMigrateDiagnosesAndTerminatesHoldersOfContestedLock() throws Exception {
+		final var database = createUpToDateDatabase()
+			.withContestedLocks()
+			.respond("pg_terminate_backend\\(", sql -> List.<Object[]>of(new Object[] {4242, true}))
+			.respond("pg_locks", sql -> List.<Object[]>of(
+				new Object[] {4242, "psql", "idle in transaction", "SELECT 1;", "ExclusiveLock", "advisory lock 1741110310:3148476735", 60_000L}
+			));
+		final var migrannotate = new Migrannotate(database.getConnection())
+			.setLockMonitor(new LockMonitor().terminateBlockers(BlockingSession::isIdleInTransaction));
+		assertEquals(FAILED_TO_LOCK, migrannotate.migrate());
+		final var blockers = migrannotate.getLastReport().getLockDiagnostics().getBlockers();
+		assertEquals(1, blockers.size());
+		assertEquals("psql", blockers.get(0).getApplicationName());
+		assertEquals(TERMINATED, blockers.get(0).getAction());
+		assertTrue(migrannotate.getLastReport().toJson().contains("\"action\":\"TERMINATED\""));
+		// Locking and reading the "schema" table, selecting the blockers, terminating them and ending the transaction
+		verifyRoundTrips(4, database);
+	}
+
+	@Test
+	public void testMigrateDiagnosesHoldersOfRelationLocksWhenTimingOut() throws Exception {
+		final var database = createUpToDateDatabase()
+			.withSchemaRow(KNIGHT_ID, OLDEST_KNIGHT_CHECKSUM)
+			.fail("^ALTER TABLE \"knight\"", LockMonitor.LOCK_NOT_AVAILABLE)
+			.respond("current_setting", sql -> List.<Object[]>of(new Object[] {"0", "5000ms"}))
+			.respond("pg_locks", sql -> List.<Object[]>of(
+				new Object[] {4243, "reporting", "active", "SELECT * FROM \"knight\";", "AccessShareLock", "knight", 90_000L}
+			));
+		final var migrannotate = new Migrannotate(database.getConnection())
+			.setLockMonitor(new LockMonitor().setWaitThreshold(Duration.ofSeconds(5)));
+		final var exception = assertThrows(LockTimeoutException.class, migrannotate::migrate);
+		assertEquals(KNIGHT_ID, exception.getId());
+		final var blocker = exception.getDiagnostics().getBlockers().get(0);
+		assertEquals("knight", blocker.getLockedObject());
+		assertEquals(NONE, blocker.getAction());
+		final var roundTrips = database.getRoundTrips();
+		assertTrue(roundTrips.get(0).contains("set_config('lock_timeout', '5000ms', false)"));
+		assertTrue(roundTrips.stream().anyMatch(sql -> sql.startsWith("SELECT set_config('lock_timeout', '0', false);")));
+	}
+
+	@Test
+	public void testMigratePreAcquiresTableLocksAndRetries() throws Exception {
+		final var database = createUpToDateDatabase()
+			.withSchemaRow(KNIGHT_ID, OLDEST_KNIGHT_CHECKSUM)
+			.fail("^DO \\$lock\\$", LockMonitor.LOCK_NOT_AVAILABLE, 2);
+		final var acquisition = new TableLockAcquisition().setBackoff(Duration.ofMillis(1), Duration.ofMillis(2));
+		final var migrannotate = new Migrannotate(database.getConnection()).setTableLockAcquisition(acquisition);
+		assertEquals(MIGRATED, migrannotate.migrate());
+		final var roundTrips = database.getRoundTrips();
+		final var attempts = roundTrips.stream().filter(sql -> sql.contains("DO $lock$")).toList();
+		assertEquals(4, attempts.size());
+		assertTrue(attempts.get(0).startsWith("SAVEPOINT \"tableLocks\";"));
+		assertTrue(attempts.get(2).startsWith("ROLLBACK TO SAVEPOINT \"tableLocks\";"));
+		assertTrue(attempts.get(2).contains("('\"knight\"', 'ACCESS EXCLUSIVE')"));
+		final var upgrade = roundTrips.indexOf(roundTrips.stream().filter(sql -> sql.startsWith("ALTER TABLE \"knight\" ADD")).findFirst().orElseThrow());
+		assertTrue(roundTrips.indexOf(attempts.get(2)) < upgrade);
+		assertTrue(attempts.get(3).startsWith("SAVEPOINT \"tableLocks\";"));
+		// Three attempts to lock the table upgraded by the SQL and one to lock it again for the contract
+		verifyRoundTrips(ROUND_TRIPS_WHEN_UPGRADING_ONE_SCHEMA + 4, database);
+	}
+
+	@Test
+	public void testMigrateFailsWhenTableLocksRemainUnavailable() throws Exception {
+		final var database = createUpToDateDatabase()
+			.withSchemaRow(KNIGHT_ID, OLDEST_KNIGHT_CHECKSUM)
+			.fail("^DO \\$lock\\$", LockMonitor.LOCK_NOT_AVAILABLE);
+		final var acquisition = new TableLockAcquisition().setAttempts(2).setBackoff(Duration.ZERO, Duration.ZERO);
+		final var migrannotate = new Migrannotate(database.getConnection()).setTableLockAcquisition(acquisition);
+		final var exception = assertThrows(FailedToMigrateException.class, migrannotate::migrate);
+		assertEquals(KNIGHT_ID, exception.getId());
+		assertTrue(database.getRoundTrips().stream().noneMatch(sql -> sql.startsWith("ALTER TABLE \"knight\" ADD")));
+		assertEquals(OLDEST_KNIGHT_CHECKSUM, database.getChecksumOf(KNIGHT_ID));
+	}
+
+	@Test
+	public void testEstimateImpactOnlyReads() throws Exception {
+		final var database = createUpToDateDatabase()
+			.withSchemaRow(KNIGHT_ID, OLDEST_KNIGHT_CHECKSUM)
+			.respond("pg_attribute", sql -> List.<Object[]>of(new Object[] {true, true}));
+		final var estimate = new Migrannotate(database.getConnection()).estimateImpact();
+		assertFalse(estimate.getStatements().isEmpty());
+		assertTrue(estimate.getStatements().stream().allMatch(statement -> statement.getId() == KNIGHT_ID));
+		final var roundTrips = database.getRoundTrips();
+		assertEquals("ROLLBACK", roundTrips.get(roundTrips.size() - 1));
+		for (final var sql : roundTrips.subList(0, roundTrips.size() - 1)) {
+			assertTrue(sql.strip().startsWith("SELECT"), sql);
+		}
+	}
+
+	@Test
+	public void testMigrateIsDominatedByLatency() throws Exception {
+		final var latency = Duration.ofMillis(50);
+		// Warms up the JVM, so that the measured run spends next to nothing on class loading
+		new Migrannotate(createUpToDateDatabase().getConnection()).migrate();
+		final var database = createUpToDateDatabase().withLatency(latency);
+		final var start = nanoTime();
+		new Migrannotate(database.getConnection()).migrate();
+		final var elapsed = Duration.ofNanos(nanoTime() - start);
+		final var waited = latency.multipliedBy(database.getRoundTrips().size());
+		// Everything besides waiting for the database must take less time than a single round trip
+		assertTrue(elapsed.minus(waited).compareTo(latency) < 0, () -> elapsed + " is not dominated by " + waited);
+	}
+
+	private static RecordingConnection createUpToDateDatabase() {
+		final var database = new RecordingConnection();
+		for (final var entry : new ManifestReader(Set.of(DEFAULT_GROUP), getSystemClassLoader()).read()) {
+			database.withSchemaRow(entry.getId(), entry.getMigration().getLatestChecksum());
+		}
+		return database;
+	}
+
+	private static void verifyRoundTrips(int expected, RecordingConnection database) {
+		final var roundTrips = database.getRoundTrips();
+		assertEquals(expected, roundTrips.size(), () -> String.join("\n----\n", roundTrips));
+	}
+
+}
@@ -5,14 +5,35 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.sql.Connection;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import static com.leaprnd.migrannotate.CommitStrategy.PER_MIGRATION;
+import static com.leaprnd.migrannotate.CommitStrategy.SINGLE_TRANSACTION;
+import static com.leaprnd.migrannotate.Impact.SCAN;
+import static com.leaprnd.migrannotate.LockStrategy.GROUP;
+import static com.leaprnd.migrannotate.LockStrategy.SCHEMA;
+import static com.leaprnd.migrannotate.Migration.DEFAULT_GROUP;
 import static com.leaprnd.migrannotate.MigrationResult.ALREADY_UP_TO_DATE;
+import static com.leaprnd.migrannotate.MigrationResult.BASELINED;
+import static com.leaprnd.migrannotate.MigrationResult.FAILED_TO_LOCK;
 import static com.leaprnd.migrannotate.MigrationResult.MIGRATED;
 import static com.leaprnd.migrannotate.Person.PERSON_GROUP;
+import static com.leaprnd.migrannotate.Phase.CONTRACT;
+import static com.leaprnd.migrannotate.Phase.EXPAND;
+import static com.leaprnd.migrannotate.Recipe.RECIPE_GROUP;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -30,6 +51,7 @@ public abstract class MigrannotateTest {
 	}
 
 	protected static Connection connection;
+	protected static Connection otherConnection;
 
 	@BeforeEach
 	public void lock() {
@@ -43,6 +65,19 @@ public abstract class MigrannotateTest {
 		verifyDefaultSchema();
 	}
 
+	@Test
+	public void testMigrateAsyncSuccessWhenDatabaseIsEmpty() throws Exception {
+		final var executor = newFixedThreadPool(2);
+		try {
+			final var gate = new MigrationGate(new Migrannotate(connection).migrateAsync(executor));
+			assertEquals(MIGRATED, gate.await());
+			assertTrue(gate.isOpen());
+		} finally {
+			executor.shutdown();
+		}
+		verifyDefaultSchema();
+	}
+
 	@Test
 	public void testMigrateSuccessWhenSchemaTableIsEmpty() throws Exception {
 		try (final var statement = connection.createStatement()) {
@@ -79,6 +114,58 @@ public abstract class MigrannotateTest {
 		verifyDefaultSchema();
 	}
 
+	@Test
+	public void testMigrateExpandDefersContractOfUpgrade() throws Exception {
+		try (final var statement = connection.createStatement()) {
+			statement.executeUpdate("""
+				CREATE TABLE "knight" (
+					"id" BIGINT NOT NULL GENERATED ALWAYS AS IDENTITY,
+					"name" VARCHAR NOT NULL,
+					"title" VARCHAR,
+					CONSTRAINT "pkKnight" PRIMARY KEY ("id")
+				);
+				CREATE TABLE "schema" (
+					"id" BIGINT NOT NULL PRIMARY KEY,
+					"checksum" BIGINT NOT NULL
+				);
+				INSERT INTO "schema" ("id", "checksum") VALUES (6067387809931810870, 1759279540);
+				""");
+		}
+		final var migrannotate = new Migrannotate(connection);
+		assertEquals(MIGRATED, migrannotate.migrate(EXPAND));
+		assertTrue(doesColumnExist("knight", "title"));
+		assertEquals(ALREADY_UP_TO_DATE, migrannotate.migrate(EXPAND));
+		assertEquals(MIGRATED, migrannotate.migrate(CONTRACT));
+		assertFalse(doesColumnExist("knight", "title"));
+		assertEquals(ALREADY_UP_TO_DATE, migrannotate.migrate(CONTRACT));
+		assertEquals(ALREADY_UP_TO_DATE, migrannotate.migrate());
+		verifyDefaultSchema();
+	}
+
+	@Test
+	public void testMigrateRunsContractOfUpgradeImmediately() throws Exception {
+		try (final var statement = connection.createStatement()) {
+			statement.executeUpdate("""
+				CREATE TABLE "knight" (
+					"id" BIGINT NOT NULL GENERATED ALWAYS AS IDENTITY,
+					"name" VARCHAR NOT NULL,
+					"title" VARCHAR,
+					CONSTRAINT "pkKnight" PRIMARY KEY ("id")
+				);
+				CREATE TABLE "schema" (
+					"id" BIGINT NOT NULL PRIMARY KEY,
+					"checksum" BIGINT NOT NULL
+				);
+				INSERT INTO "schema" ("id", "checksum") VALUES (6067387809931810870, 1759279540);
+				""");
+		}
+		final var migrannotate = new Migrannotate(connection);
+		assertEquals(MIGRATED, migrannotate.migrate());
+		assertFalse(doesColumnExist("knight", "title"));
+		assertEquals(ALREADY_UP_TO_DATE, migrannotate.migrate(CONTRACT));
+		verifyDefaultSchema();
+	}
+
 	@Test
 	public void testMigrateSuccessWhenSchemaIsBehindByTwoUpgrades() throws Exception {
 		try (final var statement = connection.createStatement()) {
@@ -209,7 +296,325 @@ public abstract class MigrannotateTest {
 		assertThrows(FailedToMigrateException.class, migrannotate::migrate);
 	}
 
+	@Test
+	public void testMigrateConcurrentlyWhenGroupsAreDisjoint() throws Exception {
+		final var executor = newFixedThreadPool(2);
+		try {
+			final var defaultGroup = new Migrannotate(connection).setLockStrategy(GROUP).migrateAsync(executor);
+			final var personGroup = new Migrannotate(PERSON_GROUP, otherConnection).setLockStrategy(GROUP).migrateAsync(executor);
+			assertEquals(MIGRATED, defaultGroup.join());
+			assertEquals(MIGRATED, personGroup.join());
+		} finally {
+			executor.shutdown();
+		}
+		verifyDefaultTables();
+		verifyPersonTables();
+	}
+
+	@Test
+	public void testMigrateManyGroupsSuccessWhenDatabaseIsEmpty() throws Exception {
+		final var migrannotate = new Migrannotate(Set.of(DEFAULT_GROUP, PERSON_GROUP), connection);
+		assertEquals(MIGRATED, migrannotate.migrate());
+		verifyDefaultTables();
+		verifyPersonTables();
+		assertEquals(ALREADY_UP_TO_DATE, migrannotate.migrate());
+		assertEquals(ALREADY_UP_TO_DATE, new Migrannotate(connection).migrate());
+		assertEquals(ALREADY_UP_TO_DATE, new Migrannotate(PERSON_GROUP, connection).migrate());
+	}
+
+	@Test
+	public void testMigrateManyGroupsRecordsGroupOfEachSchema() throws Exception {
+		new Migrannotate(Set.of(DEFAULT_GROUP, PERSON_GROUP), connection).migrate();
+		final var sql = """
+			SELECT "group", COUNT(*) FROM "schema" GROUP BY "group" ORDER BY "group";
+			""";
+		try (final var statement = connection.createStatement()) {
+			try (final var results = statement.executeQuery(sql)) {
+				assertTrue(results.next());
+				assertEquals(DEFAULT_GROUP, results.getString(1));
+				assertEquals(4, results.getInt(2));
+				assertTrue(results.next());
+				assertEquals(PERSON_GROUP, results.getString(1));
+				assertEquals(1, results.getInt(2));
+				assertFalse(results.next());
+			}
+		}
+	}
+
+	@Test
+	public void testMigrateSuccessWhenLockingEachSchema() throws Exception {
+		final var migrannotate = new Migrannotate(connection).setLockStrategy(SCHEMA);
+		assertEquals(MIGRATED, migrannotate.migrate());
+		verifyDefaultSchema();
+		assertEquals(ALREADY_UP_TO_DATE, migrannotate.migrate());
+	}
+
+	@Test
+	public void testMigrateFailureWhenSchemaIsLockedBySomeoneElse() throws Exception {
+		final var id = -8388116365589044375L;
+		try (final var statement = otherConnection.createStatement()) {
+			statement.execute("SELECT pg_advisory_lock(%d, %d)".formatted(id >> 32, (int) id));
+		}
+		try {
+			assertEquals(FAILED_TO_LOCK, new Migrannotate(connection).setLockStrategy(SCHEMA).migrate());
+		} finally {
+			try (final var statement = otherConnection.createStatement()) {
+				statement.execute("SELECT pg_advisory_unlock_all()");
+			}
+		}
+		verifyTableDoesNotExist("apple");
+	}
+
+	@Test
+	public void testMigrateSkipsRepeatableObjectsWhoseDefinitionIsUnchanged() throws Exception {
+		final var migrannotate = new Migrannotate(RECIPE_GROUP, connection);
+		assertEquals(MIGRATED, migrannotate.migrate());
+		final var functionVersion = readVersionOf("pg_proc", "proname", "recipeName");
+		final var viewVersion = readVersionOf("pg_rewrite", "rulename", "_RETURN");
+		final var triggerVersion = readVersionOf("pg_trigger", "tgname", "trimRecipeName");
+		invalidateRepeatableChecksumOfRecipe();
+		assertEquals(MIGRATED, migrannotate.migrate());
+		assertEquals(functionVersion, readVersionOf("pg_proc", "proname", "recipeName"));
+		assertEquals(viewVersion, readVersionOf("pg_rewrite", "rulename", "_RETURN"));
+		assertEquals(triggerVersion, readVersionOf("pg_trigger", "tgname", "trimRecipeName"));
+	}
+
+	@Test
+	public void testMigrateReplacesRepeatableObjectsWhoseDefinitionHasChanged() throws Exception {
+		final var migrannotate = new Migrannotate(RECIPE_GROUP, connection);
+		assertEquals(MIGRATED, migrannotate.migrate());
+		try (final var statement = connection.createStatement()) {
+			statement.executeUpdate("""
+				CREATE OR REPLACE FUNCTION "recipeName"(P "recipe") RETURNS VARCHAR AS $$
+					SELECT UPPER(P."name");
+				$$ LANGUAGE SQL IMMUTABLE;
+				""");
+		}
+		final var functionVersion = readVersionOf("pg_proc", "proname", "recipeName");
+		invalidateRepeatableChecksumOfRecipe();
+		assertEquals(MIGRATED, migrannotate.migrate());
+		assertNotEquals(functionVersion, readVersionOf("pg_proc", "proname", "recipeName"));
+		try (final var statement = connection.createStatement()) {
+			try (final var results = statement.executeQuery("SELECT \"recipeName\"(ROW(1, 'Pie')::\"recipe\")")) {
+				assertTrue(results.next());
+				assertEquals("Pie", results.getString(1));
+			}
+		}
+	}
+
+	private void invalidateRepeatableChecksumOfRecipe() throws Exception {
+		try (final var statement = connection.createStatement()) {
+			statement.executeUpdate("""
+				UPDATE "schema" SET "checksum" = "checksum" # (1::BIGINT << 32) WHERE "id" = 6984407045437651407;
+				""");
+		}
+	}
+
+	private String readVersionOf(String catalog, String column, String name) throws Exception {
+		final var sql = "SELECT STRING_AGG(xmin::TEXT, ',') FROM %s WHERE %s = ?".formatted(catalog, column);
+		try (final var statement = connection.prepareStatement(sql)) {
+			statement.setString(1, name);
+			try (final var results = statement.executeQuery()) {
+				assertTrue(results.next());
+				return results.getString(1);
+			}
+		}
+	}
+
+	@Test
+	public void testMigrateNotifiesSubscribersOfChangedSchemas() throws Exception {
+		final var changes = new CompletableFuture<Map<Long, Long>>();
+		final SchemaChangeListener listener = changes::complete;
+		try (final var subscription = SchemaChangeSubscription.subscribe(otherConnection, "schemaChanges", listener)) {
+			assertEquals(MIGRATED, new Migrannotate(PERSON_GROUP, connection).notifyOn("schemaChanges").migrate());
+			final var checksumsById = changes.get(10, SECONDS);
+			assertEquals(1, checksumsById.size());
+			assertTrue(checksumsById.containsKey(936908912751334464L));
+		}
+	}
+
+	@Test
+	public void testEstimateImpactFindsStatementsThatScanExistingTables() throws Exception {
+		createKnightAwaitingFavorites();
+		final var estimate = new Migrannotate(connection).estimateImpact();
+		final var scans = estimate.getStatements().stream().filter(statement -> statement.getImpact() == SCAN).toList();
+		assertEquals(1, scans.size());
+		assertEquals(6067387809931810870L, scans.get(0).getId());
+		assertEquals("\"knight\"", scans.get(0).getRelations().get(0));
+		assertEquals(1, scans.get(0).getRows());
+		assertTrue(estimate.getScannedBytes() > 0);
+		assertEquals(0, estimate.getRewrittenBytes());
+		verifyTableDoesNotExist("apple");
+	}
+
+	@Test
+	public void testMigrateFailureWhenImpactBudgetIsExceeded() throws Exception {
+		createKnightAwaitingFavorites();
+		final var migrannotate = new Migrannotate(connection).setImpactBudget(new ImpactBudget().setMaximumScannedBytes(0));
+		final var exception = assertThrows(ImpactBudgetExceededException.class, migrannotate::migrate);
+		assertEquals(1, exception.getViolations().size());
+		verifyTableDoesNotExist("apple");
+	}
+
+	private static void createKnightAwaitingFavorites() throws Exception {
+		try (final var statement = connection.createStatement()) {
+			statement.executeUpdate("""
+				CREATE TABLE "knight" (
+					"id" BIGINT NOT NULL GENERATED ALWAYS AS IDENTITY,
+					"name" VARCHAR NOT NULL,
+					CONSTRAINT "pkKnight" PRIMARY KEY ("id")
+				);
+				INSERT INTO "knight" ("name") VALUES ('Lancelot');
+				ANALYZE "knight";
+				CREATE TABLE "schema" (
+					"id" BIGINT NOT NULL PRIMARY KEY,
+					"checksum" BIGINT NOT NULL
+				);
+				INSERT INTO "schema" ("id", "checksum") VALUES (6067387809931810870, 1759279540);
+				""");
+		}
+	}
+
+	@Test
+	public void testMigrateThrottlesWhileReplicasAreLagging() throws Exception {
+		final var calls = new AtomicInteger();
+		final ReplicationLagProvider lagProvider = ignored -> calls.incrementAndGet() <= 3 ? Duration.ofMinutes(1) : Duration.ZERO;
+		final var throttle = new ReplicationThrottle()
+			.setMaximumLag(Duration.ofSeconds(1))
+			.setInitialBackoff(Duration.ofMillis(1))
+			.setLagProvider(lagProvider);
+		final var migrannotate = new Migrannotate(connection).setReplicationThrottle(throttle);
+		assertEquals(MIGRATED, migrannotate.migrate());
+		final var report = migrannotate.getLastReport();
+		assertEquals(MIGRATED, report.getResult());
+		assertEquals(1, report.getThrottles());
+		assertTrue(report.getThrottleTime().toNanos() > 0);
+		verifyDefaultSchema();
+	}
+
+	@Test
+	public void testMigrateSuccessWhenPlanIsMemoized() throws Exception {
+		final var first = new Migrannotate(connection).memoizePlans();
+		assertEquals(MIGRATED, first.migrate());
+		verifyDefaultSchema();
+		cleanUp();
+		final var second = new Migrannotate(connection).memoizePlans();
+		assertEquals(MIGRATED, second.migrate());
+		verifyDefaultSchema();
+		// Both instances share the plan of an empty database instead of rendering it again
+		final var plan = first.createSqlWriters(new LongLongMap());
+		assertFalse(plan.isEmpty());
+		assertSame(plan, second.createSqlWriters(new LongLongMap()));
+		assertNotSame(plan, new Migrannotate(connection).createSqlWriters(new LongLongMap()));
+	}
+
+	@Test
+	public void testMigrateRecordsHistoryWhenSuccessful() throws Exception {
+		final var migrannotate = new Migrannotate(connection).recordHistory();
+		assertEquals(MIGRATED, migrannotate.migrate());
+		assertEquals(4, countHistoryRows("SUCCEEDED"));
+		assertEquals(ALREADY_UP_TO_DATE, migrannotate.migrate());
+		assertEquals(4, countHistoryRows("SUCCEEDED"));
+	}
+
+	@Test
+	public void testMigrateRecordsHistoryWhenUpgradeIsBroken() throws Exception {
+		createKnightAndJediAwaitingBrokenUpgrade();
+		final var migrannotate = new Migrannotate(connection).recordHistory();
+		assertThrows(FailedToMigrateException.class, migrannotate::migrate);
+		assertEquals(1, countHistoryRows("FAILED"));
+		assertEquals(0, countHistoryRows("SUCCEEDED"));
+	}
+
+	@Test
+	public void testMigrateKeepsEarlierMigrationsWhenCommittingPerMigration() throws Exception {
+		createKnightAndJediAwaitingBrokenUpgrade();
+		final var migrannotate = new Migrannotate(connection).setCommitStrategy(PER_MIGRATION).recordHistory();
+		assertThrows(FailedToMigrateException.class, migrannotate::migrate);
+		assertTrue(doesColumnExist("knight", "favoriteApple"));
+		assertEquals(3, countHistoryRows("SUCCEEDED"));
+		assertEquals(1, countHistoryRows("FAILED"));
+	}
+
+	@Test
+	public void testMigrateChangesNothingWhenUpgradeIsBrokenInSingleTransaction() throws Exception {
+		createKnightAndJediAwaitingBrokenUpgrade();
+		final var migrannotate = new Migrannotate(connection).setCommitStrategy(SINGLE_TRANSACTION);
+		assertThrows(FailedToMigrateException.class, migrannotate::migrate);
+		assertFalse(doesColumnExist("knight", "name"));
+		verifyTableDoesNotExist("apple");
+	}
+
+	private static void createKnightAndJediAwaitingBrokenUpgrade() throws Exception {
+		try (final var statement = connection.createStatement()) {
+			statement.executeUpdate("""
+				CREATE TABLE "knight" (
+					"id" BIGINT NOT NULL GENERATED ALWAYS AS IDENTITY,
+					CONSTRAINT "pkKnight" PRIMARY KEY ("id")
+				);
+				CREATE TABLE "jedi" (
+					"knight" BIGINT NOT NULL,
+					CONSTRAINT "pkJedi" PRIMARY KEY ("knight"),
+					CONSTRAINT "fkJediKnight" FOREIGN KEY ("knight") REFERENCES "knight" ("id") ON UPDATE CASCADE ON DELETE CASCADE
+				);
+				CREATE TABLE "schema" (
+					"id" BIGINT NOT NULL PRIMARY KEY,
+					"checksum" BIGINT NOT NULL
+				);
+				INSERT INTO "schema" ("id", "checksum") VALUES
+					(6067387809931810870, 1305369197),
+					(5399356631421331000, 242734274);
+				""");
+		}
+	}
+
+	private long countHistoryRows(String outcome) throws Exception {
+		final var sql = """
+			SELECT COUNT(*) FROM "schemaHistory" WHERE "outcome" = ?;
+			""";
+		try (final var statement = connection.prepareStatement(sql)) {
+			statement.setString(1, outcome);
+			try (final var results = statement.executeQuery()) {
+				assertTrue(results.next());
+				return results.getLong(1);
+			}
+		}
+	}
+
+	@Test
+	public void testBaselineSuccessWhenCatalogMatchesReference() throws Exception {
+		final var migrannotate = new Migrannotate(connection);
+		assertEquals(MIGRATED, migrannotate.migrate());
+		try (final var statement = connection.createStatement()) {
+			statement.executeUpdate("""
+				DELETE FROM "schema";
+				""");
+		}
+		assertEquals(BASELINED, migrannotate.baseline());
+		assertEquals(ALREADY_UP_TO_DATE, migrannotate.migrate());
+		assertTrue(migrannotate.findDrift(migrannotate.fingerprintReference()).isEmpty());
+		verifyDefaultSchema();
+	}
+
+	@Test
+	public void testBaselineFailureWhenCatalogHasDrifted() throws Exception {
+		final var migrannotate = new Migrannotate(connection);
+		assertEquals(MIGRATED, migrannotate.migrate());
+		try (final var statement = connection.createStatement()) {
+			statement.executeUpdate("""
+				DELETE FROM "schema";
+				ALTER TABLE "apple" DROP COLUMN "name";
+				""");
+		}
+		assertThrows(CatalogDriftException.class, migrannotate::baseline);
+	}
+
 	private void verifyDefaultSchema() throws Exception {
+		verifyDefaultTables();
+		verifyTableDoesNotExist("person");
+	}
+
+	private void verifyDefaultTables() throws Exception {
 		final var sql = """
 			WITH A AS (
 				INSERT INTO "apple" (
@@ -254,7 +659,6 @@ public abstract class MigrannotateTest {
 				assertFalse(results.next());
 			}
 		}
-		verifyTableDoesNotExist("person");
 	}
 
 	@Test
@@ -345,6 +749,11 @@ public abstract class MigrannotateTest {
 	}
 
 	private void verifyPersonSchema() throws Exception {
+		verifyPersonTables();
+		verifyTableDoesNotExist("apple");
+	}
+
+	private void verifyPersonTables() throws Exception {
 		final var sql = """
 			INSERT INTO "person" (
 				"favoriteColor",
@@ -357,7 +766,24 @@ public abstract class MigrannotateTest {
 		try (final var statement = connection.prepareStatement(sql)) {
 			assertEquals(1, statement.executeUpdate());
 		}
-		verifyTableDoesNotExist("apple");
+	}
+
+	private boolean doesColumnExist(String tableName, String columnName) throws Exception {
+		final var sql = """
+			SELECT TRUE FROM
+				information_schema.columns
+			WHERE
+				table_schema = 'public' AND
+				table_name = ? AND
+				column_name = ?;
+			""";
+		try (final var statement = connection.prepareStatement(sql)) {
+			statement.setString(1, tableName);
+			statement.setString(2, columnName);
+			try (final var results = statement.executeQuery()) {
+				return results.next();
+			}
+		}
 	}
 
 	private void verifyTableDoesNotExist(String tableName) throws Exception {
@@ -10,11 +10,12 @@ import static org.testcontainers.jdbc.ContainerDatabaseDriver.killContainer;
 
 public class PostgreSQLMigrannotateTest extends MigrannotateTest {
 
-	private static final String URL = "jdbc:tc:postgresql:13.3:///migrannotate";
+	private static final String URL = "jdbc:tc:postgresql:14.5:///migrannotate";
 
 	@BeforeAll
 	public static void startDatabase() throws SQLException {
 		connection = DriverManager.getConnection(URL);
+		otherConnection = DriverManager.getConnection(URL);
 	}
 
 	@AfterAll
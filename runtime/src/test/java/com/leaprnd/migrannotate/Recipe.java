@@ -0,0 +1,29 @@
+package com.leaprnd.migrannotate;
+
+import static com.leaprnd.migrannotate.Recipe.RECIPE_GROUP;
+
+@SchemaIdentifier(6984407045437651407L)
+@SchemaGroup(RECIPE_GROUP)
+@Schema("""
+CREATE TABLE "recipe" (
+	"id" BIGINT NOT NULL GENERATED ALWAYS AS IDENTITY,
+	"name" VARCHAR NOT NULL,
+	CONSTRAINT "pkRecipe" PRIMARY KEY ("id")
+);
+""")
+@RepeatableSchema("""
+CREATE OR REPLACE FUNCTION "recipeName"(P "recipe") RETURNS VARCHAR AS $$
+	SELECT P."name";
+$$ LANGUAGE SQL IMMUTABLE;
+CREATE OR REPLACE VIEW "recipeNames" AS SELECT "recipeName"(R) AS "name" FROM "recipe" AS R;
+CREATE OR REPLACE FUNCTION "trimRecipeName"() RETURNS TRIGGER AS $$
+BEGIN
+	NEW."name" := TRIM(NEW."name");
+	RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+CREATE OR REPLACE TRIGGER "trimRecipeName" BEFORE INSERT OR UPDATE ON "recipe" FOR EACH ROW EXECUTE FUNCTION "trimRecipeName"();
+""")
+public class Recipe {
+	public static final String RECIPE_GROUP = "recipe";
+}
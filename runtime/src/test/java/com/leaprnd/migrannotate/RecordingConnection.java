@@ -0,0 +1,342 @@
+package com.leaprnd.migrannotate;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import static java.util.regex.Pattern.CASE_INSENSITIVE;
+
+/**
+ * An in-process stand-in for a PostgreSQL {@link Connection} that records every round trip a real driver would make
+ * (each {@code execute}, each batch and each {@code COMMIT} or {@code ROLLBACK} of an open transaction), so that tests
+ * can put a budget on them without a database. Advisory locks are granted unless {@linkplain #withContestedLocks()
+ * contested} and the {@code "schema"} table is served from (and updated in) memory. Every other {@code SELECT} returns
+ * the rows of the first matching {@linkplain #respond(String, Function) response}, or no rows at all, and statements
+ * matching a {@linkplain #fail(String, String) failure} (or anything but a query while read-only) throw.
+ */
+final class RecordingConnection {
+
+	private static final Pattern QUERY = Pattern.compile("^\\s*(?:SELECT|WITH|VALUES|SHOW)\\b", CASE_INSENSITIVE);
+	private static final Pattern TRY_LOCK = Pattern.compile("\\bpg_try_advisory_lock\\(([^)]*)\\)");
+	private static final Pattern UNLOCK = Pattern.compile("\\bpg_advisory_unlock\\(([^)]*)\\)");
+	private static final Pattern SELECT_SCHEMA_ROWS = Pattern.compile("^\\s*SELECT \"id\", \"checksum\", \"contract\" FROM \"schema\"");
+	private static final Pattern UPSERT_SCHEMA_ROW = Pattern.compile("^\\s*INSERT INTO \"schema\"");
+	private static final Pattern DELETE_SCHEMA_ROW = Pattern.compile("^\\s*DELETE FROM \"schema\"");
+
+	private final List<String> roundTrips = new ArrayList<>();
+	private final List<Response> responses = new ArrayList<>();
+	private final List<Failure> failures = new ArrayList<>();
+	private final TreeMap<Long, Object[]> schemaRowsById = new TreeMap<>();
+	private final Connection connection;
+	private Duration latency = Duration.ZERO;
+	private boolean autoCommit = true;
+	private boolean inTransaction = false;
+	private boolean readOnly = false;
+	private boolean locksContested = false;
+	private ConcurrentMap<String, RecordingConnection> advisoryLocks = null;
+
+	RecordingConnection() {
+		connection = proxy(Connection.class, this::invokeOnConnection);
+	}
+
+	Connection getConnection() {
+		return connection;
+	}
+
+	RecordingConnection withLatency(Duration latency) {
+		this.latency = latency;
+		return this;
+	}
+
+	RecordingConnection withSchemaRow(long id, long checksum) {
+		schemaRowsById.put(id, new Object[] {id, checksum, null});
+		return this;
+	}
+
+	RecordingConnection respond(String regex, Function<String, List<Object[]>> rows) {
+		responses.add(new Response(Pattern.compile(regex, CASE_INSENSITIVE), rows));
+		return this;
+	}
+
+	RecordingConnection withContestedLocks() {
+		locksContested = true;
+		return this;
+	}
+
+	/**
+	 * Only grants an advisory lock if no other connection sharing the {@code advisoryLocks} holds it, as if they were
+	 * sessions of the same database.
+	 */
+	RecordingConnection sharingAdvisoryLocks(ConcurrentMap<String, RecordingConnection> advisoryLocks) {
+		this.advisoryLocks = advisoryLocks;
+		return this;
+	}
+
+	RecordingConnection fail(String regex, String sqlState) {
+		return fail(regex, sqlState, Integer.MAX_VALUE);
+	}
+
+	RecordingConnection fail(String regex, String sqlState, int times) {
+		failures.add(new Failure(Pattern.compile(regex, CASE_INSENSITIVE), sqlState, new int[] {times}));
+		return this;
+	}
+
+	List<String> getRoundTrips() {
+		return roundTrips;
+	}
+
+	long getChecksumOf(long id) {
+		final var row = schemaRowsById.get(id);
+		return row == null ? Migration.EMPTY_CHECKSUM : (long) row[1];
+	}
+
+	private void roundTrip(String sql) {
+		roundTrips.add(sql);
+		if (!latency.isZero()) {
+			try {
+				Thread.sleep(latency.toMillis(), latency.toNanosPart() % 1_000_000);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void beginIfNeeded() {
+		if (!autoCommit) {
+			inTransaction = true;
+		}
+	}
+
+	private void endTransaction(String sql) {
+		if (inTransaction) {
+			roundTrip(sql);
+			inTransaction = false;
+		}
+	}
+
+	private Object invokeOnConnection(Method method, Object[] arguments) {
+		return switch (method.getName()) {
+			case "createStatement" -> proxy(Statement.class, new RecordingStatement(null));
+			case "prepareStatement" -> proxy(PreparedStatement.class, new RecordingStatement((String) arguments[0]));
+			case "getAutoCommit" -> autoCommit;
+			case "setAutoCommit" -> {
+				if ((boolean) arguments[0] && !autoCommit) {
+					endTransaction("COMMIT");
+				}
+				autoCommit = (boolean) arguments[0];
+				yield null;
+			}
+			case "commit" -> {
+				endTransaction("COMMIT");
+				yield null;
+			}
+			case "rollback" -> {
+				if (arguments == null) {
+					endTransaction("ROLLBACK");
+				} else {
+					roundTrip("ROLLBACK TO SAVEPOINT");
+				}
+				yield null;
+			}
+			case "setSavepoint" -> {
+				beginIfNeeded();
+				roundTrip("SAVEPOINT");
+				yield proxy(Savepoint.class, (ignored, alsoIgnored) -> {
+					throw new UnsupportedOperationException();
+				});
+			}
+			case "releaseSavepoint" -> {
+				roundTrip("RELEASE SAVEPOINT");
+				yield null;
+			}
+			case "isReadOnly" -> readOnly;
+			case "setReadOnly" -> {
+				readOnly = (boolean) arguments[0];
+				yield null;
+			}
+			case "createArrayOf" -> proxy(Array.class, (ignored, alsoIgnored) -> arguments[1]);
+			case "isClosed" -> false;
+			case "close" -> null;
+			default -> throw new UnsupportedOperationException(method.toString());
+		};
+	}
+
+	private List<Object[]> select(String sql) {
+		if (TRY_LOCK.matcher(sql).find() || UNLOCK.matcher(sql).find()) {
+			final var trying = TRY_LOCK.matcher(sql).find();
+			final var matcher = (trying ? TRY_LOCK : UNLOCK).matcher(sql);
+			final var row = new ArrayList<Object>();
+			while (matcher.find()) {
+				row.add(trying ? tryLock(matcher.group(1)) : unlock(matcher.group(1)));
+			}
+			return List.<Object[]>of(row.toArray());
+		}
+		if (SELECT_SCHEMA_ROWS.matcher(sql).find()) {
+			return new ArrayList<>(schemaRowsById.values());
+		}
+		for (final var response : responses) {
+			if (response.pattern().matcher(sql).find()) {
+				return response.rows().apply(sql);
+			}
+		}
+		return List.of();
+	}
+
+	private boolean tryLock(String key) {
+		if (locksContested) {
+			return false;
+		}
+		if (advisoryLocks == null) {
+			return true;
+		}
+		final var holder = advisoryLocks.putIfAbsent(key, this);
+		return holder == null || holder == this;
+	}
+
+	private boolean unlock(String key) {
+		return advisoryLocks == null || advisoryLocks.remove(key, this);
+	}
+
+	private int update(String sql, Object[] parameters) {
+		if (UPSERT_SCHEMA_ROW.matcher(sql).find()) {
+			schemaRowsById.put((long) parameters[1], new Object[] {parameters[1], parameters[2], parameters[4]});
+			return 1;
+		}
+		if (DELETE_SCHEMA_ROW.matcher(sql).find()) {
+			return schemaRowsById.remove((long) parameters[1]) == null ? 0 : 1;
+		}
+		return sql.strip().startsWith("UPDATE \"schema\"") ? 1 : 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <X> X proxy(Class<X> type, Invocation invocation) {
+		final InvocationHandler handler = (proxy, method, arguments) -> switch (method.getName()) {
+			case "hashCode" -> System.identityHashCode(proxy);
+			case "equals" -> proxy == arguments[0];
+			case "toString" -> type.getSimpleName() + '@' + Integer.toHexString(System.identityHashCode(proxy));
+			default -> invocation.invoke(method, arguments);
+		};
+		return (X) Proxy.newProxyInstance(RecordingConnection.class.getClassLoader(), new Class<?>[] {type}, handler);
+	}
+
+	@FunctionalInterface
+	private interface Invocation {
+		Object invoke(Method method, Object[] arguments) throws Exception;
+	}
+
+	private record Response(Pattern pattern, Function<String, List<Object[]>> rows) {}
+
+	private record Failure(Pattern pattern, String sqlState, int[] remaining) {}
+
+	private final class RecordingStatement implements Invocation {
+
+		private final String preparedSql;
+		private final Object[] parameters = new Object[16];
+		private final List<Object[]> batch = new ArrayList<>();
+		private final ArrayDeque<Object> results = new ArrayDeque<>();
+
+		RecordingStatement(String preparedSql) {
+			this.preparedSql = preparedSql;
+		}
+
+		@Override
+		public Object invoke(Method method, Object[] arguments) throws SQLException {
+			return switch (method.getName()) {
+				case "execute" -> execute(arguments == null ? preparedSql : (String) arguments[0]);
+				case "executeQuery" -> {
+					execute(arguments == null ? preparedSql : (String) arguments[0]);
+					yield results.peekFirst();
+				}
+				case "executeUpdate" -> {
+					execute(arguments == null ? preparedSql : (String) arguments[0]);
+					yield results.peekFirst() instanceof final Integer count ? count : 0;
+				}
+				case "getResultSet" -> results.peekFirst() instanceof final ResultSet resultSet ? resultSet : null;
+				case "getUpdateCount" -> results.peekFirst() instanceof final Integer count ? count : -1;
+				case "getMoreResults" -> {
+					results.pollFirst();
+					yield results.peekFirst() instanceof ResultSet;
+				}
+				case "setLong", "setString", "setInt", "setBoolean", "setObject", "setArray", "setTimestamp", "setNull" -> {
+					parameters[(int) arguments[0]] = method.getName().equals("setNull") ? null : arguments[1];
+					yield null;
+				}
+				case "addBatch" -> {
+					batch.add(parameters.clone());
+					yield null;
+				}
+				case "executeBatch" -> {
+					beginIfNeeded();
+					roundTrip(preparedSql);
+					final var counts = new int[batch.size()];
+					for (var index = 0; index < counts.length; index ++) {
+						counts[index] = update(preparedSql, batch.get(index));
+					}
+					batch.clear();
+					yield counts;
+				}
+				case "setQueryTimeout", "setFetchSize", "clearParameters", "close" -> null;
+				case "isClosed" -> false;
+				default -> throw new UnsupportedOperationException(method.toString());
+			};
+		}
+
+		private boolean execute(String sql) throws SQLException {
+			beginIfNeeded();
+			roundTrip(sql);
+			results.clear();
+			for (final var statement : SQLStatements.split(sql)) {
+				for (final var failure : failures) {
+					if (failure.remaining()[0] > 0 && failure.pattern().matcher(statement).find()) {
+						failure.remaining()[0] --;
+						throw new SQLException("Failed to execute " + statement, failure.sqlState());
+					}
+				}
+				if (QUERY.matcher(SQLStatements.mask(statement)).find()) {
+					results.add(resultSetOf(select(statement)));
+				} else if (readOnly) {
+					throw new SQLException("Cannot execute " + statement + " in a read-only transaction", "25006");
+				} else {
+					results.add(preparedSql == null ? 0 : update(statement, parameters));
+				}
+			}
+			return results.peekFirst() instanceof ResultSet;
+		}
+
+	}
+
+	private static ResultSet resultSetOf(List<Object[]> rows) {
+		final Iterator<Object[]> iterator = rows.iterator();
+		final var current = new Object[1][];
+		return proxy(ResultSet.class, (method, arguments) -> switch (method.getName()) {
+			case "next" -> {
+				current[0] = iterator.hasNext() ? iterator.next() : null;
+				yield current[0] != null;
+			}
+			case "getLong" -> current[0][(int) arguments[0] - 1] instanceof final Long value ? value : 0L;
+			case "getInt" -> current[0][(int) arguments[0] - 1] instanceof final Integer value ? value : 0;
+			case "getBoolean" -> current[0][(int) arguments[0] - 1] instanceof final Boolean value ? value : false;
+			case "getString" -> (String) current[0][(int) arguments[0] - 1];
+			case "getObject" -> current[0][(int) arguments[0] - 1];
+			case "close" -> null;
+			default -> throw new UnsupportedOperationException(method.toString());
+		});
+	}
+
+}
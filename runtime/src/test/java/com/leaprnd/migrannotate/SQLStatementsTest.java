@@ -0,0 +1,71 @@
+package com.leaprnd.migrannotate;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SQLStatementsTest {
+
+	@Test
+	public void testSplitDropsCommentsFollowingTheLastToken() {
+		final var sql = """
+			-- Backfill the new column
+			UPDATE "knight" SET "name" = '--' -- not a comment before this one
+			;
+			DELETE FROM "knight" /* nothing left */;
+			SELECT $body$ -- kept $body$; -- dropped
+			""";
+		assertEquals(List.of(
+			"-- Backfill the new column\nUPDATE \"knight\" SET \"name\" = '--'",
+			"DELETE FROM \"knight\"",
+			"SELECT $body$ -- kept $body$"
+		), SQLStatements.split(sql));
+	}
+
+	@Test
+	public void testSplitDropsBlankStatements() {
+		assertEquals(List.of("SELECT 1"), SQLStatements.split(";\n-- nothing\n; SELECT 1; /* nothing */"));
+	}
+
+	@Test
+	public void testCanonicalizeStripsCommentsAndWhitespace() {
+		final var sql = """
+			SELECT  1, -- one
+				/* two /* nested */ */ 2
+			FROM "t"  ;
+			""";
+		assertEquals("SELECT 1,2 FROM \"t\";", SQLStatements.canonicalize(sql));
+	}
+
+	@Test
+	public void testCanonicalizeKeepsStringLiterals() {
+		final var sql = "SELECT E'it\\'s -- not a comment'  ,  'a''b /* nor this */'";
+		assertEquals("SELECT E'it\\'s -- not a comment','a''b /* nor this */'", SQLStatements.canonicalize(sql));
+	}
+
+	@Test
+	public void testCanonicalizeKeepsDollarQuotedBodies() {
+		final var sql = """
+			CREATE FUNCTION "one"() RETURNS INT AS $body$
+				SELECT   1; -- one
+			$body$ LANGUAGE SQL;
+			""";
+		assertEquals(
+			"CREATE FUNCTION \"one\"()RETURNS INT AS $body$\n\tSELECT   1; -- one\n$body$ LANGUAGE SQL;",
+			SQLStatements.canonicalize(sql)
+		);
+	}
+
+	@Test
+	public void testCanonicalizeKeepsAdjacentStringLiteralsOnSeparateLines() {
+		final var sql = """
+			SELECT 'foo'
+				'bar', 'baz' -- continued
+			'qux';
+			""";
+		assertEquals("SELECT 'foo'\n'bar','baz'\n'qux';", SQLStatements.canonicalize(sql));
+	}
+
+}
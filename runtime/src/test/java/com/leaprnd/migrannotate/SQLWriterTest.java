@@ -0,0 +1,31 @@
+package com.leaprnd.migrannotate;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SQLWriterTest {
+
+	@Test
+	public void testAppendStatementTerminatesStatementsEndingInComments() {
+		final var writer = new SQLWriter(1, 0, 1, null);
+		writer.appendStatement("Knight", "ALTER TABLE \"knight\" ADD COLUMN \"name\" VARCHAR -- The first upgrade");
+		writer.appendStatement("Knight", "ALTER TABLE \"knight\" ADD COLUMN \"title\" VARCHAR");
+		writer.appendStatement("Knight", "UPDATE \"knight\" SET \"name\" = 'Unknown' -- backfill\n");
+		assertEquals("""
+			ALTER TABLE "knight" ADD COLUMN "name" VARCHAR;
+			ALTER TABLE "knight" ADD COLUMN "title" VARCHAR;
+			UPDATE "knight" SET "name" = 'Unknown';
+			""", writer.getSql());
+		writer.coalesceAlterTables();
+		assertEquals("""
+			ALTER TABLE "knight" ADD COLUMN "name" VARCHAR,
+				ADD COLUMN "title" VARCHAR;
+			UPDATE "knight" SET "name" = 'Unknown';
+			""", writer.getSql());
+		assertEquals(List.of("Knight", "Knight"), writer.getStatements().stream().map(SQLWriter.SourcedStatement::source).toList());
+	}
+
+}
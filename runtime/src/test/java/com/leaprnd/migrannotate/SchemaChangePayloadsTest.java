@@ -0,0 +1,48 @@
+package com.leaprnd.migrannotate;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SchemaChangePayloadsTest {
+
+	@Test
+	public void testEncodeJoinsPairs() {
+		final var checksumsById = new TreeMap<Long, Long>(Map.of(-6067387809931810870L, 1305369197L, 5399356631421331000L, 0L));
+		assertEquals(List.of("-6067387809931810870=1305369197,5399356631421331000=0"), SchemaChangePayloads.encode(checksumsById));
+	}
+
+	@Test
+	public void testEncodeNothing() {
+		assertEquals(List.of(), SchemaChangePayloads.encode(Map.of()));
+	}
+
+	@Test
+	public void testEncodeSplitsPayloadsThatPostgreSQLWouldReject() {
+		final var checksumsById = new TreeMap<Long, Long>();
+		for (var id = 0L; id < 1_000; id ++) {
+			checksumsById.put(Long.MIN_VALUE + id, Long.MAX_VALUE - id);
+		}
+		final var payloads = SchemaChangePayloads.encode(checksumsById);
+		assertTrue(payloads.size() > 1);
+		final var decoded = new TreeMap<Long, Long>();
+		for (final var payload : payloads) {
+			assertTrue(payload.getBytes(UTF_8).length < 8_000, () -> payload.length() + " bytes");
+			decoded.putAll(SchemaChangePayloads.decode(payload));
+		}
+		assertEquals(checksumsById, decoded);
+	}
+
+	@Test
+	public void testDecodeSkipsMalformedPairs() {
+		assertEquals(Map.of(1L, 2L, 3L, -4L), SchemaChangePayloads.decode("1=2,,=5,6,3=-4"));
+		assertEquals(Map.of(), SchemaChangePayloads.decode(""));
+	}
+
+}
@@ -0,0 +1,65 @@
+package com.leaprnd.migrannotate;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TableLockAcquisitionTest {
+
+	@Test
+	public void testFindTableLocksInTriggersAndRules() {
+		final var sql = """
+			CREATE OR REPLACE TRIGGER "trimRecipeName" BEFORE INSERT ON "recipe" FOR EACH ROW EXECUTE FUNCTION "trim"();
+			CREATE CONSTRAINT TRIGGER "checkKnight" AFTER INSERT ON "knight" FOR EACH ROW EXECUTE FUNCTION "check"();
+			DROP TRIGGER IF EXISTS "oldTrigger" ON "jedi";
+			CREATE RULE "protectApple" AS ON DELETE TO "apple" DO INSTEAD NOTHING;
+			DROP RULE "oldRule" ON public."sauce";
+			""";
+		assertEquals(
+			Map.of(
+				"\"recipe\"", "SHARE ROW EXCLUSIVE",
+				"\"knight\"", "SHARE ROW EXCLUSIVE",
+				"\"jedi\"", "ACCESS EXCLUSIVE",
+				"\"apple\"", "ACCESS EXCLUSIVE",
+				"public.\"sauce\"", "ACCESS EXCLUSIVE"
+			),
+			TableLockAcquisition.findTableLocksIn(List.of(sql))
+		);
+	}
+
+	@Test
+	public void testFindTableLocksInIndexes() {
+		final var sql = """
+			CREATE INDEX "ixKnightName" ON "knight" ("name");
+			DROP INDEX IF EXISTS "ixJediName";
+			DROP INDEX CONCURRENTLY "ixAppleName";
+			""";
+		assertEquals(
+			Map.of("\"knight\"", "SHARE", "\"ixJediName\"", "ACCESS EXCLUSIVE"),
+			TableLockAcquisition.findTableLocksIn(List.of(sql))
+		);
+	}
+
+	@Test
+	public void testFindTableLocksCombinesModes() {
+		final var sql = """
+			CREATE INDEX "ixKnightName" ON "knight" ("name");
+			UPDATE "knight" SET "name" = TRIM("name");
+			""";
+		assertEquals(Map.of("\"knight\"", "SHARE ROW EXCLUSIVE"), TableLockAcquisition.findTableLocksIn(List.of(sql)));
+	}
+
+	@Test
+	public void testFindTableLocksIgnoresViews() {
+		final var sql = """
+			CREATE OR REPLACE VIEW "knightName" AS SELECT "name" FROM "knight";
+			ALTER VIEW "knightName" RENAME TO "knightNames";
+			REFRESH MATERIALIZED VIEW "knightCount";
+			""";
+		assertEquals(Map.of(), TableLockAcquisition.findTableLocksIn(List.of(sql)));
+	}
+
+}
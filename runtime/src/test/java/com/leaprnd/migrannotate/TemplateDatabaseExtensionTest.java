@@ -0,0 +1,58 @@
+package com.leaprnd.migrannotate;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+
+import static com.leaprnd.migrannotate.MigrationResult.ALREADY_UP_TO_DATE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TemplateDatabaseExtensionTest {
+
+	private static final PostgreSQLContainer<?> CONTAINER = new PostgreSQLContainer<>("postgres:14.5");
+
+	static {
+		CONTAINER.start();
+	}
+
+	@RegisterExtension
+	static final TemplateDatabaseExtension DATABASE = new TemplateDatabaseExtension(
+		database -> DriverManager.getConnection(
+			"jdbc:postgresql://" + CONTAINER.getHost() + ':' + CONTAINER.getFirstMappedPort() + '/' + database,
+			CONTAINER.getUsername(),
+			CONTAINER.getPassword()
+		)
+	).withoutDurability();
+
+	@Test
+	public void testCloneIsAlreadyMigrated(Connection connection) throws Exception {
+		assertEquals(ALREADY_UP_TO_DATE, new Migrannotate(connection).migrate());
+	}
+
+	@Test
+	public void testFirstCloneStartsEmpty(Connection connection) throws Exception {
+		verifyAppleTableIsEmpty(connection);
+	}
+
+	@Test
+	public void testSecondCloneStartsEmpty(Connection connection) throws Exception {
+		verifyAppleTableIsEmpty(connection);
+	}
+
+	private void verifyAppleTableIsEmpty(Connection connection) throws Exception {
+		final var sql = """
+			INSERT INTO "apple" ("name") VALUES ('Honeycrisp') RETURNING "id";
+			""";
+		try (final var statement = connection.prepareStatement(sql)) {
+			try (final var results = statement.executeQuery()) {
+				assertTrue(results.next());
+				assertEquals(1, results.getLong("id"));
+			}
+		}
+	}
+
+}
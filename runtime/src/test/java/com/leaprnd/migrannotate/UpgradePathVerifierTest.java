@@ -0,0 +1,63 @@
+package com.leaprnd.migrannotate;
+
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.sql.DriverManager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UpgradePathVerifierTest {
+
+	private static final long KNIGHT_ID = 6067387809931810870L;
+	private static final long JEDI_ID = 5399356631421331000L;
+
+	@Test
+	public void testVerifyWithoutFixturesDoesNotConnect() throws Exception {
+		final DatabaseConnector connector = database -> {
+			throw new AssertionError();
+		};
+		assertTrue(new UpgradePathVerifier(connector).verify().isEmpty());
+	}
+
+	@Test
+	public void testVerifyFindsBrokenUpgradePaths() throws Exception {
+		final var failures = new UpgradePathVerifier(Container.CONNECTOR)
+			.setParallelism(2)
+			.addFixture(KNIGHT_ID, 1305369197L, """
+				CREATE TABLE "knight" (
+					"id" BIGINT NOT NULL GENERATED ALWAYS AS IDENTITY,
+					CONSTRAINT "pkKnight" PRIMARY KEY ("id")
+				);
+				""")
+			.addFixture(JEDI_ID, 242734274L, """
+				CREATE TABLE "jedi" (
+					"knight" BIGINT NOT NULL,
+					CONSTRAINT "pkJedi" PRIMARY KEY ("knight"),
+					CONSTRAINT "fkJediKnight" FOREIGN KEY ("knight") REFERENCES "knight" ("id") ON UPDATE CASCADE ON DELETE CASCADE
+				);
+				""")
+			.verify();
+		assertEquals(1, failures.size(), failures::toString);
+		assertEquals(JEDI_ID, failures.get(0).getId());
+		assertEquals(242734274L, failures.get(0).getFromChecksum());
+	}
+
+	private static final class Container {
+
+		private static final PostgreSQLContainer<?> CONTAINER = new PostgreSQLContainer<>("postgres:14.5");
+
+		static {
+			CONTAINER.start();
+		}
+
+		private static final DatabaseConnector CONNECTOR = database -> DriverManager.getConnection(
+			"jdbc:postgresql://" + CONTAINER.getHost() + ':' + CONTAINER.getFirstMappedPort() + '/' + database,
+			CONTAINER.getUsername(),
+			CONTAINER.getPassword()
+		);
+
+	}
+
+}